@@ -0,0 +1,82 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import parser.CompiledExpression;
+import parser.EvaluationFrame;
+import exceptions.LexerException;
+import exceptions.ParserException;
+
+/**
+ * Measures the evaluation of many points: one <code>evaluate()</code> call per row, the
+ * columnar batch evaluation and the parallel one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchBenchmark {
+	@Param({"65536"})
+	public int rows;
+
+	private CompiledExpression expression;
+	private EvaluationFrame frame;
+	private double[][] columns;
+	private double[] out;
+
+	@Setup
+	public void setUp(ExpressionState state) throws LexerException, ParserException {
+		Random random = new Random(42);
+
+		expression = state.newCompiler().compile(state.expression);
+		frame = new EvaluationFrame();
+		columns = new double[state.point.length][rows];
+		out = new double[rows];
+
+		//positive values keep the transcendental expressions inside their domains
+		for (double[] column : columns)
+			for (int r = 0; r < rows; r++)
+				column[r] = 0.1 + random.nextDouble();
+	}
+
+	@Benchmark
+	public double[] perRow(ExpressionState state) throws ParserException {
+		double[] point = state.point;
+
+		for (int r = 0; r < rows; r++) {
+			for (int i = 0; i < point.length; i++)
+				point[i] = columns[i][r];
+
+			out[r] = expression.evaluate(frame, point);
+		}
+
+		return out;
+	}
+
+	@Benchmark
+	public double[] batch() throws ParserException {
+		expression.evaluateBatch(frame, columns, out, 0, rows);
+		return out;
+	}
+
+	@Benchmark
+	public double[] parallel() throws ParserException {
+		expression.evaluateParallel(columns, out);
+		return out;
+	}
+}
@@ -0,0 +1,65 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import parser.BytecodeCompiler;
+import parser.CompiledExpression;
+import parser.EvaluationFrame;
+import parser.JParser;
+import parser.VectorFunction;
+import exceptions.LexerException;
+import exceptions.ParserException;
+
+/**
+ * Measures the evaluation of a single point through the interpreter, the generated
+ * bytecode and the <code>JParser</code> facade.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EvaluateBenchmark {
+	private CompiledExpression expression;
+	private EvaluationFrame frame;
+	private VectorFunction generated;
+	private JParser facade;
+
+	@Setup
+	public void setUp(ExpressionState state) throws LexerException, ParserException {
+		expression = state.newCompiler().compile(state.expression);
+		frame = new EvaluationFrame();
+		generated = BytecodeCompiler.toVectorFunction(expression);
+
+		facade = JParser.getInstance();
+		facade.setVariable(state.point.clone());
+		facade.compileExpression(state.expression);
+	}
+
+	@Benchmark
+	public double interpreter(ExpressionState state) throws ParserException {
+		return expression.evaluate(frame, state.point);
+	}
+
+	@Benchmark
+	public double bytecode(ExpressionState state) throws ParserException {
+		return generated.evaluate(state.point);
+	}
+
+	@Benchmark
+	public double facade() throws ParserException {
+		return facade.evaluate();
+	}
+}
@@ -0,0 +1,75 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import parser.ExpressionCompiler;
+
+/**
+ * The expression every benchmark works on. Expressions are sums of distinct terms, so the
+ * optimizer can't collapse them, and differ in length, in how they use variables and in how
+ * much of their work is spent on transcendental functions.
+ */
+@State(Scope.Thread)
+public class ExpressionState {
+	/** The amount of variables of indexed expressions */
+	public static final int DIMENSION = 4;
+
+	/** <code>short</code> expressions have 3 terms and <code>long</code> ones 300 */
+	@Param({"short", "long"})
+	public String length;
+
+	/** Either the scalar x or x[0] .. x[DIMENSION-1] */
+	@Param({"scalar", "indexed"})
+	public String variables;
+
+	/** <code>arithmetic</code> uses only + - * / while <code>transcendental</code> mostly calls functions */
+	@Param({"arithmetic", "transcendental"})
+	public String kind;
+
+	public String expression;
+	public double[] point;
+
+	@Setup
+	public void setUp() {
+		boolean indexed = variables.equals("indexed");
+		int terms = length.equals("long") ? 300 : 3;
+
+		expression = build(kind.equals("transcendental"), indexed, terms);
+		point = indexed ? new double[] {0.5, 1.5, 2.5, 3.5} : new double[] {0.5};
+	}
+
+	/**
+	 * @return A compiler accepting the variables this expression uses.
+	 */
+	public ExpressionCompiler newCompiler() {
+		ExpressionCompiler compiler = new ExpressionCompiler();
+
+		if (variables.equals("indexed"))
+			compiler.setIndexedVariables(DIMENSION);
+		else
+			compiler.setScalarVariable();
+
+		return compiler;
+	}
+
+	static String build(boolean transcendental, boolean indexed, int terms) {
+		StringBuilder buffer = new StringBuilder();
+
+		for (int i = 0; i < terms; i++) {
+			String x = indexed ? "x[" + (i % DIMENSION) + "]" : "x";
+
+			if (i > 0)
+				buffer.append(i % 2 == 0 ? " + " : " - ");
+
+			if (transcendental)
+				buffer.append("sin(" + x + "*" + (i + 1) + ")*cos(" + x + "/" + (i + 2) + ") + ln(" + (i + 1) + " + " + x + "^2)");
+			else
+				buffer.append("(" + x + "*" + i + ".5 - 2)/(" + x + " + " + (i + 7) + ")");
+		}
+
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,74 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lexer.Lexer;
+import parser.CompileCache;
+import parser.CompiledExpression;
+import parser.ExpressionCompiler;
+import parser.ShuntingYard;
+import exceptions.LexerException;
+import exceptions.ParserException;
+
+/**
+ * Measures the compile path: lexing, the shunting-yard conversion and the whole compilation,
+ * with and without a cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrontEndBenchmark {
+	private Lexer lexer;
+	private ShuntingYard shuntingYard;
+	private ExpressionCompiler compiler;
+	private ExpressionCompiler cachedCompiler;
+
+	@Setup
+	public void setUp(ExpressionState state) {
+		lexer = new Lexer();
+		lexer.setAcceptVariables(true);
+		if (state.variables.equals("indexed"))
+			lexer.setMaxDimension(ExpressionState.DIMENSION);
+
+		shuntingYard = new ShuntingYard(lexer);
+		compiler = state.newCompiler();
+		cachedCompiler = state.newCompiler();
+		cachedCompiler.setCache(new CompileCache(16));
+	}
+
+	@Benchmark
+	public int lex(ExpressionState state) throws LexerException {
+		lexer.parseToTokens(state.expression);
+		return lexer.getList().size();
+	}
+
+	@Benchmark
+	public int shuntingYard(ExpressionState state) throws LexerException, ParserException {
+		shuntingYard.convertFromInfixToPosfix(state.expression);
+		return shuntingYard.getExpression().size();
+	}
+
+	@Benchmark
+	public CompiledExpression compile(ExpressionState state) throws LexerException, ParserException {
+		return compiler.compile(state.expression);
+	}
+
+	@Benchmark
+	public CompiledExpression compileCached(ExpressionState state) throws LexerException, ParserException {
+		return cachedCompiler.compile(state.expression);
+	}
+}
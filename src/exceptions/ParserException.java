@@ -2,7 +2,28 @@ package exceptions;
 
 @SuppressWarnings("serial")
 public class ParserException extends Exception {
+	/** What made the expression fail, which tells failures apart without reading their messages */
+	public enum Kind {
+		DIVISION_BY_ZERO,
+		ZERO_TO_THE_ZERO,
+		LOGARITHM_DOMAIN,
+		/** An expression which can't be compiled, or variables not set */
+		MALFORMED,
+		OTHER
+	}
+	
+	private final Kind kind;
+	
 	public ParserException(String message) {
+		this(message, Kind.OTHER);
+	}
+	
+	public ParserException(String message, Kind kind) {
 		super(message);
+		this.kind = kind;
+	}
+	
+	public Kind getKind() {
+		return this.kind;
 	}
 }
@@ -1,5 +1,7 @@
 package lexer;
 
+import java.util.Locale;
+
 /**
  * Holds functions's names
  * 
@@ -7,26 +9,92 @@ package lexer;
  */
 public class FunctionToken extends Token {
 	
-	public static enum FunctionID {sin, cos, tan, sec, csc, ctg, asin, acos, atan, sinh, cosh, tanh, ln}
+	public static enum FunctionID {
+		sin, cos, tan, sec, csc, ctg, asin, acos, atan, sinh, cosh, tanh, ln, abs, min(2), max(2),
+		//if is a keyword, so the constant is upper case, but the function is called if(c, a, b)
+		IF(3);
+		
+		private final int arguments;
+		
+		private FunctionID() {
+			this(1);
+		}
+		
+		private FunctionID(int arguments) {
+			this.arguments = arguments;
+		}
+		
+		/**
+		 * @return The name the function is called by in expressions.
+		 */
+		public String getName() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+		
+		/**
+		 * @return How many arguments the function takes.
+		 */
+		public int getArguments() {
+			return this.arguments;
+		}
+	}
+	
+	private static final NameTrie<FunctionID> FUNCTIONS = new NameTrie<>();
+	
+	static {
+		for (FunctionID fID : FunctionID.values())
+			FUNCTIONS.put(fID.getName(), fID);
+	}
 	
 	FunctionID functionID;
+	private String name;
+	private int arguments;
 	
 	/**
 	 * Creates a token that represents a function. The suported functions are: sin, cos, tan, asin, acos,
-	 * atan, sec, csc, ctg, sinh, cosh, tanh, ln
+	 * atan, sec, csc, ctg, sinh, cosh, tanh, ln, abs, min(a, b), max(a, b) and if(c, a, b)
 	 * @param fID the stored function's ID.
 	 */
 	public FunctionToken(FunctionID fID) {
 		super(Token.Type.FUN);
 		this.functionID = fID;
+		this.name = fID.getName();
+		this.arguments = fID.getArguments();
 	}
 	
+	/**
+	 * Creates a token that represents a function defined outside the parser, which is bound
+	 * to its implementation when the expression is compiled.
+	 * @param name The function's name, in lower case.
+	 * @param arguments How many arguments the function is called with.
+	 */
+	public FunctionToken(String name, int arguments) {
+		super(Token.Type.FUN);
+		this.name = name;
+		this.arguments = arguments;
+	}
+	
+	/**
+	 * @return The built-in function's ID, or <code>null</code> if this function was defined
+	 * outside the parser.
+	 */
 	public FunctionID getFunctionID() {
 		return this.functionID;
 	}
 	
+	public String getName() {
+		return this.name;
+	}
+	
+	/**
+	 * @return How many arguments the function is called with.
+	 */
+	public int getArguments() {
+		return this.arguments;
+	}
+	
 	public String toString() {
-		return this.functionID.toString();
+		return this.name;
 	}
 
 	/**
@@ -35,13 +103,11 @@ public class FunctionToken extends Token {
 	 * @return The function's token if this is a valid function. <code>null</code> otherwise.
 	 */
 	public static FunctionID isFunction(String text) {
-		FunctionID toReturn = null;
+		int node = FUNCTIONS.root();
 		
-		//if there is no such function token, bypasses the exception and returns null
-		try {
-			toReturn = FunctionID.valueOf(text);
-		} catch (Exception e) { }
+		for (int i = 0; i < text.length(); i++)
+			node = FUNCTIONS.next(node, text.charAt(i));
 		
-		return toReturn;
+		return FUNCTIONS.value(node);
 	}
 }
@@ -1,6 +1,10 @@
 package lexer;
 
-import java.util.LinkedList;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import lexer.FunctionToken.FunctionID;
@@ -15,8 +19,78 @@ public class Lexer {
 	private static final char LPAR = '(';
 	private static final char COM = ',';
 	private static final char RPAR = ')';
+	private static final char LT = '<';
+	private static final char GT = '>';
+	private static final char EQ = '=';
+	private static final char NOT = '!';
 	
-	private static String INDEXED_VARIABLE_PATTERN = "^x\\[\\d+\\]";
+	//character classes, looked up in CLASSES
+	private static final byte OTHER = 0;
+	private static final byte SPACE = 1;
+	private static final byte DIGIT = 2;
+	private static final byte LETTER = 3;
+	private static final byte SIGN = 4;
+	private static final byte SYMBOL = 5;
+	private static final byte COMPARISON = 6;
+	
+	private static final byte[] CLASSES = new byte[128];
+	private static final Token[] SYMBOLS = new Token[128];
+	
+	//tokens without varying information are immutable, so they are shared
+	private static final Token ADD_TOKEN = new Token(Token.Type.ADD);
+	private static final Token SUB_TOKEN = new Token(Token.Type.SUB);
+	private static final Token POS_TOKEN = new Token(Token.Type.POS);
+	private static final Token NEG_TOKEN = new Token(Token.Type.NEG);
+	private static final Token VARIABLE = new VariableToken(0);
+	private static final Token LT_TOKEN = new Token(Token.Type.LT);
+	private static final Token LE_TOKEN = new Token(Token.Type.LE);
+	private static final Token GT_TOKEN = new Token(Token.Type.GT);
+	private static final Token GE_TOKEN = new Token(Token.Type.GE);
+	private static final Token EQ_TOKEN = new Token(Token.Type.EQ);
+	private static final Token NE_TOKEN = new Token(Token.Type.NE);
+	
+	//functions, constants and the variable, by name
+	private static final NameTrie<Token> NAMES = new NameTrie<>();
+	
+	//numbers with up to 18 digits fit a long, and the ones below 2^53 are exact doubles
+	private static final int MAX_DIGITS = 18;
+	private static final long MAX_EXACT = 1L << 53;
+	private static final double[] POWERS_OF_TEN = new double[23];
+	
+	//how many characters are read from a Reader at once
+	private static final int BUFFER_SIZE = 4096;
+	
+	static {
+		for (char c : " \t\n\u000B\f\r".toCharArray())
+			CLASSES[c] = SPACE;
+		for (char c = '0'; c <= '9'; c++)
+			CLASSES[c] = DIGIT;
+		for (char c = 'a'; c <= 'z'; c++) {
+			CLASSES[c] = LETTER;
+			CLASSES[Character.toUpperCase(c)] = LETTER;
+		}
+		
+		CLASSES[ADD] = CLASSES[SUB] = SIGN;
+		CLASSES[MUL] = CLASSES[DIV] = CLASSES[POW] = CLASSES[LPAR] = CLASSES[COM] = CLASSES[RPAR] = SYMBOL;
+		CLASSES[LT] = CLASSES[GT] = CLASSES[EQ] = CLASSES[NOT] = COMPARISON;
+		
+		SYMBOLS[MUL] = new Token(Token.Type.MUL);
+		SYMBOLS[DIV] = new Token(Token.Type.DIV);
+		SYMBOLS[POW] = new Token(Token.Type.POW);
+		SYMBOLS[LPAR] = new Token(Token.Type.LPAR);
+		SYMBOLS[COM] = new Token(Token.Type.COM);
+		SYMBOLS[RPAR] = new Token(Token.Type.RPAR);
+		
+		for (FunctionID fID : FunctionID.values())
+			NAMES.put(fID.getName(), new FunctionToken(fID));
+		NAMES.put("e", new DecimalToken(Math.E));
+		NAMES.put("pi", new DecimalToken(Math.PI));
+		NAMES.put("x", VARIABLE);
+		
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++)
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+	}
 	
 	private static Lexer instance = null;
 	
@@ -24,15 +98,46 @@ public class Lexer {
 	private boolean acceptsVariables;
 	private int maxDimension;
 	
+	//functions defined outside the parser, by name
+	private NameTrie<Token> functions;
+	
+	//named variables, by name, or null if the variable is x
+	private NameTrie<Token> variables;
+	
+	//the expression being parsed and the last number read from it
+	private CharSequence input;
+	private int length;
+	private double number;
+	private boolean integral;
+	
+	//the position of the next token, the last token read and the token being read
+	private int pos;
+	private Token previous;
+	private Token token;
 	
-	private Lexer() {
-		tokens = new LinkedList<>();
+	//when reading from a Reader, the characters read, where buffer[0] is at position offset and
+	//length is the position after the last one. The ones before mark, where the current token
+	//starts, can be discarded
+	private Reader reader;
+	private char[] buffer;
+	private int offset;
+	private int mark;
+	
+	/**
+	 * Creates a new, independent Lexer. Unlike the shared instance returned by
+	 * <code>getInstance()</code>, a Lexer created this way can be confined to a single
+	 * thread, so many expressions can be tokenized concurrently.
+	 */
+	public Lexer() {
+		tokens = new ArrayList<>();
+		functions = new NameTrie<>();
+		variables = null;
 		this.acceptsVariables = false;
 		this.maxDimension = 0;
 	}
 	
 	/**
-	 * Retuns the Lexer's instance, since this is a Singleton class.
+	 * Retuns the shared Lexer's instance, used by the <code>JParser</code> facade.
 	 * @return a Lexer's instance.
 	 */
 	public static Lexer getInstance() {
@@ -86,239 +191,430 @@ public class Lexer {
 		return this.maxDimension;
 	}
 	
+	/**
+	 * Sets the names of the functions defined outside the parser, which are accepted besides the
+	 * built-in ones. Each name becomes a <code>FunctionToken</code> called with one argument, unless
+	 * its arguments are separated by commas.
+	 * @param names The functions's names, which must have only the letters a-z.
+	 * @throws IllegalArgumentException if a name has other characters or is a built-in name.
+	 */
+	public void setFunctionNames(Collection<String> names) {
+		NameTrie<Token> functions = new NameTrie<>();
+		
+		for (String name : names) {
+			if (isReserved(name))
+				throw new IllegalArgumentException(name + " is already a built-in name.");
+			
+			functions.put(name, new FunctionToken(name, 1));
+		}
+		
+		this.functions = functions;
+	}
+	
+	/**
+	 * Sets the names of the variables, which are accepted instead of x and x[i]. The variable
+	 * called <code>names.get(i)</code> becomes a <code>VariableToken</code> of index i, regardless
+	 * of <code>setAcceptVariables()</code> and <code>setMaxDimension()</code>.
+	 * @param names The variables's names, which must have only the letters a-z, or <code>null</code>
+	 * to accept x or x[i] again.
+	 * @throws IllegalArgumentException if a name has other characters or is a built-in name.
+	 */
+	public void setVariableNames(List<String> names) {
+		if (names == null) {
+			this.variables = null;
+			return;
+		}
+		
+		NameTrie<Token> variables = new NameTrie<>();
+		
+		for (int i = 0; i < names.size(); i++) {
+			if (isReserved(names.get(i)))
+				throw new IllegalArgumentException(names.get(i) + " is already a built-in name.");
+			
+			variables.put(names.get(i), new VariableToken(i));
+		}
+		
+		this.variables = variables;
+	}
+	
+	/**
+	 * @return <code>true</code> if <code>name</code> is a built-in function, constant or variable.
+	 */
+	public static boolean isReserved(String name) {
+		int node = NAMES.root();
+		
+		for (int i = 0; i < name.length(); i++)
+			node = NAMES.next(node, name.charAt(i));
+		
+		return NAMES.value(node) != null;
+	}
+	
 	/**
 	 * Converts and infix expression into a series of tokens (still on infix notation)
 	 * @param expression The expression to be parsed
 	 * @throws LexerException If there are invalid variable names or functions.
 	 */
 	public void parseToTokens(String expression) throws LexerException {
+		parseToTokens((CharSequence) expression);
+	}
+	
+	/**
+	 * Converts and infix expression into a series of tokens (still on infix notation). The
+	 * expression is read in a single pass, ignoring spaces and the letters's case, without
+	 * copying it.
+	 * @param expression The expression to be parsed
+	 * @throws LexerException If there are invalid variable names or functions.
+	 */
+	public void parseToTokens(CharSequence expression) throws LexerException {
 		//resets from previous lexing
-		int pos = -1;
 		tokens.clear();
+		start(expression);
+		
+		for (Token token = next(); token != null; token = next())
+			tokens.add(token);
+	}
+	
+	/**
+	 * Starts reading the tokens of <code>expression</code> one at a time, through <code>next()</code>,
+	 * instead of collecting them into <code>getList()</code>. The expression isn't copied.
+	 * @param expression The expression to be read.
+	 */
+	public void start(CharSequence expression) {
+		input = expression;
+		length = expression.length();
+		reader = null;
+		buffer = null;
+		restart();
+	}
+	
+	/**
+	 * Starts reading the tokens of the expression in <code>expression</code> one at a time, through
+	 * <code>next()</code>. Characters are read in blocks as they are needed, and only the ones of
+	 * the current token are kept, so expressions of any length take the same memory. The reader is
+	 * not closed.
+	 * @param expression The expression to be read.
+	 */
+	public void start(Reader expression) {
+		input = null;
+		length = 0;
+		reader = expression;
+		buffer = new char[BUFFER_SIZE];
+		offset = 0;
+		mark = 0;
+		restart();
+	}
+	
+	private void restart() {
+		previous = null;
+		pos = skipSpaces(0);
+	}
+	
+	/**
+	 * Reads the next token of the expression given to <code>start()</code>, skipping spaces.
+	 * @return The token, or <code>null</code> at the end of the expression.
+	 * @throws LexerException If there are invalid variable names or functions.
+	 * @throws UncheckedIOException if the expression is read from a <code>Reader</code> which fails.
+	 */
+	public Token next() throws LexerException {
+		if (!has(pos)) {
+			input = null;
+			reader = null;
+			buffer = null;
+			return null;
+		}
 		
-		//strips spaces and transform the expression into lower case
-		expression = expression.replaceAll("\\s", "").toLowerCase();
+		//characters before the token are no longer needed
+		release(pos);
+		char digit = at(pos);
 		
-		while (++pos < expression.length()) {
-			char digit = expression.charAt(pos);
-			int newPos = 0;
-			
-			//If a text was parsed, update the seeking position and try to parse anything else
-			newPos = tryParseText(expression, pos, tokens); 
-			if (newPos != pos) {
-				pos = newPos - 1;
-				continue;
-			}
-			
-			//treating operators case
-			switch (digit) {
+		switch (classOf(digit)) {
+			case LETTER:
+				pos = scanName(pos);
+				break;
+				
+			case DIGIT:
+				pos = scanNumber(pos);
+				token = integral ? new IntegerToken((int) number) : new DecimalToken(number);
+				break;
 			
-				//this can be either a positive sign or an addition operator
-				case ADD:
-					if (tokens.size() == 0 || Token.isSignal(tokens.get(tokens.size() - 1)))
-						tokens.add(new Token(Token.Type.POS));
-					else
-						tokens.add(new Token(Token.Type.ADD)); 
-				continue;
+			//this can be either a sign or an addition/subtraction operator
+			case SIGN:
+				boolean signal = previous == null || Token.isSignal(previous);
 				
-				//this can be either a negative sign or a subtraction operator
-				case SUB:
-					if (tokens.size() == 0 || Token.isSignal(tokens.get(tokens.size() - 1)))
-						tokens.add(new Token(Token.Type.NEG));
-					else
-						tokens.add(new Token(Token.Type.SUB)); 
-				continue;
-					
-				case MUL: tokens.add(new Token(Token.Type.MUL)); continue;
-				case DIV: tokens.add(new Token(Token.Type.DIV)); continue;
-				case POW: tokens.add(new Token(Token.Type.POW)); continue;
+				if (digit == ADD)
+					token = signal ? POS_TOKEN : ADD_TOKEN;
+				else
+					token = signal ? NEG_TOKEN : SUB_TOKEN;
+				pos = skipSpaces(pos + 1);
+				break;
 				
-				//parenthesis and comma
-				case LPAR: tokens.add(new Token(Token.Type.LPAR)); continue;
-				case COM: tokens.add(new Token(Token.Type.COM)); continue;
-				case RPAR: tokens.add(new Token(Token.Type.RPAR)); continue;
-			}
+			//other operators, parenthesis and comma
+			case SYMBOL:
+				token = SYMBOLS[digit];
+				pos = skipSpaces(pos + 1);
+				break;
 			
-			//Same for a number
-			newPos = tryParseNumber(expression, pos, tokens);
-			if (newPos != pos) {
-				pos = newPos - 1;
-				continue;
-			}
+			case COMPARISON:
+				pos = scanComparison(pos);
+				break;
 			
 			//if we got here, then there is something wrong with this expression
-			throw new LexerException("Expression malformed arround position " + pos + ".");
+			default:
+				throw new LexerException("Expression malformed arround position " + pos + ".");
 		}
+		
+		previous = token;
+		return token;
 	}
 	
 	/**
-	 * Tries to parse a function or variable name from <code>expression</code> starting on position <code>pos</code> 
-	 * @param expression The expression being parsed
+	 * Parses a function, constant or variable name starting on position <code>pos</code>, which
+	 * must be a letter. The name is looked up among the built-in names and the functions given to
+	 * <code>setFunctionNames()</code> while it is read.
 	 * @param pos The current seek position on the expression
-	 * @param tokens The list of already parsed tokens
-	 * @return the new seek position. If the returned value is equals to the
-	 * passed as <code>pos</code> then no text was parsed.
+	 * @return the new seek position.
 	 * @throws LexerException if a invalid function name or variable is found, if no variables are allowed
 	 * on this expression and one is found or if indexed variables are permitted (x[i]), but a scalar one
 	 * (x) is found.
 	 */
-	private int tryParseText(String expression, int pos, List<Token> tokens) throws LexerException {
-		StringBuilder buffer = new StringBuilder();
-		boolean isText = false;
-		char digit = expression.charAt(pos);
-		
-		while (Character.isLetter(digit)) {
-			isText = true;
-			buffer.append(digit);
-			
-			if (++pos >= expression.length()) break;
-			digit = expression.charAt(pos);
+	private int scanName(int pos) throws LexerException {
+		int node = NAMES.root();
+		int function = functions.root();
+		int variable = variables == null ? NameTrie.NONE : variables.root();
+		char digit = 0;
+		
+		while (has(pos) && classOf(digit = at(pos)) == LETTER) {
+			digit = Character.toLowerCase(digit);
+			node = NAMES.next(node, digit);
+			function = functions.next(function, digit);
+			if (variable != NameTrie.NONE)
+				variable = variables.next(variable, digit);
+			pos = skipSpaces(pos + 1);
+		}
+		
+		Token name = NAMES.value(node);
+		if (name == null)
+			name = functions.value(function);
+		
+		if (variable != NameTrie.NONE && variables.value(variable) != null) {
+			if (name != null)
+				throw new LexerException("A name ending on position " + pos + " is both a variable and a function.");
+			name = variables.value(variable);
 		}
-		if (digit == '[') {
-			buffer.append(digit);
+		
+		int index = -1;
+		
+		if (has(pos) && digit == '[') {
+			pos = skipSpaces(pos + 1);
 			
-			if (++pos >= expression.length())
+			if (!has(pos))
 				throw new LexerException("Unexpected end of expresion before setting variable's index.");
-						
+			
 			//now try to parse the variable's index, which shall be a number -- no, you can't index
 			//a variable with another variable
-			int new_pos = tryParseNumber(expression, pos, tokens);
-			
-			if (new_pos == pos)
+			if (classOf(at(pos)) != DIGIT)
 				throw new LexerException("The variable's index is not a valid integer.");
 			
-			//remove the index that was inserted into the tokens list and add it to the variable buffer
-			Token t = tokens.remove(tokens.size() - 1);
+			pos = scanNumber(pos);
 			
-			if (!(t instanceof IntegerToken))
+			if (!integral)
 				throw new LexerException("The variable's index must be a integer value.");
-				
-			buffer.append(((IntegerToken)t).getValue());
-			pos = new_pos;
 			
-			if (pos >= expression.length())
+			index = (int) number;
+			
+			if (!has(pos))
 				throw new LexerException("Unexpected end of expresion before enclosing indexing bracket.");
 			
-			digit = expression.charAt(pos);
+			digit = at(pos);
 			if (digit != ']')
 				throw new LexerException("Expected ], but ." + digit + " on position " + pos + " found.");
 			
-			buffer.append(digit);
-			pos++;
+			pos = skipSpaces(pos + 1);
+			
+			//only the variable can be indexed
+			if (name != VARIABLE)
+				name = null;
 		}
 		
-		//if a text was succesfully parsed, try to classify it
-		if (isText) {
-			String text = buffer.toString();
-						
-			//treat constants
-			if (text.equals("e"))
-				tokens.add(new DecimalToken(Math.E));
+		if (name == null)
+			throw new LexerException("This is not either a valid variable name nor a valid function name.");
+		
+		if (name == VARIABLE && variables != null)
+			throw new LexerException("The variables of this expression are named, so x is not allowed.");
+		
+		if (name != VARIABLE) {
+			//constants, functions and named variables
+			token = name;
+		}
+		else if (index < 0) {
+			//a scalar variable was found, is it allowed?
 			
-			else if (text.equals("pi"))
-				tokens.add(new DecimalToken(Math.PI));
+			if (maxDimension == 0)
+				throw new LexerException("No variables are allowed on this expression.");
 			
-			else {
-				//treat valid function names
-				
-				FunctionID fID = FunctionToken.isFunction(text);
-				
-				if (fID != null) {
-					tokens.add(new FunctionToken(fID));
-				}
-				else if (text.equals("x")) {
-					//a scalar variable was found, is it allowed?
-					
-					if (maxDimension == 0)
-						throw new LexerException("No variables are allowed on this expression.");
-					
-					if (maxDimension == 1)
-						tokens.add(new VariableToken(0));
-					else
-						throw new LexerException("Just scalar variable, in the form 'x' is allowed on this expression.");
-				}
-				else if (text.matches(INDEXED_VARIABLE_PATTERN)) {
-					//a indexed variable was found, it is allowed?
-					
-					if (maxDimension == 0)
-						throw new LexerException("No variables are allowed on this expression.");
-					
-					if (maxDimension == 1)
-						throw new LexerException("Just scalar variable, in the form 'x' is not allowed on this expression.");
-					
-					//discover the variable's index
-					int index = Integer.valueOf(text.substring(text.indexOf('[') + 1, text.indexOf(']')));
-					if (index < 0 || index >= maxDimension)
-						throw new LexerException("Variable index outside of valid range [0-." + maxDimension +"[.");
-					
-					tokens.add(new VariableToken(index));	
-				}
-				else 
-					throw new LexerException("This is not either a valid variable name nor a valid function name.");
-			}
+			if (maxDimension == 1)
+				token = VARIABLE;
+			else
+				throw new LexerException("Just scalar variable, in the form 'x' is allowed on this expression.");
+		}
+		else {
+			//a indexed variable was found, it is allowed?
+			
+			if (maxDimension == 0)
+				throw new LexerException("No variables are allowed on this expression.");
+			
+			if (maxDimension == 1)
+				throw new LexerException("Just scalar variable, in the form 'x' is not allowed on this expression.");
+			
+			if (index >= maxDimension)
+				throw new LexerException("Variable index outside of valid range [0-." + maxDimension +"[.");
+			
+			token = new VariableToken(index);
 		}
 		
 		return pos;
 	}
 	
 	/**
-	 * Tries to parse a number from <code>expression</code> starting on position <code>pos</code>
-	 * @param expression The expression being parsed
+	 * Parses a comparison starting on position <code>pos</code>: &lt;, &lt;=, &gt;, &gt;=, == or !=.
+	 * @param pos The current seek position on the expression
+	 * @return the new seek position.
+	 * @throws LexerException if = or ! aren't followed by =.
+	 */
+	private int scanComparison(int pos) throws LexerException {
+		char first = at(pos);
+		int next = skipSpaces(pos + 1);
+		boolean equals = has(next) && at(next) == EQ;
+		
+		if (equals)
+			next = skipSpaces(next + 1);
+		
+		switch (first) {
+			case LT: token = equals ? LE_TOKEN : LT_TOKEN; break;
+			case GT: token = equals ? GE_TOKEN : GT_TOKEN; break;
+			
+			default:
+				if (!equals)
+					throw new LexerException("Expected = after " + first + " on position " + pos + ".");
+				token = first == EQ ? EQ_TOKEN : NE_TOKEN;
+		}
+		
+		return next;
+	}
+	
+	/**
+	 * Parses a number starting on position <code>pos</code>, which must be a digit, into
+	 * <code>number</code>. If it has no decimal part and fits an <code>int</code>,
+	 * <code>integral</code> is set.
 	 * @param pos The current seek position on the expression
-	 * @param tokens The list of already parsed tokens
-	 * @return the new seek position. If the returned value is equals to the
-	 * passed as <code>pos</code> then no number was parsed.
+	 * @return the new seek position.
 	 * @throws LexerException if the number ends with .
 	 */
-	private int tryParseNumber(String expression, int pos, List<Token> tokens) throws LexerException {
-		StringBuilder buffer = new StringBuilder();
-		char digit = expression.charAt(pos);
+	private int scanNumber(int pos) throws LexerException {
+		int start = pos;
+		long mantissa = 0;
+		int significant = 0;
+		int scale = 0;
+		boolean point = false;
 		
-		if ('0' <= digit && digit <= '9' || digit == '-') {
-			buffer.append(digit);
+		while (has(pos)) {
+			char digit = at(pos);
 			
-			//reads the integer part
-			while (++pos < expression.length()) {
-				digit = expression.charAt(pos);
-				
-				if ('0' <= digit && digit <= '9')
-					buffer.append(digit);
-				else break;
+			if (classOf(digit) == DIGIT) {
+				//leading zeros don't count as significant digits
+				if (significant > 0 || digit != '0')
+					significant++;
+				if (significant <= MAX_DIGITS)
+					mantissa = mantissa * 10 + (digit - '0');
+				if (point)
+					scale++;
 			}
+			else if (digit == '.' && !point)
+				point = true;
+			else
+				break;
 			
-			//parse the decimal part
-			if (digit == '.') {
-				buffer.append('.');
-				
-				while (++pos < expression.length()){
-					digit = expression.charAt(pos);
+			pos = skipSpaces(pos + 1);
+		}
+		
+		if (point && scale == 0)
+			throw new LexerException("Number can't finish with [.].");
+		
+		integral = !point && significant <= MAX_DIGITS && mantissa <= Integer.MAX_VALUE;
+		
+		if (significant > MAX_DIGITS || scale >= POWERS_OF_TEN.length || mantissa > MAX_EXACT)
+			number = parseSlowly(start, pos);
+		else if (point)
+			//both values are exact, so the division is correctly rounded
+			number = mantissa / POWERS_OF_TEN[scale];
+		else
+			number = mantissa;
+		
+		return pos;
+	}
+	
+	/* Numbers with too many digits are rare, so they are copied and handed to the JDK */
+	private double parseSlowly(int start, int end) {
+		StringBuilder buffer = new StringBuilder(end - start);
+		
+		for (int i = start; i < end; i++)
+			if (classOf(at(i)) != SPACE)
+				buffer.append(at(i));
+		
+		return Double.parseDouble(buffer.toString());
+	}
+	
+	/* Whether there is a character on position pos, reading more of the Reader if needed */
+	private boolean has(int pos) {
+		return pos < length || reader != null && fill(pos);
+	}
+	
+	private char at(int pos) {
+		return reader == null ? input.charAt(pos) : buffer[pos - offset];
+	}
+	
+	/* Discards the characters before pos, which is where the next token starts */
+	private void release(int pos) {
+		mark = pos;
+	}
+	
+	/* Reads characters from reader until pos is read, moving or growing the buffer when it is full */
+	private boolean fill(int pos) {
+		try {
+			while (pos >= length) {
+				if (length - offset == buffer.length) {
+					int kept = length - mark;
+					char[] target = kept == buffer.length ? new char[buffer.length * 2] : buffer;
 					
-					if ('0' <= digit && digit <= '9') {
-						digit = expression.charAt(pos);
-						buffer.append(digit);
-					}
-					else break;
+					System.arraycopy(buffer, mark - offset, target, 0, kept);
+					buffer = target;
+					offset = mark;
 				}
+				
+				int read = reader.read(buffer, length - offset, buffer.length - (length - offset));
+				if (read < 0)
+					return false;
+				length += read;
 			}
 			
-			String text = buffer.toString();
-			if (text.charAt(text.length() - 1) == '.')
-				throw new LexerException("Number can't finish with [.].");
-		
-			//append a new token to the list
-			try {
-				int number = Integer.parseInt(buffer.toString());
-				tokens.add(new IntegerToken(number));
-			}
-			catch (Exception e) { 
-				double number = Double.parseDouble(buffer.toString());
-				tokens.add(new DecimalToken(number));
-			}
+			return true;
 		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private int skipSpaces(int pos) {
+		while (has(pos) && classOf(at(pos)) == SPACE)
+			pos++;
 		
 		return pos;
 	}
 	
+	private static int classOf(char digit) {
+		return digit < CLASSES.length ? CLASSES[digit] : OTHER;
+	}
+	
 	/**
 	 * Retuns a link of interpreted tokens
 	 * @return The list of interpreted tokens
@@ -0,0 +1,86 @@
+package lexer;
+
+import java.util.Arrays;
+
+/**
+ * Maps lower case ASCII names to values. Lookups walk the trie one character at a time, so
+ * the lexer can resolve a name while scanning it, without building a <code>String</code>.
+ * 
+ * @param <V> The type of the values.
+ */
+final class NameTrie<V> {
+	/** The node returned by <code>next()</code> when no name starts with the characters read */
+	static final int NONE = -1;
+
+	private static final int ALPHABET = 26;
+
+	private int[] next;
+	private Object[] values;
+	private int size;
+
+	NameTrie() {
+		next = new int[ALPHABET * 16];
+		values = new Object[16];
+		size = 1;
+		Arrays.fill(next, NONE);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if <code>name</code> has characters other than a-z.
+	 */
+	void put(String name, V value) {
+		int node = root();
+
+		for (int i = 0; i < name.length(); i++) {
+			int c = name.charAt(i) - 'a';
+
+			if (c < 0 || c >= ALPHABET)
+				throw new IllegalArgumentException("Names can only have the letters a-z.");
+
+			if (next[node * ALPHABET + c] == NONE) {
+				grow();
+				next[node * ALPHABET + c] = size++;
+			}
+
+			node = next[node * ALPHABET + c];
+		}
+
+		values[node] = value;
+	}
+
+	int root() {
+		return 0;
+	}
+
+	/**
+	 * @param node The node reached by the previous characters, or <code>NONE</code>.
+	 * @param c The next character, in lower case.
+	 * @return The node reached, or <code>NONE</code> if no name starts with these characters.
+	 */
+	int next(int node, char c) {
+		int index = c - 'a';
+
+		if (node == NONE || index < 0 || index >= ALPHABET)
+			return NONE;
+
+		return next[node * ALPHABET + index];
+	}
+
+	/**
+	 * @return The value of the name ending at <code>node</code>, or <code>null</code> if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	V value(int node) {
+		return node == NONE ? null : (V) values[node];
+	}
+
+	private void grow() {
+		if (size < values.length)
+			return;
+
+		int capacity = values.length * 2;
+		next = Arrays.copyOf(next, capacity * ALPHABET);
+		Arrays.fill(next, size * ALPHABET, next.length, NONE);
+		values = Arrays.copyOf(values, capacity);
+	}
+}
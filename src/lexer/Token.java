@@ -12,9 +12,11 @@ public class Token {
 	//FUN = function
 	//VAR = variable
 	//NUM = number (double, always)
+	//LT, LE, GT, GE, EQ, NE = comparisons, which give 1 when true and 0 otherwise
 	
-	public static enum Type {ADD, SUB, MUL, DIV, POW, NEG, POS, LPAR, RPAR, COM, FUN, VAR, NUM};
-	public static Type operators[] = {Type.ADD, Type.SUB, Type.MUL, Type.DIV, Type.POW, Type.NEG, Type.POS};
+	public static enum Type {ADD, SUB, MUL, DIV, POW, NEG, POS, LT, LE, GT, GE, EQ, NE, LPAR, RPAR, COM, FUN, VAR, NUM};
+	public static Type operators[] = {Type.ADD, Type.SUB, Type.MUL, Type.DIV, Type.POW, Type.NEG, Type.POS,
+		Type.LT, Type.LE, Type.GT, Type.GE, Type.EQ, Type.NE};
 	
 	private Type type;
 	private int priority;
@@ -25,19 +27,21 @@ public class Token {
 	 */
 	public Token(Type type) {
 		this.type = type;
-		this.priority = -1;	//standard priority
 		
-		//The / 2 grants that (ADD, SUB), (MUL, DIV) and (POW, NEG) have priorities 
-		//[1,2,3] respectively
-		for (int i = 0; i < operators.length; i++)
-			if (operators[i] == type) {
-				this.priority = i / 2;
-				break;
-			}
-		
-		//forces POS having the same precedence as NEG and POW
-		if (priority > 2)
-			priority = 2;
+		//the comparisons, (ADD, SUB), (MUL, DIV) and (POW, NEG, POS) have priorities [0,1,2,3]
+		//respectively, so a+b < c*d compares the sum to the product
+		switch (type) {
+			case LT: case LE: case GT: case GE: case EQ: case NE:
+				this.priority = 0;
+			break;
+			
+			case ADD: case SUB: this.priority = 1; break;
+			case MUL: case DIV: this.priority = 2; break;
+			case POW: case NEG: case POS: this.priority = 3; break;
+			
+			default:
+				this.priority = -1;	//standard priority
+		}
 	}
 	
 	public Type getType() {
@@ -0,0 +1,390 @@
+package parser;
+
+import java.util.Arrays;
+
+import exceptions.ParserException;
+import exceptions.ParserException.Kind;
+
+/**
+ * Evaluates a program over many rows at once. Rows are processed in blocks and the
+ * program runs instruction by instruction over each block, so every instruction becomes
+ * a tight loop over <code>double[]</code> columns that the JIT can unroll and vectorize,
+ * instead of one dispatch per instruction and row. Comparisons and selects are written as
+ * conditional expressions over whole columns, which the JIT compiles into conditional moves
+ * or vector blends, so rows of mixed signs don't cause branch mispredictions. The rows of
+ * such programs which fail are evaluated again by themselves, since only the failures of
+ * the branches chosen count (see <code>Selects</code>).
+ */
+final class BatchEvaluator {
+	/** Rows evaluated per block, small enough to keep the stack columns in the L1 cache */
+	static final int BLOCK_SIZE = 256;
+
+	private BatchEvaluator() { }
+
+	/**
+	 * Evaluates rows <code>[from, to[</code>, writing the results into <code>out</code>.
+	 * @param frame Holds one column of <code>BLOCK_SIZE</code> elements per stack position,
+	 * followed by one per temporary slot.
+	 */
+	static void run(Program program, double epsilon, double[][] columns, double[] out, int from, int to,
+			EvaluationFrame frame) throws ParserException {
+		double[][] stack = frame.columns(program.frameSize());
+
+		for (int start = from; start < to; start += BLOCK_SIZE) {
+			int n = Math.min(BLOCK_SIZE, to - start);
+			int top;
+
+			try {
+				top = runBlock(program, epsilon, columns, start, n, stack, frame, null, 0);
+			}
+			catch (ParserException e) {
+				if (!program.selects)
+					throw e;
+				top = recheck(program, epsilon, columns, start, n, stack, frame);
+			}
+
+			System.arraycopy(stack[top], 0, out, start, n);
+		}
+	}
+
+	/**
+	 * Evaluates rows <code>[from, to[</code> following IEEE 754 semantics, which never throws:
+	 * the operations that would throw produce their infinite or NaN results instead, and the
+	 * checks they failed are written into <code>flags</code> (see <code>EvaluationFlags</code>).
+	 */
+	static void run(Program program, double epsilon, double[][] columns, double[] out, byte[] flags, int from,
+			int to, EvaluationFrame frame) {
+		double[][] stack = frame.columns(program.frameSize());
+
+		Arrays.fill(flags, from, to, (byte) 0);
+		for (int start = from; start < to; start += BLOCK_SIZE) {
+			int n = Math.min(BLOCK_SIZE, to - start);
+			int top;
+
+			try {
+				top = runBlock(program, epsilon, columns, start, n, stack, frame, flags, start);
+				if (program.selects)
+					unflag(program, epsilon, columns, start, n, flags, frame);
+			}
+			catch (ParserException e) {
+				//every failure is flagged, including the ones of registered functions, so only a corrupted program gets here
+				throw new IllegalStateException(e);
+			}
+
+			System.arraycopy(stack[top], 0, out, start, n);
+		}
+	}
+
+	/**
+	 * Evaluates rows <code>[from, to[</code> of a program with many outputs, writing the
+	 * results of output k into <code>out[k]</code>.
+	 */
+	static void run(Program program, double epsilon, double[][] columns, double[][] out, int from, int to,
+			EvaluationFrame frame) throws ParserException {
+		double[][] stack = frame.columns(program.frameSize());
+
+		for (int start = from; start < to; start += BLOCK_SIZE) {
+			int n = Math.min(BLOCK_SIZE, to - start);
+
+			//the outputs are the whole stack left by the program
+			try {
+				runBlock(program, epsilon, columns, start, n, stack, frame, null, 0);
+			}
+			catch (ParserException e) {
+				if (!program.selects)
+					throw e;
+				recheck(program, epsilon, columns, start, n, stack, frame);
+			}
+
+			for (int k = 0; k < program.outputs; k++)
+				System.arraycopy(stack[k], 0, out[k], start, n);
+		}
+	}
+
+	/*
+	 * Runs a block of a program with selects again after it failed, flagging the failures instead, and
+	 * throws the failure of the first row which reaches an output through the branches chosen, if any
+	 */
+	private static int recheck(Program program, double epsilon, double[][] columns, int start, int n,
+			double[][] stack, EvaluationFrame frame) throws ParserException {
+		byte[] flags = frame.flags();
+		double[] point = frame.row(program.requiredVariables);
+
+		Arrays.fill(flags, 0, n, (byte) 0);
+		int top = runBlock(program, epsilon, columns, start, n, stack, frame, flags, 0);
+
+		for (int k = 0; k < n; k++)
+			if (flags[k] != 0) {
+				for (int i = 0; i < program.requiredVariables; i++)
+					point[i] = columns[i][start + k];
+				Selects.evaluate(program, epsilon, point, frame);
+			}
+
+		return top;
+	}
+
+	/* Clears the flags of the failures of a block which only happened in the branches not chosen */
+	private static void unflag(Program program, double epsilon, double[][] columns, int start, int n, byte[] flags,
+			EvaluationFrame frame) throws ParserException {
+		double[] point = frame.row(program.requiredVariables);
+
+		for (int k = start; k < start + n; k++)
+			if (flags[k] != 0) {
+				for (int i = 0; i < program.requiredVariables; i++)
+					point[i] = columns[i][k];
+				flags[k] = (byte) Selects.flags(program, epsilon, point, frame);
+			}
+	}
+
+	/**
+	 * Runs the instructions over a block of n rows, returning the index of the top of the stack.
+	 * @param flags Receives the checks failed by each row, or <code>null</code> to throw instead.
+	 * @param row The index of the flags of the block's first row.
+	 */
+	private static int runBlock(Program program, double epsilon, double[][] columns, int start, int n,
+			double[][] stack, EvaluationFrame frame, byte[] flags, int row) throws ParserException {
+		final int[] ops = program.ops;
+		final int[] args = program.args;
+		int top = -1;
+		double[] a, b, c;
+
+		for (int i = 0; i < ops.length; i++) {
+			switch (ops[i]) {
+				case Opcodes.CONST:
+					a = stack[++top];
+					double value = program.constants[args[i]];
+
+					for (int k = 0; k < n; k++)
+						a[k] = value;
+				break;
+
+				case Opcodes.VAR:
+					System.arraycopy(columns[args[i]], start, stack[++top], 0, n);
+				break;
+
+				case Opcodes.LOAD:
+					System.arraycopy(stack[program.stackSize + args[i]], 0, stack[++top], 0, n);
+				break;
+
+				case Opcodes.STORE:
+					System.arraycopy(stack[top], 0, stack[program.stackSize + args[i]], 0, n);
+				break;
+
+				case Opcodes.ADD:
+					b = stack[top--];
+					a = stack[top];
+					for (int k = 0; k < n; k++)
+						a[k] += b[k];
+				break;
+
+				case Opcodes.SUB:
+					b = stack[top--];
+					a = stack[top];
+					for (int k = 0; k < n; k++)
+						a[k] -= b[k];
+				break;
+
+				case Opcodes.MUL:
+					b = stack[top--];
+					a = stack[top];
+					for (int k = 0; k < n; k++)
+						a[k] *= b[k];
+				break;
+
+				case Opcodes.DIV:
+					b = stack[top--];
+					a = stack[top];
+
+					if (flags != null)
+						flagBelow(b, n, epsilon, flags, row, EvaluationFlags.DIVISION_BY_ZERO);
+					else if (countBelow(b, n, epsilon) > 0)
+						throw new ParserException("Attempt to divide by zero.", Kind.DIVISION_BY_ZERO);
+
+					for (int k = 0; k < n; k++)
+						a[k] /= b[k];
+				break;
+
+				case Opcodes.POW:
+					b = stack[top--];
+					a = stack[top];
+
+					if (flags == null)
+						for (int k = 0; k < n; k++)
+							a[k] = Operations.pow(a[k], b[k], epsilon);
+					else
+						for (int k = 0; k < n; k++) {
+							if (Math.abs(a[k]) < epsilon && Math.abs(b[k]) < epsilon)
+								flags[row + k] |= EvaluationFlags.ZERO_TO_THE_ZERO;
+							a[k] = Math.pow(a[k], b[k]);
+						}
+				break;
+
+				case Opcodes.NEG:
+					a = stack[top];
+					for (int k = 0; k < n; k++)
+						a[k] = -a[k];
+				break;
+
+				case Opcodes.SIN: a = stack[top]; for (int k = 0; k < n; k++) a[k] = Math.sin(a[k]); break;
+				case Opcodes.COS: a = stack[top]; for (int k = 0; k < n; k++) a[k] = Math.cos(a[k]); break;
+				case Opcodes.TAN: a = stack[top]; for (int k = 0; k < n; k++) a[k] = Math.tan(a[k]); break;
+
+				case Opcodes.SEC:
+					a = stack[top];
+					if (flags != null)
+						pole(Opcodes.SEC, a, n, epsilon, flags, row);
+					else
+						for (int k = 0; k < n; k++) a[k] = Operations.sec(a[k], epsilon);
+				break;
+
+				case Opcodes.CSC:
+					a = stack[top];
+					if (flags != null)
+						pole(Opcodes.CSC, a, n, epsilon, flags, row);
+					else
+						for (int k = 0; k < n; k++) a[k] = Operations.csc(a[k], epsilon);
+				break;
+
+				case Opcodes.CTG:
+					a = stack[top];
+					if (flags != null)
+						pole(Opcodes.CTG, a, n, epsilon, flags, row);
+					else
+						for (int k = 0; k < n; k++) a[k] = Operations.ctg(a[k], epsilon);
+				break;
+
+				case Opcodes.SINH: a = stack[top]; for (int k = 0; k < n; k++) a[k] = Math.sinh(a[k]); break;
+				case Opcodes.COSH: a = stack[top]; for (int k = 0; k < n; k++) a[k] = Math.cosh(a[k]); break;
+				case Opcodes.TANH: a = stack[top]; for (int k = 0; k < n; k++) a[k] = Math.tanh(a[k]); break;
+
+				case Opcodes.ASIN: a = stack[top]; for (int k = 0; k < n; k++) a[k] = Math.asin(a[k]); break;
+				case Opcodes.ACOS: a = stack[top]; for (int k = 0; k < n; k++) a[k] = Math.acos(a[k]); break;
+				case Opcodes.ATAN: a = stack[top]; for (int k = 0; k < n; k++) a[k] = Math.atan(a[k]); break;
+
+				case Opcodes.SQRT: a = stack[top]; for (int k = 0; k < n; k++) a[k] = Math.sqrt(a[k]); break;
+				case Opcodes.ABS: a = stack[top]; for (int k = 0; k < n; k++) a[k] = Math.abs(a[k]); break;
+
+				case Opcodes.LT: b = stack[top--]; a = stack[top]; for (int k = 0; k < n; k++) a[k] = a[k] < b[k] ? 1 : 0; break;
+				case Opcodes.LE: b = stack[top--]; a = stack[top]; for (int k = 0; k < n; k++) a[k] = a[k] <= b[k] ? 1 : 0; break;
+				case Opcodes.GT: b = stack[top--]; a = stack[top]; for (int k = 0; k < n; k++) a[k] = a[k] > b[k] ? 1 : 0; break;
+				case Opcodes.GE: b = stack[top--]; a = stack[top]; for (int k = 0; k < n; k++) a[k] = a[k] >= b[k] ? 1 : 0; break;
+				case Opcodes.EQ: b = stack[top--]; a = stack[top]; for (int k = 0; k < n; k++) a[k] = a[k] == b[k] ? 1 : 0; break;
+				case Opcodes.NE: b = stack[top--]; a = stack[top]; for (int k = 0; k < n; k++) a[k] = a[k] != b[k] ? 1 : 0; break;
+
+				case Opcodes.MIN: b = stack[top--]; a = stack[top]; for (int k = 0; k < n; k++) a[k] = Math.min(a[k], b[k]); break;
+				case Opcodes.MAX: b = stack[top--]; a = stack[top]; for (int k = 0; k < n; k++) a[k] = Math.max(a[k], b[k]); break;
+
+				case Opcodes.SELECT:
+					//both branches were computed for every row, so each row only picks one
+					b = stack[top--];
+					a = stack[top--];
+					c = stack[top];
+					for (int k = 0; k < n; k++)
+						c[k] = c[k] != 0 ? a[k] : b[k];
+				break;
+
+				case Opcodes.LN:
+					a = stack[top];
+
+					for (int k = 0; k < n; k++)
+						if (a[k] < epsilon) {
+							if (flags == null)
+								throw new ParserException("Attemp to calculate ln(0).", Kind.LOGARITHM_DOMAIN);
+							flags[row + k] |= EvaluationFlags.LOGARITHM_OF_ZERO;
+						}
+
+					for (int k = 0; k < n; k++)
+						a[k] = Math.log(a[k]);
+				break;
+
+				case Opcodes.CALL:
+					Call call = program.functions[args[i]];
+
+					if (call.unary != null) {
+						a = stack[top];
+						for (int k = 0; k < n; k++)
+							if (flags == null)
+								a[k] = call.unary.evaluate(a[k]);
+							else
+								a[k] = unary(call, a[k], flags, row + k);
+					}
+					else {
+						//gathers the arguments of each row from the columns of the operands
+						double[] arguments = frame.arguments(call.arity);
+						int first = top - call.arity + 1;
+						a = stack[first];
+
+						for (int k = 0; k < n; k++) {
+							for (int j = 0; j < call.arity; j++)
+								arguments[j] = stack[first + j][k];
+							if (flags == null)
+								a[k] = call.vector.evaluate(arguments);
+							else
+								a[k] = vector(call, arguments, flags, row + k);
+						}
+
+						top = first;
+					}
+				break;
+
+				default:
+					throw new ParserException("Unknown error.");
+			}
+		}
+
+		return top;
+	}
+
+	/* Calls a registered scalar function, flagging the row and giving NaN if it throws */
+	private static double unary(Call call, double x, byte[] flags, int row) {
+		try {
+			return call.unary.evaluate(x);
+		}
+		catch (ParserException e) {
+			flags[row] |= EvaluationFlags.FUNCTION_FAILED;
+			return Double.NaN;
+		}
+	}
+
+	/* Calls a registered vector function, flagging the row and giving NaN if it throws */
+	private static double vector(Call call, double[] arguments, byte[] flags, int row) {
+		try {
+			return call.vector.evaluate(arguments);
+		}
+		catch (ParserException e) {
+			flags[row] |= EvaluationFlags.FUNCTION_FAILED;
+			return Double.NaN;
+		}
+	}
+
+	/* Computes sec, csc or ctg as the reciprocal Operations computes, flagging the denominators below epsilon */
+	private static void pole(int opcode, double[] a, int n, double epsilon, byte[] flags, int row) {
+		if (opcode == Opcodes.SEC)
+			for (int k = 0; k < n; k++) a[k] = Math.cos(a[k]);
+		else if (opcode == Opcodes.CSC)
+			for (int k = 0; k < n; k++) a[k] = Math.sin(a[k]);
+		else
+			for (int k = 0; k < n; k++) a[k] = Math.tan(a[k]);
+
+		flagBelow(a, n, epsilon, flags, row, EvaluationFlags.TRIGONOMETRIC_POLE);
+		for (int k = 0; k < n; k++)
+			a[k] = 1 / a[k];
+	}
+
+	/* Sets flag for the rows whose values are too close to zero */
+	private static void flagBelow(double[] values, int n, double epsilon, byte[] flags, int row, int flag) {
+		for (int k = 0; k < n; k++)
+			if (Math.abs(values[k]) < epsilon)
+				flags[row + k] |= flag;
+	}
+
+	/* Counts the values too close to zero. A branch-free reduction, so the loop can be vectorized */
+	private static int countBelow(double[] values, int n, double epsilon) {
+		int count = 0;
+
+		for (int k = 0; k < n; k++)
+			count += Math.abs(values[k]) < epsilon ? 1 : 0;
+
+		return count;
+	}
+}
@@ -0,0 +1,363 @@
+package parser;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import parser.ClassFileWriter.Bytes;
+import exceptions.ParserException;
+
+/**
+ * An optional evaluation backend that translates the program of a <code>CompiledExpression</code>
+ * into a generated JVM class, so HotSpot can compile and inline the arithmetic and the
+ * <code>Math</code> calls directly instead of running the interpreter's dispatch loop.
+ * 
+ * Every generated class is defined by its own class loader, so the class is unloaded as soon as
+ * the returned function is no longer referenced. The generated code raises the same
+ * <code>ParserException</code> conditions as <code>CompiledExpression.evaluate()</code>, since
+ * both call <code>Operations</code>. Since the generated code computes both branches of every
+ * select, expressions with selects fall back to the interpreter when they fail, which only
+ * raises the failures of the branches chosen.
+ * 
+ * Expressions too large to fit in a single JVM method are not translated: the returned
+ * function falls back to the interpreter.
+ */
+public final class BytecodeCompiler {
+	private static final String PACKAGE = "parser/generated/";
+	private static final String OPERATIONS = "parser/Operations";
+	private static final String MATH = "java/lang/Math";
+	private static final String SCALAR_FUNCTION = "parser/ScalarFunction";
+	private static final String VECTOR_FUNCTION = "parser/VectorFunction";
+
+	//JVM instructions
+	private static final int DCONST_0 = 0x0e;
+	private static final int DCONST_1 = 0x0f;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int LDC2_W = 0x14;
+	private static final int DLOAD = 0x18;
+	private static final int DLOAD_1 = 0x27;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_1 = 0x2b;
+	private static final int DALOAD = 0x31;
+	private static final int AALOAD = 0x32;
+	private static final int DSTORE = 0x39;
+	private static final int DASTORE = 0x52;
+	private static final int POP = 0x57;
+	private static final int DUP = 0x59;
+	private static final int DUP_X2 = 0x5b;
+	private static final int DUP2 = 0x5c;
+	private static final int DADD = 0x63;
+	private static final int DSUB = 0x67;
+	private static final int DMUL = 0x6b;
+	private static final int DNEG = 0x77;
+	private static final int DRETURN = 0xaf;
+	private static final int RETURN = 0xb1;
+	private static final int GETFIELD = 0xb4;
+	private static final int PUTFIELD = 0xb5;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+	private static final int INVOKEINTERFACE = 0xb9;
+	private static final int CHECKCAST = 0xc0;
+	private static final int WIDE = 0xc4;
+
+	private static final AtomicLong counter = new AtomicLong();
+
+	private BytecodeCompiler() { }
+
+	/**
+	 * Translates <code>expression</code> into a function of x[0] .. x[n-1]. Scalar expressions
+	 * read x from x[0].
+	 * @param expression The expression to be translated.
+	 * @return A function equivalent to <code>expression.evaluate(x)</code>.
+	 */
+	public static VectorFunction toVectorFunction(final CompiledExpression expression) {
+		final Object generated = generate(expression, false);
+
+		if (generated != null && !expression.getProgram().selects)
+			return (VectorFunction) generated;
+
+		if (generated != null)
+			return new VectorFunction() {
+				public double evaluate(double[] x) throws ParserException {
+					try {
+						return ((VectorFunction) generated).evaluate(x);
+					}
+					catch (ParserException e) {
+						//the interpreter tells whether the failure belongs to a branch not chosen
+						return expression.evaluate(x);
+					}
+				}
+			};
+
+		return new VectorFunction() {
+			public double evaluate(double[] x) throws ParserException {
+				return expression.evaluate(x);
+			}
+		};
+	}
+
+	/**
+	 * Translates <code>expression</code> into a function of the scalar variable x.
+	 * @param expression The expression to be translated.
+	 * @return A function equivalent to <code>expression.evaluate(x)</code>.
+	 * @throws ParserException if the expression uses indexed variables other than x[0].
+	 */
+	public static ScalarFunction toScalarFunction(final CompiledExpression expression) throws ParserException {
+		if (expression.getProgram().requiredVariables > 1)
+			throw new ParserException("Only expressions of a scalar variable can be translated into a scalar function.");
+
+		final Object generated = generate(expression, true);
+
+		if (generated != null && !expression.getProgram().selects)
+			return (ScalarFunction) generated;
+
+		if (generated != null)
+			return new ScalarFunction() {
+				public double evaluate(double x) throws ParserException {
+					try {
+						return ((ScalarFunction) generated).evaluate(x);
+					}
+					catch (ParserException e) {
+						return expression.evaluate(x);
+					}
+				}
+			};
+
+		return new ScalarFunction() {
+			public double evaluate(double x) throws ParserException {
+				return expression.evaluate(x);
+			}
+		};
+	}
+
+	/* Generates, loads and instantiates the class, or returns null if the expression is too large */
+	private static Object generate(CompiledExpression expression, boolean scalar) {
+		String name = PACKAGE + "Expression" + counter.incrementAndGet();
+		String implemented = scalar ? SCALAR_FUNCTION : VECTOR_FUNCTION;
+		ClassFileWriter writer = new ClassFileWriter(name, "java/lang/Object", implemented);
+		Program program = expression.getProgram();
+
+		//the constructor receives the registered functions, kept in a field each, so every call
+		//site has a single target the JIT can inline
+		Object[] targets = new Object[program.functions.length];
+		Bytes init = new Bytes();
+		init.u1(ALOAD_0).u1(INVOKESPECIAL).u2(writer.methodref("java/lang/Object", "<init>", "()V"));
+
+		for (int k = 0; k < targets.length; k++) {
+			Call call = program.functions[k];
+			String type = call.unary != null ? SCALAR_FUNCTION : VECTOR_FUNCTION;
+
+			targets[k] = call.unary != null ? call.unary : call.vector;
+			writer.field("function" + k, "L" + type + ";");
+
+			init.u1(ALOAD_0).u1(ALOAD_1);
+			pushInt(writer, init, k);
+			init.u1(AALOAD).u1(CHECKCAST).u2(writer.classConstant(type));
+			init.u1(PUTFIELD).u2(writer.fieldref(name, "function" + k, "L" + type + ";"));
+		}
+
+		init.u1(RETURN);
+		writer.method("<init>", "([Ljava/lang/Object;)V", 3, 2, init);
+
+		Bytes code = new Bytes();
+
+		if (!scalar && program.requiredVariables > 0) {
+			code.u1(ALOAD_1);
+			pushInt(writer, code, program.requiredVariables);
+			code.u1(INVOKESTATIC).u2(writer.methodref(OPERATIONS, "checkVariables", "([DI)V"));
+		}
+
+		int epsilon = writer.doubleConstant(expression.getEpsilon());
+
+		//temporary slots are kept in the locals after the parameter, taking two locals each, followed
+		//by the arguments of the registered functions while they are copied into an array
+		int firstTemporary = scalar ? 3 : 2;
+		int firstArgument = firstTemporary + 2 * program.temporaries;
+		int maxArity = 0;
+
+		for (Call call : program.functions)
+			maxArity = Math.max(maxArity, call.arity);
+
+		if (firstArgument + 2 * maxArity > 0xFFFF)
+			return null;
+
+		for (int i = 0; i < program.length(); i++) {
+			int argument = program.args[i];
+
+			switch (program.ops[i]) {
+				case Opcodes.CONST: pushDouble(writer, code, program.constants[argument]); break;
+
+				case Opcodes.VAR:
+					if (scalar)
+						code.u1(DLOAD_1);
+					else {
+						code.u1(ALOAD_1);
+						pushInt(writer, code, argument);
+						code.u1(DALOAD);
+					}
+				break;
+
+				case Opcodes.LOAD: local(code, DLOAD, firstTemporary + 2 * argument); break;
+
+				case Opcodes.STORE:
+					code.u1(DUP2);
+					local(code, DSTORE, firstTemporary + 2 * argument);
+				break;
+
+				case Opcodes.ADD: code.u1(DADD); break;
+				case Opcodes.SUB: code.u1(DSUB); break;
+				case Opcodes.MUL: code.u1(DMUL); break;
+				case Opcodes.NEG: code.u1(DNEG); break;
+
+				case Opcodes.DIV: checked(writer, code, epsilon, "div", "(DDD)D"); break;
+				case Opcodes.POW: checked(writer, code, epsilon, "pow", "(DDD)D"); break;
+
+				case Opcodes.SEC: checked(writer, code, epsilon, "sec", "(DD)D"); break;
+				case Opcodes.CSC: checked(writer, code, epsilon, "csc", "(DD)D"); break;
+				case Opcodes.CTG: checked(writer, code, epsilon, "ctg", "(DD)D"); break;
+				case Opcodes.LN: checked(writer, code, epsilon, "ln", "(DD)D"); break;
+
+				case Opcodes.SIN: math(writer, code, "sin"); break;
+				case Opcodes.COS: math(writer, code, "cos"); break;
+				case Opcodes.TAN: math(writer, code, "tan"); break;
+				case Opcodes.ASIN: math(writer, code, "asin"); break;
+				case Opcodes.ACOS: math(writer, code, "acos"); break;
+				case Opcodes.ATAN: math(writer, code, "atan"); break;
+				case Opcodes.SINH: math(writer, code, "sinh"); break;
+				case Opcodes.COSH: math(writer, code, "cosh"); break;
+				case Opcodes.TANH: math(writer, code, "tanh"); break;
+				case Opcodes.SQRT: math(writer, code, "sqrt"); break;
+				case Opcodes.ABS: math(writer, code, "abs"); break;
+
+				case Opcodes.MIN: math(writer, code, "min", "(DD)D"); break;
+				case Opcodes.MAX: math(writer, code, "max", "(DD)D"); break;
+
+				//the class files can't have branches, so these call methods the JIT inlines
+				case Opcodes.LT: operation(writer, code, "less", "(DD)D"); break;
+				case Opcodes.LE: operation(writer, code, "lessOrEqual", "(DD)D"); break;
+				case Opcodes.GT: operation(writer, code, "greater", "(DD)D"); break;
+				case Opcodes.GE: operation(writer, code, "greaterOrEqual", "(DD)D"); break;
+				case Opcodes.EQ: operation(writer, code, "equal", "(DD)D"); break;
+				case Opcodes.NE: operation(writer, code, "notEqual", "(DD)D"); break;
+				case Opcodes.SELECT: operation(writer, code, "select", "(DDD)D"); break;
+
+				case Opcodes.CALL: call(writer, code, name, argument, program.functions[argument], firstArgument); break;
+
+				default:
+					throw new IllegalStateException("Unknown opcode " + program.ops[i] + ".");
+			}
+
+			if (code.size() > ClassFileWriter.MAX_CODE_LENGTH || !writer.poolFits())
+				return null;
+		}
+
+		code.u1(DRETURN);
+		if (code.size() > ClassFileWriter.MAX_CODE_LENGTH)
+			return null;
+
+		//doubles take two stack words, plus room for epsilon, for the array and index of a variable
+		//or for the copy stored into a temporary slot. Calls need the function, the arguments array,
+		//its copy, an index and an argument
+		int maxStack = 2 * program.stackSize + (targets.length > 0 ? 6 : 2);
+		int maxLocals = firstArgument + 2 * maxArity;
+		writer.method("evaluate", scalar ? "(D)D" : "([D)D", maxStack, maxLocals, code);
+
+		byte[] bytes = writer.toByteArray();
+		ExpressionLoader loader = new ExpressionLoader(BytecodeCompiler.class.getClassLoader());
+
+		try {
+			return loader.define(name.replace('/', '.'), bytes).getDeclaredConstructor(Object[].class)
+					.newInstance((Object) targets);
+		}
+		catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Unable to instantiate the generated class.", e);
+		}
+	}
+
+	/* Calls an Operations method that receives the operands and epsilon */
+	private static void checked(ClassFileWriter writer, Bytes code, int epsilon, String method, String descriptor) {
+		code.u1(LDC2_W).u2(epsilon);
+		code.u1(INVOKESTATIC).u2(writer.methodref(OPERATIONS, method, descriptor));
+	}
+
+	/* Calls the registered function kept in the field functionK, whose arguments are on the stack */
+	private static void call(ClassFileWriter writer, Bytes code, String owner, int k, Call call, int firstArgument) {
+		if (call.unary != null) {
+			//puts the function below its argument
+			code.u1(ALOAD_0).u1(GETFIELD).u2(writer.fieldref(owner, "function" + k, "L" + SCALAR_FUNCTION + ";"));
+			code.u1(DUP_X2).u1(POP);
+			code.u1(INVOKEINTERFACE).u2(writer.interfaceMethodref(SCALAR_FUNCTION, "evaluate", "(D)D")).u1(3).u1(0);
+			return;
+		}
+
+		//the last argument is on top
+		for (int j = call.arity - 1; j >= 0; j--)
+			local(code, DSTORE, firstArgument + 2 * j);
+
+		code.u1(ALOAD_0).u1(GETFIELD).u2(writer.fieldref(owner, "function" + k, "L" + VECTOR_FUNCTION + ";"));
+		pushInt(writer, code, call.arity);
+		code.u1(INVOKESTATIC).u2(writer.methodref(OPERATIONS, "arguments", "(I)[D"));
+
+		for (int j = 0; j < call.arity; j++) {
+			code.u1(DUP);
+			pushInt(writer, code, j);
+			local(code, DLOAD, firstArgument + 2 * j);
+			code.u1(DASTORE);
+		}
+
+		code.u1(INVOKEINTERFACE).u2(writer.interfaceMethodref(VECTOR_FUNCTION, "evaluate", "([D)D")).u1(2).u1(0);
+	}
+
+	/* Calls an Operations method that receives only the operands */
+	private static void operation(ClassFileWriter writer, Bytes code, String method, String descriptor) {
+		code.u1(INVOKESTATIC).u2(writer.methodref(OPERATIONS, method, descriptor));
+	}
+
+	private static void math(ClassFileWriter writer, Bytes code, String method) {
+		math(writer, code, method, "(D)D");
+	}
+
+	private static void math(ClassFileWriter writer, Bytes code, String method, String descriptor) {
+		code.u1(INVOKESTATIC).u2(writer.methodref(MATH, method, descriptor));
+	}
+
+	/* Loads or stores a local, which may need a wide index */
+	private static void local(Bytes code, int instruction, int index) {
+		if (index <= 0xFF)
+			code.u1(instruction).u1(index);
+		else
+			code.u1(WIDE).u1(instruction).u2(index);
+	}
+
+	private static void pushDouble(ClassFileWriter writer, Bytes code, double value) {
+		if (Double.doubleToRawLongBits(value) == 0L)
+			code.u1(DCONST_0);
+		else if (value == 1.0)
+			code.u1(DCONST_1);
+		else
+			code.u1(LDC2_W).u2(writer.doubleConstant(value));
+	}
+
+	private static void pushInt(ClassFileWriter writer, Bytes code, int value) {
+		if (value <= Byte.MAX_VALUE)
+			code.u1(BIPUSH).u1(value);
+		else if (value <= Short.MAX_VALUE)
+			code.u1(SIPUSH).u2(value);
+		else
+			code.u1(LDC_W).u2(writer.integer(value));
+	}
+
+	/**
+	 * Defines a single generated class. Since nothing else references this loader, both are
+	 * collected together with the last instance of the class.
+	 */
+	private static final class ExpressionLoader extends ClassLoader {
+		ExpressionLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+}
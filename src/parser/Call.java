@@ -0,0 +1,61 @@
+package parser;
+
+import exceptions.ParserException;
+
+/**
+ * A function registered in a <code>FunctionRegistry</code>, as bound to the call sites of a
+ * compiled expression. Unary functions are called through <code>unary</code>, the others
+ * through <code>vector</code>, which receives an array holding exactly <code>arity</code>
+ * arguments.
+ */
+final class Call {
+	//the step of central differences, relative to the argument, which balances truncation and rounding
+	private static final double STEP = Math.cbrt(Math.ulp(1.0));
+
+	final String name;
+	final int arity;
+	final ScalarFunction unary;
+	final VectorFunction vector;
+
+	Call(String name, ScalarFunction unary) {
+		this.name = name;
+		this.arity = 1;
+		this.unary = unary;
+		this.vector = null;
+	}
+
+	Call(String name, int arity, VectorFunction vector) {
+		this.name = name;
+		this.arity = arity;
+		this.unary = null;
+		this.vector = vector;
+	}
+
+	/**
+	 * @param arguments Holds exactly <code>arity</code> arguments.
+	 */
+	double invoke(double[] arguments) throws ParserException {
+		return unary != null ? unary.evaluate(arguments[0]) : vector.evaluate(arguments);
+	}
+
+	/**
+	 * Estimates the partial derivative with respect to argument j by central differences, since
+	 * registered functions don't provide their derivatives. <code>arguments</code> is restored.
+	 */
+	double partial(double[] arguments, int j) throws ParserException {
+		double x = arguments[j];
+		double h = STEP * Math.max(1, Math.abs(x));
+
+		arguments[j] = x + h;
+		double forward = invoke(arguments);
+		arguments[j] = x - h;
+		double backward = invoke(arguments);
+		arguments[j] = x;
+
+		return (forward - backward) / (2 * h);
+	}
+
+	public String toString() {
+		return this.name;
+	}
+}
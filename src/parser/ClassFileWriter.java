@@ -0,0 +1,256 @@
+package parser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A minimal class file writer, just enough to generate a final class with private fields,
+ * a constructor and straight-line methods, which is what <code>BytecodeCompiler</code> needs.
+ * The class files are written as version 49, so the methods don't need stack map frames.
+ */
+final class ClassFileWriter {
+	private static final int VERSION = 49;
+
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_PRIVATE = 0x0002;
+	private static final int ACC_FINAL = 0x0010;
+	private static final int ACC_SUPER = 0x0020;
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_DOUBLE = 6;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_FIELDREF = 9;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_INTERFACE_METHODREF = 11;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	/** The largest amount of bytes a method's code may have */
+	static final int MAX_CODE_LENGTH = 65535;
+
+	/** The largest amount of entries the constant pool may have */
+	static final int MAX_POOL_SIZE = 65535;
+
+	private final Bytes pool = new Bytes();
+	private final Map<String, Integer> entries = new HashMap<>();
+	private int poolCount = 1;
+
+	private final Bytes fields = new Bytes();
+	private int fieldCount = 0;
+
+	private final Bytes methods = new Bytes();
+	private int methodCount = 0;
+
+	private final String name;
+	private final String superName;
+	private final String[] interfaces;
+
+	/**
+	 * @param name The internal name of the class, like <code>a/b/C</code>.
+	 * @param superName The internal name of the super class.
+	 * @param interfaces The internal names of the implemented interfaces.
+	 */
+	ClassFileWriter(String name, String superName, String... interfaces) {
+		this.name = name;
+		this.superName = superName;
+		this.interfaces = interfaces;
+	}
+
+	int utf8(String value) {
+		Integer index = entries.get("U" + value);
+
+		if (index == null) {
+			byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+
+			index = newEntry("U" + value, 1);
+			pool.u1(CONSTANT_UTF8).u2(encoded.length).put(encoded);
+		}
+
+		return index;
+	}
+
+	int integer(int value) {
+		Integer index = entries.get("I" + value);
+
+		if (index == null) {
+			index = newEntry("I" + value, 1);
+			pool.u1(CONSTANT_INTEGER).u4(value);
+		}
+
+		return index;
+	}
+
+	int doubleConstant(double value) {
+		long bits = Double.doubleToRawLongBits(value);
+		Integer index = entries.get("D" + bits);
+
+		if (index == null) {
+			//doubles take two pool slots
+			index = newEntry("D" + bits, 2);
+			pool.u1(CONSTANT_DOUBLE).u4((int) (bits >>> 32)).u4((int) bits);
+		}
+
+		return index;
+	}
+
+	int classConstant(String internalName) {
+		int nameIndex = utf8(internalName);
+		Integer index = entries.get("C" + internalName);
+
+		if (index == null) {
+			index = newEntry("C" + internalName, 1);
+			pool.u1(CONSTANT_CLASS).u2(nameIndex);
+		}
+
+		return index;
+	}
+
+	int methodref(String owner, String method, String descriptor) {
+		return memberref(CONSTANT_METHODREF, owner, method, descriptor);
+	}
+
+	int interfaceMethodref(String owner, String method, String descriptor) {
+		return memberref(CONSTANT_INTERFACE_METHODREF, owner, method, descriptor);
+	}
+
+	int fieldref(String owner, String field, String descriptor) {
+		return memberref(CONSTANT_FIELDREF, owner, field, descriptor);
+	}
+
+	private int memberref(int tag, String owner, String member, String descriptor) {
+		int classIndex = classConstant(owner);
+		int nameIndex = utf8(member);
+		int descriptorIndex = utf8(descriptor);
+		Integer typeIndex = entries.get("T" + member + descriptor);
+
+		if (typeIndex == null) {
+			typeIndex = newEntry("T" + member + descriptor, 1);
+			pool.u1(CONSTANT_NAME_AND_TYPE).u2(nameIndex).u2(descriptorIndex);
+		}
+
+		String key = "M" + tag + owner + "." + member + descriptor;
+		Integer index = entries.get(key);
+
+		if (index == null) {
+			index = newEntry(key, 1);
+			pool.u1(tag).u2(classIndex).u2(typeIndex);
+		}
+
+		return index;
+	}
+
+	/**
+	 * @return <code>true</code> if the constant pool still fits in a class file, leaving
+	 * room for the entries added by <code>toByteArray()</code>.
+	 */
+	boolean poolFits() {
+		return poolCount + 2 * (interfaces.length + 2) <= MAX_POOL_SIZE;
+	}
+
+	/**
+	 * Adds a private final field, which can only be set by the constructor.
+	 */
+	void field(String field, String descriptor) {
+		fields.u2(ACC_PRIVATE | ACC_FINAL).u2(utf8(field)).u2(utf8(descriptor)).u2(0);
+		fieldCount++;
+	}
+
+	/**
+	 * Adds a public method.
+	 * @param code The method's bytecode, which must not contain branches.
+	 */
+	void method(String method, String descriptor, int maxStack, int maxLocals, Bytes code) {
+		int nameIndex = utf8(method);
+		int descriptorIndex = utf8(descriptor);
+		int codeIndex = utf8("Code");
+
+		methods.u2(ACC_PUBLIC).u2(nameIndex).u2(descriptorIndex).u2(1);
+
+		//Code attribute: max_stack, max_locals, code, no exception table and no attributes
+		methods.u2(codeIndex).u4(12 + code.size());
+		methods.u2(maxStack).u2(maxLocals).u4(code.size()).put(code.toByteArray());
+		methods.u2(0).u2(0);
+
+		methodCount++;
+	}
+
+	byte[] toByteArray() {
+		int thisIndex = classConstant(name);
+		int superIndex = classConstant(superName);
+		int[] interfaceIndexes = new int[interfaces.length];
+
+		for (int i = 0; i < interfaces.length; i++)
+			interfaceIndexes[i] = classConstant(interfaces[i]);
+
+		Bytes out = new Bytes();
+		out.u4(0xCAFEBABE).u2(0).u2(VERSION);
+		out.u2(poolCount).put(pool.toByteArray());
+
+		out.u2(ACC_PUBLIC | ACC_FINAL | ACC_SUPER).u2(thisIndex).u2(superIndex);
+		out.u2(interfaceIndexes.length);
+		for (int index : interfaceIndexes)
+			out.u2(index);
+
+		//the fields, the methods and no attributes
+		out.u2(fieldCount).put(fields.toByteArray());
+		out.u2(methodCount).put(methods.toByteArray());
+		out.u2(0);
+
+		return out.toByteArray();
+	}
+
+	private int newEntry(String key, int slots) {
+		int index = poolCount;
+
+		entries.put(key, index);
+		poolCount += slots;
+		return index;
+	}
+
+	/**
+	 * A growable big-endian byte buffer.
+	 */
+	static final class Bytes {
+		private byte[] data = new byte[64];
+		private int size;
+
+		Bytes u1(int value) {
+			ensure(1);
+			data[size++] = (byte) value;
+			return this;
+		}
+
+		Bytes u2(int value) {
+			ensure(2);
+			data[size++] = (byte) (value >>> 8);
+			data[size++] = (byte) value;
+			return this;
+		}
+
+		Bytes u4(int value) {
+			return u2(value >>> 16).u2(value);
+		}
+
+		Bytes put(byte[] bytes) {
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, data, size, bytes.length);
+			size += bytes.length;
+			return this;
+		}
+
+		int size() {
+			return size;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(data, size);
+		}
+
+		private void ensure(int extra) {
+			if (size + extra > data.length)
+				data = Arrays.copyOf(data, Math.max(size + extra, data.length * 2));
+		}
+	}
+}
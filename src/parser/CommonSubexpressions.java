@@ -0,0 +1,83 @@
+package parser;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Turns the expression tree into a DAG by hash-consing identical subtrees, so every
+ * distinct subexpression is represented by a single node. <code>ProgramBuilder</code>
+ * then evaluates each shared node only once, saving its value into a temporary slot.
+ * 
+ * Since the children of a visited node were already replaced by their unique
+ * representatives, two nodes are identical when their operations and values are equal
+ * and their children are the same objects.
+ */
+final class CommonSubexpressions extends TreeRewriter {
+	private final Map<Key, Node> unique = new HashMap<>();
+	private int eliminated;
+
+	@Override
+	protected Node visit(Node node) {
+		Key key = new Key(node);
+		Node existing = unique.get(key);
+
+		if (existing == null) {
+			unique.put(key, node);
+			return node;
+		}
+
+		//loading a constant or a variable is as cheap as loading a temporary slot
+		if (node.children.length > 0)
+			eliminated++;
+
+		return existing;
+	}
+
+	/**
+	 * @return How many operations were removed because they repeated another one.
+	 */
+	int getEliminated() {
+		return eliminated;
+	}
+
+	private static final class Key {
+		private final Node node;
+		private final int hash;
+
+		Key(Node node) {
+			this.node = node;
+
+			int h = 31 * node.op + node.arg;
+			h = 31 * h + System.identityHashCode(node.function);
+			h = 31 * h + Long.hashCode(Double.doubleToLongBits(node.value));
+			for (Node child : node.children)
+				h = 31 * h + System.identityHashCode(child);
+
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key))
+				return false;
+
+			Node that = ((Key) other).node;
+
+			if (node.op != that.op || node.arg != that.arg || node.function != that.function
+					|| Double.doubleToLongBits(node.value) != Double.doubleToLongBits(that.value)
+					|| node.children.length != that.children.length)
+				return false;
+
+			for (int i = 0; i < node.children.length; i++)
+				if (node.children[i] != that.children[i])
+					return false;
+
+			return true;
+		}
+	}
+}
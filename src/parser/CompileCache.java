@@ -0,0 +1,178 @@
+package parser;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size-bounded cache of compiled expressions, which can be shared by the
+ * <code>ExpressionCompiler</code> objects of many threads (see <code>ExpressionCompiler.setCache()</code>).
+ * Expressions are keyed by their text and by every compiler setting that changes the
+ * result, such as the variables configuration and epsilon.
+ * 
+ * Reads don't take any lock, while insertions, which follow a compilation anyway, and
+ * <code>clear()</code> share one. When the cache is full, an expression is evicted using the
+ * CLOCK algorithm, an approximation of LRU: expressions read since the last time the clock
+ * hand passed by get a second chance.
+ */
+public class CompileCache {
+	/** The capacity of the cache used by the <code>JParser</code> facade */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private static final CompileCache shared = new CompileCache(DEFAULT_CAPACITY);
+
+	private final int capacity;
+	private final ConcurrentHashMap<Key, Entry> entries;
+
+	/** The clock's ring of the keys of entries, in insertion order. Guarded by itself, as are insertions into entries */
+	private final Deque<Key> clock;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param capacity The maximum amount of expressions kept by the cache.
+	 * @throws IllegalArgumentException if <code>capacity</code> lesser than 1.
+	 */
+	public CompileCache(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("The cache capacity has to be a positive non-zero value.");
+
+		this.capacity = capacity;
+		this.entries = new ConcurrentHashMap<>();
+		this.clock = new ArrayDeque<>();
+	}
+
+	/**
+	 * @return The cache shared by the <code>JParser</code> facade.
+	 */
+	public static CompileCache getShared() {
+		return shared;
+	}
+
+	/* Returns the expression compiled with the given settings, or null if it isn't cached */
+	CompiledExpression get(String expression, Object settings) {
+		Entry entry = entries.get(new Key(expression, settings));
+
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+
+		//avoids writing to a shared cache line when the entry was already marked
+		if (!entry.referenced)
+			entry.referenced = true;
+
+		hits.increment();
+		return entry.expression;
+	}
+
+	/* Caches an expression compiled with the given settings, evicting another one if needed */
+	void put(String expression, Object settings, CompiledExpression compiled) {
+		Key key = new Key(expression, settings);
+
+		//the map and the ring change together, so clear() never leaves a key in only one of them
+		synchronized (clock) {
+			if (entries.putIfAbsent(key, new Entry(compiled)) != null)
+				return;
+
+			clock.addLast(key);
+
+			while (clock.size() > capacity) {
+				Key candidate = clock.pollFirst();
+				Entry entry = entries.get(candidate);
+
+				if (entry != null && entry.referenced) {
+					entry.referenced = false;
+					clock.addLast(candidate);
+				}
+				else {
+					entries.remove(candidate);
+					evictions.increment();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes every expression from the cache. The counters are kept.
+	 */
+	public void clear() {
+		synchronized (clock) {
+			entries.clear();
+			clock.clear();
+		}
+	}
+
+	/**
+	 * @return The amount of expressions currently cached.
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * @return How many compilations were served by the cache.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return How many compilations weren't found in the cache.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return How many expressions were removed to keep the cache within its capacity.
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public String toString() {
+		return "CompileCache[size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses()
+				+ ", evictions=" + getEvictions() + "]";
+	}
+
+	private static final class Key {
+		private final String expression;
+		private final Object settings;
+
+		Key(String expression, Object settings) {
+			this.expression = expression;
+			this.settings = settings;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * expression.hashCode() + settings.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key))
+				return false;
+
+			Key that = (Key) other;
+			return expression.equals(that.expression) && settings.equals(that.settings);
+		}
+	}
+
+	private static final class Entry {
+		final CompiledExpression expression;
+		volatile boolean referenced;
+
+		Entry(CompiledExpression expression) {
+			this.expression = expression;
+		}
+	}
+}
@@ -0,0 +1,426 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import exceptions.ParserException;
+import exceptions.ParserException.Kind;
+
+/**
+ * An expression already converted into RPN notation and lowered into a flat program of
+ * primitive instructions, which is evaluated over a preallocated <code>double[]</code>
+ * stack without allocating any memory. Instances are immutable and hold no evaluation
+ * state, so the same object can be shared and evaluated concurrently by any number of
+ * threads, as long as each thread uses its own <code>EvaluationFrame</code>.
+ *
+ * Instances are created by an <code>ExpressionCompiler</code>.
+ */
+public final class CompiledExpression {
+	private static final ThreadLocal<EvaluationFrame> FRAMES = new ThreadLocal<EvaluationFrame>() {
+		@Override protected EvaluationFrame initialValue() {
+			return new EvaluationFrame();
+		}
+	};
+
+	private final String source;
+	private final Program program;
+	private final int maxDimension;
+	private final SymbolTable symbols;
+	private final double epsilon;
+	private final int eliminatedNodes;
+
+	CompiledExpression(String source, Program program, int maxDimension, SymbolTable symbols, double epsilon, int eliminatedNodes) {
+		this.source = source;
+		this.program = program;
+		this.maxDimension = maxDimension;
+		this.symbols = symbols;
+		this.epsilon = epsilon;
+		this.eliminatedNodes = eliminatedNodes;
+	}
+
+	/**
+	 * @return The text this expression was compiled from.
+	 */
+	public String getSource() {
+		return this.source;
+	}
+
+	/**
+	 * @return The variables configuration this expression was compiled with: 0 if no
+	 * variables are allowed, 1 for the scalar x and n for x[0] .. x[n-1] or n named variables.
+	 */
+	public int getMaxDimension() {
+		return this.maxDimension;
+	}
+
+	/**
+	 * @return The names of the variables, whose slots are the indexes of the variables array,
+	 * or <code>null</code> if the variables are x or x[i].
+	 */
+	public SymbolTable getSymbols() {
+		return this.symbols;
+	}
+
+	/**
+	 * @return The threshold zero comparison value used by this expression.
+	 */
+	public double getEpsilon() {
+		return this.epsilon;
+	}
+
+	/**
+	 * Evaluates this expression using a frame owned by the calling thread.
+	 * @see #evaluate(EvaluationFrame, double...)
+	 */
+	public double evaluate(double... variables) throws ParserException {
+		return evaluate(FRAMES.get(), variables);
+	}
+
+	/**
+	 * Evaluates this expression replacing x (or x[0] .. x[n-1]) by <code>variables</code>.
+	 *
+	 * @param frame The scratch memory used during the evaluation, which must not be in use
+	 * by another thread.
+	 * @param variables The variables's values. May be empty for constant expressions.
+	 * @return The value which this expression corresponds to.
+	 * @throws ParserException if the expression is malformed or a illegal mathematical operation
+	 * is performed (such as 0^0, division by zero or log(x), x < 0).
+	 */
+	public double evaluate(EvaluationFrame frame, double... variables) throws ParserException {
+		if (Metrics.enabled)
+			return measure(frame, variables);
+
+		Operations.checkVariables(variables, program.requiredVariables);
+
+		return Interpreter.run(program, epsilon, variables, frame);
+	}
+
+	/* Evaluates as evaluate() does, while recording the metrics */
+	private double measure(EvaluationFrame frame, double[] variables) throws ParserException {
+		Metrics.Probe probe = Metrics.evaluating();
+
+		try {
+			Operations.checkVariables(variables, program.requiredVariables);
+
+			return Interpreter.run(program, epsilon, variables, frame);
+		}
+		catch (ParserException e) {
+			probe.failed(e);
+			throw e;
+		}
+		finally {
+			probe.evaluated(this, 1);
+		}
+	}
+
+	/**
+	 * Evaluates this expression of the scalar variable x and its derivative at <code>x</code>,
+	 * using a frame owned by the calling thread.
+	 * @see #differentiate(EvaluationFrame, double[], double[], DualNumber)
+	 */
+	public DualNumber differentiate(double x) throws ParserException {
+		return differentiate(FRAMES.get(), new double[] {x}, new double[] {1}, new DualNumber());
+	}
+
+	/**
+	 * Evaluates this expression and its directional derivative at <code>variables</code> in a single
+	 * pass. The derivative is exact up to rounding, except for registered functions, which are
+	 * differentiated numerically. For the partial derivative with respect to x[i], the direction
+	 * is 1 at i and 0 elsewhere.
+	 *
+	 * @param frame The scratch memory used during the evaluation, which must not be in use
+	 * by another thread.
+	 * @param variables The variables's values. May be empty for constant expressions.
+	 * @param direction The direction of the derivative, with one element per variable.
+	 * @param result Receives the value and the derivative.
+	 * @return <code>result</code>.
+	 * @throws ParserException if the expression is malformed or a illegal mathematical operation
+	 * is performed (such as 0^0, division by zero or log(x), x < 0).
+	 */
+	public DualNumber differentiate(EvaluationFrame frame, double[] variables, double[] direction, DualNumber result)
+			throws ParserException {
+		int required = program.requiredVariables;
+
+		Operations.checkVariables(variables, required);
+		if (required > 0 && (direction == null || direction.length < required))
+			throw new IllegalArgumentException("The direction has less than " + required + " elements.");
+
+		DualInterpreter.run(program, epsilon, variables, direction, frame, result);
+		return result;
+	}
+
+	/**
+	 * Evaluates this expression and its gradient using a frame owned by the calling thread.
+	 * @see #gradient(EvaluationFrame, double[], double[])
+	 */
+	public double gradient(double[] variables, double[] gradient) throws ParserException {
+		return gradient(FRAMES.get(), variables, gradient);
+	}
+
+	/**
+	 * Evaluates this expression and its partial derivatives with respect to every variable, by
+	 * recording the evaluation and sweeping it backwards once. The cost is a small multiple of
+	 * <code>evaluate()</code>, however many variables there are. The derivatives are exact up to
+	 * rounding, except for registered functions, which are differentiated numerically.
+	 *
+	 * @param frame The scratch memory used during the evaluation, which must not be in use
+	 * by another thread. It keeps the recorded evaluation, so repeated calls don't allocate memory.
+	 * @param variables The variables's values. May be empty for constant expressions.
+	 * @param gradient Receives the partial derivative with respect to x[i] (or x) at index i. Its
+	 * elements for variables the expression doesn't use are set to 0.
+	 * @return The value which this expression corresponds to.
+	 * @throws ParserException if the expression is malformed or a illegal mathematical operation
+	 * is performed (such as 0^0, division by zero or log(x), x < 0).
+	 */
+	public double gradient(EvaluationFrame frame, double[] variables, double[] gradient) throws ParserException {
+		int required = program.requiredVariables;
+
+		Operations.checkVariables(variables, required);
+		if (gradient.length < required)
+			throw new IllegalArgumentException("The gradient has less than " + required + " elements.");
+
+		return ReverseInterpreter.run(program, epsilon, variables, gradient, frame);
+	}
+
+	/**
+	 * Evaluates this expression at <code>variables</code>, keeping the value of every instruction,
+	 * so the returned evaluator can recompute it after changing a single variable by evaluating
+	 * only the instructions that depend on it.
+	 *
+	 * @param variables The variables's values, which are copied. May be empty for constant expressions.
+	 * @return An evaluator holding the value of this expression at <code>variables</code>.
+	 * @throws ParserException if the expression is malformed or a illegal mathematical operation
+	 * is performed (such as 0^0, division by zero or log(x), x < 0).
+	 */
+	public IncrementalEvaluator incremental(double... variables) throws ParserException {
+		Operations.checkVariables(variables, program.requiredVariables);
+
+		return new IncrementalEvaluator(program, epsilon, variables);
+	}
+
+	/**
+	 * Evaluates this expression for every row of <code>columns</code> using a frame owned by the
+	 * calling thread.
+	 * @see #evaluateBatch(EvaluationFrame, double[][], double[], int, int)
+	 */
+	public void evaluateBatch(double[][] columns, double[] out) throws ParserException {
+		evaluateBatch(FRAMES.get(), columns, out, 0, out.length);
+	}
+
+	/**
+	 * Evaluates this expression of the scalar variable x for every value of <code>column</code>.
+	 * @see #evaluateBatch(EvaluationFrame, double[][], double[], int, int)
+	 */
+	public void evaluateBatch(double[] column, double[] out) throws ParserException {
+		evaluateBatch(FRAMES.get(), new double[][] {column}, out, 0, out.length);
+	}
+
+	/**
+	 * Evaluates this expression for the rows <code>[from, to[</code>, where row r replaces x[i]
+	 * by <code>columns[i][r]</code> (or x by <code>columns[0][r]</code>), writing the result into
+	 * <code>out[r]</code>. This is much faster than calling <code>evaluate()</code> once per row.
+	 *
+	 * @param frame The scratch memory used during the evaluation, which must not be in use
+	 * by another thread.
+	 * @param columns One column of values per variable.
+	 * @param out Receives the results.
+	 * @param from The first row to be evaluated.
+	 * @param to The row after the last one to be evaluated.
+	 * @throws ParserException if a illegal mathematical operation is performed on any row. In
+	 * this case, the rows before it may have already been written into <code>out</code>.
+	 */
+	public void evaluateBatch(EvaluationFrame frame, double[][] columns, double[] out, int from, int to)
+			throws ParserException {
+		Metrics.Probe probe = Metrics.enabled ? Metrics.evaluating() : null;
+
+		try {
+			checkColumns(columns, to);
+			if (out.length < to)
+				throw new IllegalArgumentException("The results have less than " + to + " rows.");
+
+			BatchEvaluator.run(program, epsilon, columns, out, from, to, frame);
+		}
+		catch (ParserException e) {
+			if (probe != null)
+				probe.failed(e);
+			throw e;
+		}
+		finally {
+			if (probe != null)
+				probe.evaluated(this, to - from);
+		}
+	}
+
+	/**
+	 * Evaluates this expression for every row of <code>columns</code> without throwing on illegal
+	 * operations, using a frame owned by the calling thread.
+	 * @see #evaluateBatch(EvaluationFrame, double[][], double[], byte[], int, int)
+	 */
+	public void evaluateBatch(double[][] columns, double[] out, byte[] flags) throws ParserException {
+		evaluateBatch(FRAMES.get(), columns, out, flags, 0, out.length);
+	}
+
+	/**
+	 * Evaluates this expression for the rows <code>[from, to[</code> as <code>evaluateBatch()</code>
+	 * does, but following IEEE 754 semantics instead of throwing: a division by zero gives an
+	 * infinity or NaN, a logarithm of a negative value gives NaN, and so on. The checks against
+	 * epsilon that would have thrown are still performed, and the ones each row failed are
+	 * written into <code>flags[r]</code>, as a combination of the <code>EvaluationFlags</code>
+	 * bits, or 0 if none. A row that failed a check keeps the plain IEEE result of the operation,
+	 * which may be finite when the operand was close to, but not exactly, zero.
+	 *
+	 * @param frame The scratch memory used during the evaluation, which must not be in use
+	 * by another thread.
+	 * @param columns One column of values per variable.
+	 * @param out Receives the results.
+	 * @param flags Receives the checks failed by each row.
+	 * @param from The first row to be evaluated.
+	 * @param to The row after the last one to be evaluated.
+	 * @throws ParserException if <code>columns</code> lacks a variable used by the expression.
+	 */
+	public void evaluateBatch(EvaluationFrame frame, double[][] columns, double[] out, byte[] flags, int from, int to)
+			throws ParserException {
+		evaluateBatch(frame, columns, out, flags, from, to, true);
+	}
+
+	/* Counts the checks failed by the rows as failures unless counted is false, as for rows evaluated again */
+	void evaluateBatch(EvaluationFrame frame, double[][] columns, double[] out, byte[] flags, int from, int to,
+			boolean counted) throws ParserException {
+		Metrics.Probe probe = Metrics.enabled ? Metrics.evaluating() : null;
+
+		try {
+			checkColumns(columns, to);
+			if (out.length < to)
+				throw new IllegalArgumentException("The results have less than " + to + " rows.");
+			if (flags.length < to)
+				throw new IllegalArgumentException("The flags have less than " + to + " rows.");
+
+			BatchEvaluator.run(program, epsilon, columns, out, flags, from, to, frame);
+			if (probe != null && counted)
+				probe.flagged(flags, from, to);
+		}
+		catch (ParserException e) {
+			if (probe != null)
+				probe.failed(e);
+			throw e;
+		}
+		finally {
+			if (probe != null)
+				probe.evaluated(this, to - from);
+		}
+	}
+
+	private void checkColumns(double[][] columns, int to) throws ParserException {
+		int required = program.requiredVariables;
+
+		if (required > 0 && (columns == null || columns.length < required))
+			throw new ParserException("Variable x["+(required - 1)+"] is not set. Did you change the variables"
+					+ "array to a smaller one?", Kind.MALFORMED);
+
+		for (int i = 0; i < required; i++)
+			if (columns[i].length < to)
+				throw new IllegalArgumentException("The column of x[" + i + "] has less than " + to + " rows.");
+	}
+
+	/**
+	 * Evaluates this expression for every row of <code>columns</code>, splitting the rows
+	 * across the threads of the common <code>ForkJoinPool</code>.
+	 * @see #evaluateParallel(ForkJoinPool, double[][], double[])
+	 */
+	public void evaluateParallel(double[][] columns, double[] out) throws ParserException {
+		evaluateParallel(ForkJoinPool.commonPool(), columns, out);
+	}
+
+	/**
+	 * Evaluates this expression for every row of <code>columns</code>, as <code>evaluateBatch()</code>
+	 * does, but splitting the rows across the threads of <code>pool</code>. Each thread writes
+	 * its own range of <code>out</code>. Expressions too cheap for the amount of rows to pay for
+	 * the scheduling overhead are evaluated by the calling thread.
+	 *
+	 * @param pool The pool whose threads evaluate the rows.
+	 * @param columns One column of values per variable.
+	 * @param out Receives the results.
+	 * @throws ParserException if a illegal mathematical operation is performed on any row. In
+	 * this case, other rows may have already been written into <code>out</code>.
+	 */
+	public void evaluateParallel(ForkJoinPool pool, double[][] columns, double[] out) throws ParserException {
+		ParallelBatch.run(pool, this, columns, out, null);
+	}
+
+	/**
+	 * Evaluates this expression for every row of <code>columns</code> without throwing on illegal
+	 * operations, as <code>evaluateBatch(frame, columns, out, flags, from, to)</code> does, but
+	 * splitting the rows across the threads of <code>pool</code>.
+	 *
+	 * @param pool The pool whose threads evaluate the rows.
+	 * @param columns One column of values per variable.
+	 * @param out Receives the results.
+	 * @param flags Receives the checks failed by each row.
+	 * @throws ParserException if <code>columns</code> lacks a variable used by the expression.
+	 */
+	public void evaluateParallel(ForkJoinPool pool, double[][] columns, double[] out, byte[] flags)
+			throws ParserException {
+		ParallelBatch.run(pool, this, columns, out, flags);
+	}
+
+	/**
+	 * Evaluates this expression for every row of the file <code>input</code> using the calling
+	 * thread, writing the results into <code>output</code>.
+	 * @see #evaluateFile(ForkJoinPool, Path, Path)
+	 */
+	public long evaluateFile(Path input, Path output) throws IOException, ParserException {
+		return MappedBatch.run(null, this, input, output);
+	}
+
+	/**
+	 * Evaluates this expression for every row of the file <code>input</code>, writing the result of
+	 * row r into <code>output</code> as its r-th value. Each row holds one value per variable
+	 * (<code>getMaxDimension()</code> values, or a single one for constant expressions), and all
+	 * values are little-endian doubles. <code>output</code> is created or replaced.
+	 *
+	 * Both files are memory-mapped a chunk of rows at a time, so files of any size are
+	 * evaluated without growing the heap. The chunks are split across the threads of
+	 * <code>pool</code>.
+	 *
+	 * @param pool The pool whose threads evaluate the chunks.
+	 * @param input The file the rows are read from.
+	 * @param output The file the results are written to.
+	 * @return The amount of rows evaluated.
+	 * @throws IOException if the files can't be read or written, or the size of <code>input</code>
+	 * is not a whole amount of rows.
+	 * @throws ParserException if a illegal mathematical operation is performed on any row. In
+	 * this case, other rows may have already been written into <code>output</code>.
+	 */
+	public long evaluateFile(ForkJoinPool pool, Path input, Path output) throws IOException, ParserException {
+		return MappedBatch.run(pool, this, input, output);
+	}
+
+	/* The frame owned by the calling thread */
+	static EvaluationFrame frame() {
+		return FRAMES.get();
+	}
+
+	/**
+	 * @return The amount of instructions this expression was lowered to.
+	 */
+	public int getInstructionCount() {
+		return program.length();
+	}
+
+	/**
+	 * @return How many operations were removed while compiling because they repeated another
+	 * subexpression, whose value is computed once and reused instead.
+	 */
+	public int getEliminatedNodes() {
+		return this.eliminatedNodes;
+	}
+
+	Program getProgram() {
+		return this.program;
+	}
+
+	public String toString() {
+		return this.source;
+	}
+}
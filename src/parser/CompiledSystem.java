@@ -0,0 +1,161 @@
+package parser;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import exceptions.ParserException;
+import exceptions.ParserException.Kind;
+
+/**
+ * A system of expressions over the same variables, such as the components of a Jacobian or
+ * the right-hand side of an ODE, compiled into a single program. Subexpressions repeated
+ * within an expression or across many of them are evaluated once, and every output is
+ * computed in a single pass over the variables.
+ *
+ * Like <code>CompiledExpression</code>, instances are immutable and can be evaluated
+ * concurrently, as long as each thread uses its own <code>EvaluationFrame</code>. Instances
+ * are created by <code>ExpressionCompiler.compileSystem()</code>.
+ */
+public final class CompiledSystem {
+	private final List<String> sources;
+	private final Program program;
+	private final int maxDimension;
+	private final SymbolTable symbols;
+	private final double epsilon;
+	private final int eliminatedNodes;
+
+	CompiledSystem(String[] sources, Program program, int maxDimension, SymbolTable symbols, double epsilon, int eliminatedNodes) {
+		this.sources = Collections.unmodifiableList(Arrays.asList(sources.clone()));
+		this.program = program;
+		this.maxDimension = maxDimension;
+		this.symbols = symbols;
+		this.epsilon = epsilon;
+		this.eliminatedNodes = eliminatedNodes;
+	}
+
+	/**
+	 * @return The texts the outputs were compiled from, in order.
+	 */
+	public List<String> getSources() {
+		return this.sources;
+	}
+
+	/**
+	 * @return How many values each evaluation writes, one per expression.
+	 */
+	public int getOutputCount() {
+		return program.outputs;
+	}
+
+	/**
+	 * @return The variables configuration this system was compiled with: 0 if no
+	 * variables are allowed, 1 for the scalar x and n for x[0] .. x[n-1] or n named variables.
+	 */
+	public int getMaxDimension() {
+		return this.maxDimension;
+	}
+
+	/**
+	 * @return The names of the variables, whose slots are the indexes of the variables array,
+	 * or <code>null</code> if the variables are x or x[i].
+	 */
+	public SymbolTable getSymbols() {
+		return this.symbols;
+	}
+
+	/**
+	 * @return The threshold zero comparison value used by this system.
+	 */
+	public double getEpsilon() {
+		return this.epsilon;
+	}
+
+	/**
+	 * Evaluates every expression of this system using a frame owned by the calling thread.
+	 * @see #evaluate(EvaluationFrame, double[], double[])
+	 */
+	public void evaluate(double[] variables, double[] out) throws ParserException {
+		evaluate(CompiledExpression.frame(), variables, out);
+	}
+
+	/**
+	 * Evaluates every expression of this system replacing x (or x[0] .. x[n-1]) by
+	 * <code>variables</code>, writing the value of expression k into <code>out[k]</code>.
+	 *
+	 * @param frame The scratch memory used during the evaluation, which must not be in use
+	 * by another thread.
+	 * @param variables The variables's values. May be empty for constant systems.
+	 * @param out Receives the values, with at least <code>getOutputCount()</code> elements.
+	 * @throws ParserException if a illegal mathematical operation is performed by any expression
+	 * (such as 0^0, division by zero or log(x), x < 0). In this case, <code>out</code> is unchanged.
+	 */
+	public void evaluate(EvaluationFrame frame, double[] variables, double[] out) throws ParserException {
+		Operations.checkVariables(variables, program.requiredVariables);
+		checkOutputs(out.length);
+
+		Interpreter.run(program, epsilon, variables, out, frame);
+	}
+
+	/**
+	 * Evaluates every expression of this system for the rows <code>[from, to[</code>, where row r
+	 * replaces x[i] by <code>columns[i][r]</code>, writing the value of expression k into
+	 * <code>out[k][r]</code>. The rows are read once for all the expressions.
+	 *
+	 * @param frame The scratch memory used during the evaluation, which must not be in use
+	 * by another thread.
+	 * @param columns One column of values per variable.
+	 * @param out One column of results per expression.
+	 * @param from The first row to be evaluated.
+	 * @param to The row after the last one to be evaluated.
+	 * @throws ParserException if a illegal mathematical operation is performed on any row. In
+	 * this case, the rows before it may have already been written into <code>out</code>.
+	 */
+	public void evaluateBatch(EvaluationFrame frame, double[][] columns, double[][] out, int from, int to)
+			throws ParserException {
+		int required = program.requiredVariables;
+
+		if (required > 0 && (columns == null || columns.length < required))
+			throw new ParserException("Variable x["+(required - 1)+"] is not set. Did you change the variables"
+					+ "array to a smaller one?", Kind.MALFORMED);
+
+		for (int i = 0; i < required; i++)
+			if (columns[i].length < to)
+				throw new IllegalArgumentException("The column of x[" + i + "] has less than " + to + " rows.");
+
+		checkOutputs(out.length);
+		for (int k = 0; k < program.outputs; k++)
+			if (out[k].length < to)
+				throw new IllegalArgumentException("The results of output " + k + " have less than " + to + " rows.");
+
+		BatchEvaluator.run(program, epsilon, columns, out, from, to, frame);
+	}
+
+	private void checkOutputs(int length) {
+		if (length < program.outputs)
+			throw new IllegalArgumentException("The results have less than " + program.outputs + " elements.");
+	}
+
+	/**
+	 * @return The amount of instructions this system was lowered to.
+	 */
+	public int getInstructionCount() {
+		return program.length();
+	}
+
+	/**
+	 * @return How many operations were removed while compiling because they repeated another
+	 * subexpression, of the same expression or of another one.
+	 */
+	public int getEliminatedNodes() {
+		return this.eliminatedNodes;
+	}
+
+	Program getProgram() {
+		return this.program;
+	}
+
+	public String toString() {
+		return this.sources.toString();
+	}
+}
@@ -0,0 +1,295 @@
+package parser;
+
+import exceptions.ParserException;
+
+/**
+ * Runs a <code>Program</code> over dual numbers, computing the value of the expression and
+ * its derivative along a direction in a single pass (forward-mode automatic differentiation).
+ * Every instruction applies the chain rule to the tangents of its operands, so the result
+ * is exact up to rounding, unlike finite differences.
+ * 
+ * Values are computed with the same <code>Operations</code> the interpreter uses, so the same
+ * <code>ParserException</code> conditions are raised. Programs with selects which fail are
+ * differentiated by <code>ReverseInterpreter</code> instead, which ignores the failures of the
+ * branches not chosen. Registered functions don't provide their derivatives, so they are
+ * differentiated numerically by central differences.
+ */
+final class DualInterpreter {
+	private DualInterpreter() { }
+
+	/**
+	 * Runs <code>program</code>, which must have been verified to use only the given variables.
+	 * @param direction The tangent of each variable.
+	 * @param frame Holds the values of the operand stack and temporary slots, followed by their tangents.
+	 * @param result Receives the value on top of the stack after the last instruction and its tangent.
+	 */
+	static void run(Program program, double epsilon, double[] variables, double[] direction, EvaluationFrame frame,
+			DualNumber result) throws ParserException {
+		try {
+			forward(program, epsilon, variables, direction, frame, result);
+		}
+		catch (ParserException e) {
+			if (!program.selects)
+				throw e;
+
+			//the gradient's tape only raises the failures of the branches chosen, and gives the same derivative
+			double[] gradient = new double[program.requiredVariables];
+			double value = ReverseInterpreter.run(program, epsilon, variables, gradient, frame);
+			double tangent = 0;
+
+			for (int i = 0; i < gradient.length; i++)
+				tangent += gradient[i] * direction[i];
+			result.set(value, tangent);
+		}
+	}
+
+	/* Runs the program over dual numbers, throwing on every failure */
+	private static void forward(Program program, double epsilon, double[] variables, double[] direction,
+			EvaluationFrame frame, DualNumber result) throws ParserException {
+		final int[] ops = program.ops;
+		final int[] args = program.args;
+		final int size = program.frameSize();
+		final double[] stack = frame.stack(2 * size);
+		final int temporaries = program.stackSize;
+		int top = -1;
+
+		//the values are kept at stack[i] and their tangents at stack[size + i]
+		for (int i = 0; i < ops.length; i++) {
+			int t = size + top;
+			double a, b, f;
+
+			switch (ops[i]) {
+				case Opcodes.CONST:
+					stack[++top] = program.constants[args[i]];
+					stack[size + top] = 0;
+				break;
+
+				case Opcodes.VAR:
+					stack[++top] = variables[args[i]];
+					stack[size + top] = direction[args[i]];
+				break;
+
+				case Opcodes.LOAD:
+					stack[++top] = stack[temporaries + args[i]];
+					stack[size + top] = stack[size + temporaries + args[i]];
+				break;
+
+				case Opcodes.STORE:
+					stack[temporaries + args[i]] = stack[top];
+					stack[size + temporaries + args[i]] = stack[t];
+				break;
+
+				case Opcodes.ADD:
+					top--;
+					stack[top] += stack[top + 1];
+					stack[t - 1] += stack[t];
+				break;
+
+				case Opcodes.SUB:
+					top--;
+					stack[top] -= stack[top + 1];
+					stack[t - 1] -= stack[t];
+				break;
+
+				case Opcodes.MUL:
+					top--;
+					a = stack[top];
+					b = stack[top + 1];
+					stack[top] = a * b;
+					stack[t - 1] = stack[t - 1] * b + a * stack[t];
+				break;
+
+				case Opcodes.DIV:
+					top--;
+					b = stack[top + 1];
+					f = Operations.div(stack[top], b, epsilon);
+					stack[top] = f;
+					stack[t - 1] = (stack[t - 1] - f * stack[t]) / b;
+				break;
+
+				case Opcodes.POW:
+					top--;
+					a = stack[top];
+					b = stack[top + 1];
+					f = Operations.pow(a, b, epsilon);
+					stack[top] = f;
+
+					//the power rule, plus the exponent's term only when it varies and a^b isn't 0, since
+					//ln(a) may not exist
+					double tangent = stack[t - 1] == 0 ? 0 : b * Math.pow(a, b - 1) * stack[t - 1];
+					if (stack[t] != 0 && f != 0)
+						tangent += f * Math.log(a) * stack[t];
+					stack[t - 1] = tangent;
+				break;
+
+				case Opcodes.NEG:
+					stack[top] = -stack[top];
+					stack[t] = -stack[t];
+				break;
+
+				case Opcodes.SIN:
+					a = stack[top];
+					stack[top] = Math.sin(a);
+					stack[t] *= Math.cos(a);
+				break;
+
+				case Opcodes.COS:
+					a = stack[top];
+					stack[top] = Math.cos(a);
+					stack[t] *= -Math.sin(a);
+				break;
+
+				case Opcodes.TAN:
+					f = Math.tan(stack[top]);
+					stack[top] = f;
+					stack[t] *= 1 + f * f;
+				break;
+
+				case Opcodes.SEC:
+					a = stack[top];
+					f = Operations.sec(a, epsilon);
+					stack[top] = f;
+					stack[t] *= f * Math.tan(a);
+				break;
+
+				case Opcodes.CSC:
+					a = stack[top];
+					f = Operations.csc(a, epsilon);
+					stack[top] = f;
+					stack[t] *= -f * f * Math.cos(a);
+				break;
+
+				case Opcodes.CTG:
+					f = Operations.ctg(stack[top], epsilon);
+					stack[top] = f;
+					stack[t] *= -(1 + f * f);
+				break;
+
+				case Opcodes.ASIN:
+					a = stack[top];
+					stack[top] = Math.asin(a);
+					stack[t] /= Math.sqrt(1 - a * a);
+				break;
+
+				case Opcodes.ACOS:
+					a = stack[top];
+					stack[top] = Math.acos(a);
+					stack[t] /= -Math.sqrt(1 - a * a);
+				break;
+
+				case Opcodes.ATAN:
+					a = stack[top];
+					stack[top] = Math.atan(a);
+					stack[t] /= 1 + a * a;
+				break;
+
+				case Opcodes.SINH:
+					a = stack[top];
+					stack[top] = Math.sinh(a);
+					stack[t] *= Math.cosh(a);
+				break;
+
+				case Opcodes.COSH:
+					a = stack[top];
+					stack[top] = Math.cosh(a);
+					stack[t] *= Math.sinh(a);
+				break;
+
+				case Opcodes.TANH:
+					f = Math.tanh(stack[top]);
+					stack[top] = f;
+					stack[t] *= 1 - f * f;
+				break;
+
+				case Opcodes.LN:
+					a = stack[top];
+					stack[top] = Operations.ln(a, epsilon);
+					stack[t] /= a;
+				break;
+
+				case Opcodes.SQRT:
+					f = Math.sqrt(stack[top]);
+					stack[top] = f;
+					//as for POW, a constant argument keeps a zero tangent even at 0
+					if (stack[t] != 0)
+						stack[t] /= 2 * f;
+				break;
+
+				case Opcodes.LT: case Opcodes.LE: case Opcodes.GT: case Opcodes.GE: case Opcodes.EQ: case Opcodes.NE:
+					//steps are flat everywhere but at the step, where the derivative is taken as 0
+					top--;
+					stack[top] = compare(ops[i], stack[top], stack[top + 1]);
+					stack[t - 1] = 0;
+				break;
+
+				case Opcodes.MIN:
+					top--;
+					a = stack[top];
+					b = stack[top + 1];
+					stack[top] = Math.min(a, b);
+					stack[t - 1] = a <= b ? stack[t - 1] : stack[t];
+				break;
+
+				case Opcodes.MAX:
+					top--;
+					a = stack[top];
+					b = stack[top + 1];
+					stack[top] = Math.max(a, b);
+					stack[t - 1] = a >= b ? stack[t - 1] : stack[t];
+				break;
+
+				case Opcodes.ABS:
+					a = stack[top];
+					stack[top] = Math.abs(a);
+					stack[t] *= Math.signum(a);
+				break;
+
+				case Opcodes.SELECT:
+					//the condition's tangent doesn't matter, only the chosen branch's
+					top -= 2;
+					boolean chosen = stack[top] != 0;
+					stack[top] = chosen ? stack[top + 1] : stack[top + 2];
+					stack[t - 2] = chosen ? stack[t - 1] : stack[t];
+				break;
+
+				case Opcodes.CALL:
+					Call call = program.functions[args[i]];
+					top -= call.arity - 1;
+					call(call, stack, top, size, frame);
+				break;
+
+				default:
+					throw new ParserException("Unknown error.");
+			}
+		}
+
+		result.set(stack[top], stack[size + top]);
+	}
+
+	/* The value of a comparison opcode */
+	static double compare(int opcode, double a, double b) {
+		switch (opcode) {
+			case Opcodes.LT: return a < b ? 1 : 0;
+			case Opcodes.LE: return a <= b ? 1 : 0;
+			case Opcodes.GT: return a > b ? 1 : 0;
+			case Opcodes.GE: return a >= b ? 1 : 0;
+			case Opcodes.EQ: return a == b ? 1 : 0;
+			default: return a != b ? 1 : 0;
+		}
+	}
+
+	/* Calls the function over the arguments at stack[first..], differentiating it numerically */
+	private static void call(Call call, double[] stack, int first, int size, EvaluationFrame frame)
+			throws ParserException {
+		double[] arguments = frame.arguments(call.arity);
+		double tangent = 0;
+
+		System.arraycopy(stack, first, arguments, 0, call.arity);
+		for (int j = 0; j < call.arity; j++)
+			if (stack[size + first + j] != 0)
+				tangent += call.partial(arguments, j) * stack[size + first + j];
+
+		stack[first] = call.invoke(arguments);
+		stack[size + first] = tangent;
+	}
+}
@@ -0,0 +1,28 @@
+package parser;
+
+/**
+ * The value of an expression and its derivative along a direction, as computed by
+ * <code>CompiledExpression.differentiate()</code>. Instances are mutable so they can be
+ * reused between evaluations without allocating.
+ */
+public final class DualNumber {
+	private double value;
+	private double derivative;
+
+	public double getValue() {
+		return this.value;
+	}
+
+	public double getDerivative() {
+		return this.derivative;
+	}
+
+	void set(double value, double derivative) {
+		this.value = value;
+		this.derivative = derivative;
+	}
+
+	public String toString() {
+		return value + " + " + derivative + "e";
+	}
+}
@@ -0,0 +1,28 @@
+package parser;
+
+/**
+ * The conditions an evaluation without exceptions reports for each row, instead of throwing
+ * a <code>ParserException</code>. They are the same checks against <code>epsilon</code> the
+ * other evaluations perform, and a row holds the bitwise or of every one it failed, leaving
+ * out the branches of <code>if()</code> not chosen.
+ * 
+ * @see CompiledExpression#evaluateBatch(EvaluationFrame, double[][], double[], byte[], int, int)
+ */
+public final class EvaluationFlags {
+	/** A divisor closer to zero than epsilon */
+	public static final int DIVISION_BY_ZERO = 1;
+
+	/** A power whose base and exponent are both closer to zero than epsilon */
+	public static final int ZERO_TO_THE_ZERO = 2;
+
+	/** The logarithm of a value lesser than epsilon */
+	public static final int LOGARITHM_OF_ZERO = 4;
+
+	/** sec(x), csc(x) or ctg(x) for x closer to a pole than epsilon allows */
+	public static final int TRIGONOMETRIC_POLE = 8;
+
+	/** A registered function which threw a <code>ParserException</code>, whose result is NaN */
+	public static final int FUNCTION_FAILED = 16;
+
+	private EvaluationFlags() { }
+}
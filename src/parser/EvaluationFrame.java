@@ -0,0 +1,113 @@
+package parser;
+
+import java.util.Arrays;
+
+/**
+ * Scratch memory used while evaluating a <code>CompiledExpression</code>. A frame
+ * is cheap to create and can be reused to evaluate any number of different expressions,
+ * but it must not be shared between threads: each thread should own its frame.
+ * 
+ * The frame only grows when it evaluates an expression that needs a deeper stack than
+ * the previous ones, so evaluating the same expression repeatedly allocates no memory.
+ */
+public final class EvaluationFrame {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private double[] stack;
+	private double[][] columns;
+	private double[][] inputs;
+	private double[] results;
+	private double[][] arguments;
+	private double[] row;
+	private byte[] flags;
+	private GradientTape tape;
+
+	public EvaluationFrame() {
+		this.stack = new double[INITIAL_CAPACITY];
+		this.columns = new double[0][];
+		this.inputs = new double[0][];
+		this.arguments = new double[0][];
+	}
+
+	/* Returns a stack holding at least size elements */
+	double[] stack(int size) {
+		if (stack.length < size)
+			stack = new double[Math.max(size, stack.length * 2)];
+
+		return stack;
+	}
+
+	/* Returns a stack of at least size columns, each holding a block of rows for batch evaluation */
+	double[][] columns(int size) {
+		if (columns.length < size) {
+			double[][] larger = new double[size][];
+
+			System.arraycopy(columns, 0, larger, 0, columns.length);
+			for (int i = columns.length; i < size; i++)
+				larger[i] = new double[BatchEvaluator.BLOCK_SIZE];
+
+			columns = larger;
+		}
+
+		return columns;
+	}
+
+	/* Returns width columns of a block of rows each, which rows read from a file are gathered into */
+	double[][] inputs(int width) {
+		if (inputs.length < width) {
+			double[][] larger = new double[width][];
+
+			System.arraycopy(inputs, 0, larger, 0, inputs.length);
+			for (int i = inputs.length; i < width; i++)
+				larger[i] = new double[BatchEvaluator.BLOCK_SIZE];
+
+			inputs = larger;
+		}
+
+		return inputs;
+	}
+
+	/* Returns a block the results of a batch are written to before being copied out */
+	double[] results() {
+		if (results == null)
+			results = new double[BatchEvaluator.BLOCK_SIZE];
+
+		return results;
+	}
+
+	/* Returns an array a row of a batch is copied into when it is evaluated again by itself */
+	double[] row(int width) {
+		if (row == null || row.length < width)
+			row = new double[width];
+
+		return row;
+	}
+
+	/* Returns a block of flags the rows of a failed batch are evaluated again into */
+	byte[] flags() {
+		if (flags == null)
+			flags = new byte[BatchEvaluator.BLOCK_SIZE];
+
+		return flags;
+	}
+
+	/* Returns the array the arguments of registered functions of the given arity are passed in */
+	double[] arguments(int arity) {
+		if (arguments.length <= arity)
+			arguments = Arrays.copyOf(arguments, arity + 1);
+
+		if (arguments[arity] == null)
+			arguments[arity] = new double[arity];
+
+		return arguments[arity];
+	}
+
+	/* Returns the tape gradients are recorded in, holding at least the given sizes */
+	GradientTape tape(int length, int links, int frameSize) {
+		if (tape == null)
+			tape = new GradientTape();
+
+		tape.ensure(length, links, frameSize);
+		return tape;
+	}
+}
@@ -0,0 +1,444 @@
+package parser;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import exceptions.ParserException;
+
+/**
+ * Evaluates points submitted one at a time by many threads in batches. Concurrent submissions
+ * for the same <code>CompiledExpression</code> are gathered into a batch, which is evaluated
+ * by <code>evaluateBatch()</code> on a small pool of worker threads once it has
+ * <code>batchSize</code> points or its first point has waited for <code>maxDelay</code>,
+ * whichever comes first. Each point gets its value through a <code>CompletableFuture</code>:
+ * <pre>
+ * CompletableFuture&lt;Double&gt; value = service.submit(f, spot, vol, rate);
+ * </pre>
+ *
+ * A point failing an illegal mathematical operation completes its future exceptionally with the
+ * <code>ParserException</code> <code>evaluate()</code> would have thrown, without affecting the
+ * other points of the batch. Futures are completed by the worker threads, so expensive
+ * continuations should use the <code>...Async</code> methods of <code>CompletableFuture</code>.
+ *
+ * At most <code>capacity</code> points may be pending at once: <code>submit()</code> blocks
+ * while the service is full. Submitting threads only block on <code>java.util.concurrent</code>
+ * locks, never on monitors, so they can be virtual threads.
+ */
+public final class EvaluationService implements AutoCloseable {
+	/** The largest batch of the service created by the default constructor: one block of the batch evaluator */
+	public static final int DEFAULT_BATCH_SIZE = BatchEvaluator.BLOCK_SIZE;
+
+	/** How long, in microseconds, the first point of a batch waits by default for others to join it */
+	public static final long DEFAULT_MAX_DELAY = 200;
+
+	private static final AtomicInteger services = new AtomicInteger();
+
+	private final int batchSize;
+	private final long maxDelay;
+	private final int capacity;
+	private final ScheduledThreadPoolExecutor workers;
+	private final Semaphore permits;
+
+	/* The batches being gathered for each expression with pending points */
+	private final ConcurrentHashMap<CompiledExpression, Lane> lanes = new ConcurrentHashMap<>();
+
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder points = new LongAdder();
+
+	private volatile boolean closed;
+
+	/**
+	 * Creates a service with one worker per processor, batches of up to <code>DEFAULT_BATCH_SIZE</code>
+	 * points and a delay of <code>DEFAULT_MAX_DELAY</code> microseconds.
+	 */
+	public EvaluationService() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY,
+				TimeUnit.MICROSECONDS, 64 * DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param workers How many threads evaluate the batches.
+	 * @param batchSize The most points evaluated together.
+	 * @param maxDelay The longest time the first point of a batch waits for others to join it.
+	 * @param unit The unit of <code>maxDelay</code>.
+	 * @param capacity The most points pending at once, after which <code>submit()</code> blocks.
+	 * @throws IllegalArgumentException if any size is lesser than 1 or <code>maxDelay</code> is negative.
+	 */
+	public EvaluationService(int workers, int batchSize, long maxDelay, TimeUnit unit, int capacity) {
+		if (workers <= 0 || batchSize <= 0 || capacity <= 0)
+			throw new IllegalArgumentException("The workers, batch size and capacity have to be positive non-zero values.");
+		if (maxDelay < 0)
+			throw new IllegalArgumentException("The delay can't be negative.");
+
+		final int service = services.incrementAndGet();
+
+		this.batchSize = batchSize;
+		this.maxDelay = unit.toNanos(maxDelay);
+		this.capacity = capacity;
+		this.permits = new Semaphore(capacity);
+		this.workers = new ScheduledThreadPoolExecutor(workers, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "jparser-evaluation-" + service + "-" + count.incrementAndGet());
+
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		//batches filled before their delay elapses don't leave their timers behind
+		this.workers.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Submits <code>point</code> to be evaluated by <code>expression</code> in a batch with other
+	 * points submitted concurrently. The point is copied, so its array can be reused right away.
+	 * Blocks while <code>getCapacity()</code> points are pending.
+	 *
+	 * @param expression The expression to be evaluated.
+	 * @param point The variables's values, as given to <code>evaluate()</code>.
+	 * @return The future value of <code>expression</code> at <code>point</code>, completed with a
+	 * <code>ParserException</code> if an illegal mathematical operation is performed or a variable
+	 * is missing.
+	 * @throws InterruptedException if the thread is interrupted while the service is full.
+	 * @throws RejectedExecutionException if the service was closed.
+	 */
+	public CompletableFuture<Double> submit(CompiledExpression expression, double... point) throws InterruptedException {
+		CompletableFuture<Double> future = new CompletableFuture<>();
+
+		try {
+			Operations.checkVariables(point, expression.getProgram().requiredVariables);
+		}
+		catch (ParserException e) {
+			future.completeExceptionally(e);
+			return future;
+		}
+
+		permits.acquire();
+		try {
+			enqueue(expression, point, future);
+		}
+		catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+
+		return future;
+	}
+
+	private void enqueue(CompiledExpression expression, double[] point, CompletableFuture<Double> future) {
+		Batch full = null;
+
+		while (true) {
+			Lane lane = lane(expression);
+
+			lane.lock.lock();
+			try {
+				//an idle lane is retired, so the one replacing it is used
+				if (lane.retired)
+					continue;
+
+				if (closed)
+					throw new RejectedExecutionException("The evaluation service was closed.");
+
+				Batch batch = lane.open;
+				if (batch == null) {
+					batch = lane.open = new Batch(lane, batchSize);
+					batch.timer = workers.schedule(new Flush(lane, batch), maxDelay, TimeUnit.NANOSECONDS);
+				}
+
+				batch.add(point, future);
+				lane.depth.incrementAndGet();
+
+				if (batch.size == batchSize) {
+					lane.open = null;
+					batch.timer.cancel(false);
+					full = batch;
+				}
+			}
+			finally {
+				lane.lock.unlock();
+			}
+
+			break;
+		}
+
+		if (full != null)
+			dispatch(full);
+	}
+
+	private Lane lane(CompiledExpression expression) {
+		Lane lane = lanes.get(expression);
+
+		if (lane == null) {
+			Lane created = new Lane(expression);
+
+			lane = lanes.putIfAbsent(expression, created);
+			if (lane == null)
+				lane = created;
+		}
+
+		return lane;
+	}
+
+	private void dispatch(Batch batch) {
+		try {
+			workers.execute(batch);
+		}
+		catch (RejectedExecutionException e) {
+			//the pool only rejects after close(), which already flushed every lane
+			batch.run();
+		}
+	}
+
+	/* Dispatches the batch gathered by a lane when its delay elapses, unless it was already full */
+	private final class Flush implements Runnable {
+		private final Lane lane;
+		private final Batch batch;
+
+		Flush(Lane lane, Batch batch) {
+			this.lane = lane;
+			this.batch = batch;
+		}
+
+		public void run() {
+			lane.lock.lock();
+			try {
+				if (lane.open != batch)
+					return;
+
+				lane.open = null;
+			}
+			finally {
+				lane.lock.unlock();
+			}
+
+			batch.run();
+		}
+	}
+
+	/* The points pending for an expression */
+	private final class Lane {
+		final CompiledExpression expression;
+		final ReentrantLock lock = new ReentrantLock();
+
+		/* Submitted points not evaluated yet, including the ones of running batches */
+		final AtomicInteger depth = new AtomicInteger();
+
+		/* Guarded by lock */
+		Batch open;
+		boolean retired;
+
+		Lane(CompiledExpression expression) {
+			this.expression = expression;
+		}
+
+		/* Stops using this lane once it has no pending points */
+		void completed(int count) {
+			if (depth.addAndGet(-count) != 0)
+				return;
+
+			lock.lock();
+			try {
+				if (depth.get() == 0 && open == null) {
+					retired = true;
+					lanes.remove(expression, this);
+				}
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/* Points gathered for an expression, stored by column as evaluateBatch() reads them */
+	private final class Batch implements Runnable {
+		final Lane lane;
+		final double[][] columns;
+		final CompletableFuture<?>[] futures;
+		int size;
+		ScheduledFuture<?> timer;
+
+		Batch(Lane lane, int capacity) {
+			int required = lane.expression.getProgram().requiredVariables;
+
+			this.lane = lane;
+			this.columns = new double[required][capacity];
+			this.futures = new CompletableFuture<?>[capacity];
+		}
+
+		void add(double[] point, CompletableFuture<Double> future) {
+			for (int i = 0; i < columns.length; i++)
+				columns[i][size] = point[i];
+
+			futures[size++] = future;
+		}
+
+		@SuppressWarnings("unchecked")
+		public void run() {
+			CompiledExpression expression = lane.expression;
+			EvaluationFrame frame = CompiledExpression.frame();
+			double[] out = new double[size];
+			byte[] flags = new byte[size];
+			boolean evaluated = false;
+
+			try {
+				//the flagged rows are evaluated again below, which counts their failures
+				expression.evaluateBatch(frame, columns, out, flags, 0, size, false);
+				evaluated = true;
+			}
+			catch (Exception e) {
+				//such as a missing variable, so the points are evaluated one by one below
+			}
+
+			//failed points are evaluated again to throw what evaluate() would have thrown
+			Throwable[] failures = null;
+			double[] point = new double[columns.length];
+			for (int r = 0; r < size; r++) {
+				if (evaluated && flags[r] == 0)
+					continue;
+
+				for (int i = 0; i < columns.length; i++)
+					point[i] = columns[i][r];
+
+				try {
+					out[r] = expression.evaluate(frame, point);
+				}
+				catch (Throwable e) {
+					if (failures == null)
+						failures = new Throwable[size];
+					failures[r] = e;
+				}
+			}
+
+			//every point is evaluated, so the depths drop before continuations run and may submit again
+			batches.increment();
+			points.add(size);
+			permits.release(size);
+			lane.completed(size);
+
+			for (int r = 0; r < size; r++) {
+				CompletableFuture<Double> future = (CompletableFuture<Double>) futures[r];
+
+				if (failures != null && failures[r] != null)
+					future.completeExceptionally(failures[r]);
+				else
+					future.complete(out[r]);
+			}
+		}
+	}
+
+	/**
+	 * @return The most points evaluated together.
+	 */
+	public int getBatchSize() {
+		return this.batchSize;
+	}
+
+	/**
+	 * @return The most points pending at once.
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * @return How many points were submitted and not evaluated yet, for every expression.
+	 */
+	public int getQueueDepth() {
+		return capacity - permits.availablePermits();
+	}
+
+	/**
+	 * @return How many points were submitted for <code>expression</code> and not evaluated yet.
+	 */
+	public int getQueueDepth(CompiledExpression expression) {
+		Lane lane = lanes.get(expression);
+
+		return lane == null ? 0 : lane.depth.get();
+	}
+
+	/**
+	 * @return The points not evaluated yet of every expression with pending points.
+	 */
+	public Map<CompiledExpression, Integer> getQueueDepths() {
+		Map<CompiledExpression, Integer> depths = new HashMap<>();
+
+		for (Lane lane : lanes.values()) {
+			int depth = lane.depth.get();
+
+			if (depth > 0)
+				depths.put(lane.expression, depth);
+		}
+
+		return depths;
+	}
+
+	/**
+	 * @return How many batches were evaluated.
+	 */
+	public long getBatchCount() {
+		return batches.sum();
+	}
+
+	/**
+	 * @return How many points were evaluated, in all batches.
+	 */
+	public long getPointCount() {
+		return points.sum();
+	}
+
+	/**
+	 * Stops accepting points, evaluates the pending ones without waiting for their delays and
+	 * waits for them to be completed. Further calls have no effect.
+	 */
+	public void close() {
+		if (closed)
+			return;
+
+		closed = true;
+
+		//submissions check closed under the lane's lock, so no batch is opened after this
+		for (Lane lane : lanes.values()) {
+			Batch batch;
+
+			lane.lock.lock();
+			try {
+				batch = lane.open;
+				lane.open = null;
+			}
+			finally {
+				lane.lock.unlock();
+			}
+
+			if (batch != null) {
+				batch.timer.cancel(false);
+				dispatch(batch);
+			}
+		}
+
+		workers.shutdown();
+		try {
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public String toString() {
+		return "EvaluationService[" + getQueueDepth() + " of " + capacity + " pending]";
+	}
+}
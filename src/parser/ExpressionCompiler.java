@@ -0,0 +1,302 @@
+package parser;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import lexer.Lexer;
+import exceptions.LexerException;
+import exceptions.ParserException;
+
+/**
+ * Compiles expressions into immutable <code>CompiledExpression</code> objects. A compiler
+ * owns its own <code>Lexer</code> and <code>ShuntingYard</code>, so it is not thread-safe,
+ * but each thread can use its own compiler without any synchronization.
+ *
+ * By default only constant expressions are accepted. To change this behavior, invoke
+ * <code>setScalarVariable()</code>, <code>setIndexedVariables()</code> or <code>setSymbols()</code>,
+ * which names them. Only the built-in functions
+ * can be called unless a <code>FunctionRegistry</code> is given through <code>setFunctions()</code>.
+ * Compilers don't cache their results unless a <code>CompileCache</code> is given through
+ * <code>setCache()</code>.
+ */
+public class ExpressionCompiler {
+	private final ShuntingYard shuntingYard;
+	private double epsilon;
+	private boolean relaxed;
+	private CompileCache cache;
+	private FunctionRegistry functions;
+	private SymbolTable symbols;
+
+	//the registered functions and the variables the lexer currently accepts
+	private Map<String, Call> lexerFunctions = Collections.emptyMap();
+	private SymbolTable lexerSymbols;
+
+	public ExpressionCompiler() {
+		this(new ShuntingYard(new Lexer()));
+	}
+
+	/* Used by the JParser facade, which shares the singletons configuration */
+	ExpressionCompiler(ShuntingYard shuntingYard) {
+		this.shuntingYard = shuntingYard;
+		this.epsilon = JParser.EPSILON;
+	}
+
+	/**
+	 * Forbids future expressions to use any kind of variables.
+	 */
+	public void setConstantExpression() {
+		this.symbols = null;
+		shuntingYard.getLexer().setAcceptVariables(false);
+	}
+
+	/**
+	 * Future expressions will be allowed to use only the scalar variable x.
+	 */
+	public void setScalarVariable() {
+		this.symbols = null;
+		shuntingYard.getLexer().setAcceptVariables(true);
+	}
+
+	/**
+	 * Future expressions will be allowed to use only the indexed variables x[0] .. x[dimension-1].
+	 * @param dimension The amount of variables.
+	 * @throws RuntimeException if <code>dimension</code> lesser than 1.
+	 */
+	public void setIndexedVariables(int dimension) {
+		Lexer lexer = shuntingYard.getLexer();
+
+		this.symbols = null;
+		lexer.setAcceptVariables(true);
+		lexer.setMaxDimension(dimension);
+	}
+
+	/**
+	 * Future expressions will be allowed to use only the variables named in <code>symbols</code>,
+	 * instead of x or x[i]. Each name is bound to its slot, so the expressions are evaluated with
+	 * an array holding the value of each slot, as if the variables were x[0] .. x[n-1].
+	 * @param symbols The variables's names.
+	 */
+	public void setSymbols(SymbolTable symbols) {
+		if (symbols == null)
+			throw new IllegalArgumentException("The symbol table can't be null.");
+
+		this.symbols = symbols;
+	}
+
+	/**
+	 * @return The variables future expressions use, or <code>null</code> if they aren't named.
+	 */
+	public SymbolTable getSymbols() {
+		return this.symbols;
+	}
+
+	/**
+	 * Sets the variables configuration as returned by <code>CompiledExpression.getMaxDimension()</code>:
+	 * 0 for constant expressions, 1 for the scalar x and n for x[0] .. x[n-1].
+	 * @param maxDimension The variables configuration.
+	 */
+	public void setMaxDimension(int maxDimension) {
+		if (maxDimension == 0)
+			setConstantExpression();
+		else if (maxDimension == 1)
+			setScalarVariable();
+		else
+			setIndexedVariables(maxDimension);
+	}
+
+	/**
+	 * @return The variables configuration used by future expressions, which is the amount of
+	 * slots when the variables are named.
+	 */
+	public int getMaxDimension() {
+		if (symbols != null)
+			return symbols.size();
+
+		return shuntingYard.getLexer().getMaxDimension();
+	}
+
+	/**
+	 * Sets the threshold zero comparison value used by future expressions.
+	 * The default value is <code>JParser.EPSILON</code>.
+	 * @param epsilon
+	 */
+	public void setEpsilon(double epsilon) {
+		this.epsilon = epsilon;
+	}
+
+	/**
+	 * @return The threshold zero comparison value used by future expressions.
+	 */
+	public double getEpsilon() {
+		return this.epsilon;
+	}
+
+	/**
+	 * Allows future expressions to be rewritten into cheaper forms whose results may differ in the
+	 * last bits from the written ones. Currently, divisions by any constant are replaced by
+	 * multiplications by its reciprocal, instead of only by powers of two. Disabled by default.
+	 * @param relaxed Whether the rewrites are allowed.
+	 */
+	public void setRelaxedArithmetic(boolean relaxed) {
+		this.relaxed = relaxed;
+	}
+
+	/**
+	 * @return Whether future expressions may be rewritten into forms that change the last bits of their results.
+	 */
+	public boolean isRelaxedArithmetic() {
+		return this.relaxed;
+	}
+
+	/**
+	 * Makes future compilations look up and store their results in <code>cache</code>, which
+	 * can be shared with the compilers of other threads.
+	 * @param cache The cache to be used, or <code>null</code> to stop caching.
+	 */
+	public void setCache(CompileCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * @return The cache used by this compiler, or <code>null</code> if there is none.
+	 */
+	public CompileCache getCache() {
+		return this.cache;
+	}
+
+	/**
+	 * Allows future expressions to call the functions of <code>functions</code>. Each call is bound
+	 * to the function registered when the expression is compiled.
+	 * @param functions The functions, or <code>null</code> to allow only the built-in ones.
+	 */
+	public void setFunctions(FunctionRegistry functions) {
+		this.functions = functions;
+	}
+
+	/**
+	 * @return The functions future expressions can call, or <code>null</code> if there are none.
+	 */
+	public FunctionRegistry getFunctions() {
+		return this.functions;
+	}
+
+	/* Every setting that changes the compiled expression, used as part of the cache key */
+	private Object settings(Map<String, Call> functions) {
+		return Arrays.asList(getMaxDimension(), symbols, epsilon, relaxed, functions);
+	}
+
+	/**
+	 * Parses <code>expression</code> into a <code>CompiledExpression</code>. Constant subtrees are
+	 * evaluated once, while compiling, redundant operations and signs are removed, small integer
+	 * powers and divisions by constants are replaced by multiplications and repeated
+	 * subexpressions are evaluated only once.
+	 *
+	 * @param expression The expression to be compiled.
+	 * @return The compiled expression, which can be shared between threads.
+	 * @throws LexerException if the expression contains invalid function names, characters,
+	 * or variables not allowed by the current configuration.
+	 * @throws ParserException If the expression is malformed or always performs an illegal
+	 * mathematical operation, such as <code>3/0</code>.
+	 */
+	public CompiledExpression compile(String expression) throws LexerException, ParserException {
+		if (!Metrics.enabled)
+			return lookup(expression);
+
+		Metrics.Probe probe = Metrics.compiling();
+		CompiledExpression compiled = null;
+
+		try {
+			return compiled = lookup(expression);
+		}
+		catch (LexerException | ParserException e) {
+			probe.failed(e);
+			throw e;
+		}
+		finally {
+			probe.compiled(expression, compiled);
+		}
+	}
+
+	/* Compiles expression, unless it is cached */
+	private CompiledExpression lookup(String expression) throws LexerException, ParserException {
+		//the same registered functions are used through the whole compilation
+		Map<String, Call> functions = this.functions == null ? Collections.<String, Call>emptyMap()
+				: this.functions.snapshot();
+
+		if (cache == null)
+			return build(expression, functions);
+
+		Object settings = settings(functions);
+		CompiledExpression compiled = cache.get(expression, settings);
+
+		if (compiled == null) {
+			compiled = build(expression, functions);
+			cache.put(expression, settings, compiled);
+		}
+
+		return compiled;
+	}
+
+	/**
+	 * Parses <code>expressions</code> into a single <code>CompiledSystem</code>, which evaluates all
+	 * of them at once. The expressions are optimized as by <code>compile()</code>, and subexpressions
+	 * repeated across expressions are evaluated only once. Systems are not cached.
+	 *
+	 * @param expressions The expressions to be compiled, one per output.
+	 * @return The compiled system, which can be shared between threads.
+	 * @throws LexerException if any expression contains invalid function names, characters,
+	 * or variables not allowed by the current configuration.
+	 * @throws ParserException If any expression is malformed or always performs an illegal
+	 * mathematical operation, such as <code>3/0</code>.
+	 */
+	public CompiledSystem compileSystem(String... expressions) throws LexerException, ParserException {
+		if (expressions.length == 0)
+			throw new IllegalArgumentException("A system needs at least one expression.");
+
+		Map<String, Call> functions = this.functions == null ? Collections.<String, Call>emptyMap()
+				: this.functions.snapshot();
+		CommonSubexpressions sharing = new CommonSubexpressions();
+		Node[] trees = new Node[expressions.length];
+
+		//one pass shares the subexpressions of every tree
+		for (int i = 0; i < expressions.length; i++)
+			trees[i] = sharing.rewrite(parse(expressions[i], functions));
+
+		Program program = ProgramBuilder.lower(trees);
+
+		return new CompiledSystem(expressions, program, getMaxDimension(), symbols, epsilon, sharing.getEliminated());
+	}
+
+	private CompiledExpression build(String expression, Map<String, Call> functions)
+			throws LexerException, ParserException {
+		CommonSubexpressions sharing = new CommonSubexpressions();
+		Node tree = sharing.rewrite(parse(expression, functions));
+
+		Program program = ProgramBuilder.lower(tree);
+
+		return new CompiledExpression(expression, program, getMaxDimension(), symbols, epsilon, sharing.getEliminated());
+	}
+
+	/* Parses expression into a simplified and strength reduced tree */
+	private Node parse(String expression, Map<String, Call> functions) throws LexerException, ParserException {
+		if (functions != lexerFunctions) {
+			shuntingYard.getLexer().setFunctionNames(functions.keySet());
+			lexerFunctions = functions;
+		}
+
+		if (symbols != lexerSymbols) {
+			shuntingYard.getLexer().setVariableNames(symbols == null ? null : symbols.getNames());
+			lexerSymbols = symbols;
+		}
+
+		shuntingYard.convertFromInfixToPosfix(expression);
+
+		Node tree = TreeBuilder.build(shuntingYard.getExpression(), functions);
+
+		tree = new Simplifier(epsilon).rewrite(tree);
+		tree = new Polynomials(relaxed).rewrite(tree);
+
+		return new StrengthReduction(epsilon, relaxed).rewrite(tree);
+	}
+}
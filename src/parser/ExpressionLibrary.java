@@ -0,0 +1,307 @@
+package parser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores compiled expressions in a compact binary file, so they can be loaded later without
+ * lexing, parsing nor optimizing them again. A library holds the program of each expression
+ * (its instructions, constant pool and the sizes the evaluators preallocate) along with the
+ * settings it was compiled with, including the names of its variables. Registered functions
+ * are stored by name and arity, and bound again to the functions of a
+ * <code>FunctionRegistry</code> when the library is loaded.
+ *
+ * The format is versioned and big-endian:
+ * <pre>
+ * library:    magic "JPRL", u2 version, u4 count, expression[count]
+ * expression: string source, u4 maxDimension, u4 symbolCount, string symbol[symbolCount],
+ *             f8 epsilon, u4 eliminatedNodes,
+ *             u4 stackSize, u4 temporaries, u4 requiredVariables,
+ *             u4 constantCount, f8 constant[constantCount],
+ *             u4 functionCount, (string name, u4 arity)[functionCount],
+ *             u4 length, u4 opcode[length], u4 argument[length]
+ * string:     u4 length, UTF-8 bytes[length]
+ * </pre>
+ * Libraries of version 1, written before variables could be named, are still read: their
+ * expressions have no <code>symbolCount</code> and use x or x[i].
+ * Loading memory-maps the file and reads each array in bulk. Every program is verified before
+ * being accepted, so a corrupted or forged library raises an <code>IOException</code> instead
+ * of making the evaluators misbehave.
+ */
+public final class ExpressionLibrary {
+	private static final int MAGIC = 0x4A50524C;
+
+	/** The version of the format written */
+	static final int VERSION = 2;
+
+	/** The oldest version read, whose expressions have no symbols */
+	static final int FIRST_VERSION = 1;
+
+	private ExpressionLibrary() { }
+
+	/**
+	 * Writes <code>expressions</code> into <code>file</code>, which is created or replaced.
+	 */
+	public static void write(Path file, Collection<CompiledExpression> expressions) throws IOException {
+		try (OutputStream out = Files.newOutputStream(file)) {
+			write(out, expressions);
+		}
+	}
+
+	/**
+	 * Writes <code>expressions</code> into <code>out</code>, which is not closed.
+	 */
+	public static void write(OutputStream out, Collection<CompiledExpression> expressions) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+
+		data.writeInt(MAGIC);
+		data.writeShort(VERSION);
+		data.writeInt(expressions.size());
+
+		for (CompiledExpression expression : expressions) {
+			Program program = expression.getProgram();
+
+			string(data, expression.getSource());
+			data.writeInt(expression.getMaxDimension());
+
+			//unnamed variables are stored as an empty table, which can't be created
+			SymbolTable symbols = expression.getSymbols();
+			data.writeInt(symbols == null ? 0 : symbols.size());
+			for (int i = 0; symbols != null && i < symbols.size(); i++)
+				string(data, symbols.getName(i));
+			data.writeDouble(expression.getEpsilon());
+			data.writeInt(expression.getEliminatedNodes());
+
+			data.writeInt(program.stackSize);
+			data.writeInt(program.temporaries);
+			data.writeInt(program.requiredVariables);
+
+			data.writeInt(program.constants.length);
+			for (double constant : program.constants)
+				data.writeDouble(constant);
+
+			data.writeInt(program.functions.length);
+			for (Call function : program.functions) {
+				string(data, function.name);
+				data.writeInt(function.arity);
+			}
+
+			data.writeInt(program.length());
+			for (int op : program.ops)
+				data.writeInt(op);
+			for (int arg : program.args)
+				data.writeInt(arg);
+		}
+
+		data.flush();
+	}
+
+	private static void string(DataOutputStream data, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+		data.writeInt(bytes.length);
+		data.write(bytes);
+	}
+
+	/**
+	 * Loads the expressions of a library calling only built-in functions.
+	 * @see #read(Path, FunctionRegistry)
+	 */
+	public static List<CompiledExpression> read(Path file) throws IOException {
+		return read(file, null);
+	}
+
+	/**
+	 * Loads the expressions written into <code>file</code> by <code>write()</code>, in the same
+	 * order. The file is memory-mapped while it is read.
+	 *
+	 * @param file The library.
+	 * @param functions The functions the expressions call, or <code>null</code> if they only call
+	 * built-in ones. Each call is bound to the function registered now.
+	 * @return The expressions, which can be shared between threads.
+	 * @throws IOException if the file can't be read, isn't a library of a supported version, is
+	 * corrupted or calls a function not in <code>functions</code> with the same arity.
+	 */
+	public static List<CompiledExpression> read(Path file, FunctionRegistry functions) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), functions);
+		}
+	}
+
+	/**
+	 * Loads the expressions of a library from <code>buffer</code>, starting at its position.
+	 * @see #read(Path, FunctionRegistry)
+	 */
+	public static List<CompiledExpression> read(ByteBuffer buffer, FunctionRegistry functions) throws IOException {
+		Map<String, Call> registered = functions == null ? Collections.<String, Call>emptyMap() : functions.snapshot();
+		ByteBuffer in = buffer.slice();
+
+		try {
+			if (in.getInt() != MAGIC)
+				throw new IOException("Not an expression library.");
+
+			int version = in.getShort();
+			if (version < FIRST_VERSION || version > VERSION)
+				throw new IOException("Unsupported library version " + version + ".");
+
+			int count = count(in, 1);
+			List<CompiledExpression> expressions = new ArrayList<>(count);
+
+			for (int i = 0; i < count; i++)
+				expressions.add(expression(in, version, registered));
+
+			return expressions;
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException("Truncated expression library.");
+		}
+	}
+
+	private static CompiledExpression expression(ByteBuffer in, int version, Map<String, Call> registered)
+			throws IOException {
+		String source = string(in);
+		int maxDimension = in.getInt();
+		SymbolTable symbols = version > 1 ? symbols(in) : null;
+		double epsilon = in.getDouble();
+		int eliminated = in.getInt();
+
+		int stackSize = in.getInt();
+		int temporaries = in.getInt();
+		int requiredVariables = in.getInt();
+
+		double[] constants = new double[count(in, 8)];
+		in.asDoubleBuffer().get(constants);
+		in.position(in.position() + 8 * constants.length);
+
+		Call[] functions = new Call[count(in, 8)];
+		for (int i = 0; i < functions.length; i++) {
+			String name = string(in);
+			int arity = in.getInt();
+			Call call = registered.get(name);
+
+			if (call == null || call.arity != arity)
+				throw new IOException("The function " + name + " of " + arity + " arguments is not registered.");
+			functions[i] = call;
+		}
+
+		int length = count(in, 8);
+		int[] ops = new int[length];
+		int[] args = new int[length];
+
+		in.asIntBuffer().get(ops);
+		in.position(in.position() + 4 * length);
+		in.asIntBuffer().get(args);
+		in.position(in.position() + 4 * length);
+
+		Program program = new Program(ops, args, constants, functions, stackSize, temporaries, requiredVariables, 1);
+		verify(program, maxDimension);
+
+		if (symbols != null && symbols.size() != maxDimension)
+			throw invalid("symbols");
+
+		return new CompiledExpression(source, program, maxDimension, symbols, epsilon, eliminated);
+	}
+
+	/* Reads a count of elements of the given size, which the rest of the buffer must be able to hold */
+	private static int count(ByteBuffer in, int size) throws IOException {
+		int count = in.getInt();
+
+		if (count < 0 || (long) count * size > in.remaining())
+			throw new IOException("Corrupted expression library.");
+
+		return count;
+	}
+
+	private static SymbolTable symbols(ByteBuffer in) throws IOException {
+		String[] names = new String[count(in, 4)];
+
+		if (names.length == 0)
+			return null;
+
+		for (int i = 0; i < names.length; i++)
+			names[i] = string(in);
+
+		try {
+			return new SymbolTable(names);
+		}
+		catch (IllegalArgumentException e) {
+			throw invalid("symbols");
+		}
+	}
+
+	private static String string(ByteBuffer in) throws IOException {
+		byte[] bytes = new byte[count(in, 1)];
+
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Checks that <code>program</code> is one the compiler could have built: every argument refers
+	 * to an existing constant, variable, slot or function, slots are stored before being loaded
+	 * and the stack stays within its size, ending with a single value.
+	 */
+	static void verify(Program program, int maxDimension) throws IOException {
+		int depth = 0;
+		boolean[] stored = new boolean[Math.max(0, program.temporaries)];
+
+		if (program.stackSize < 1 || program.temporaries < 0 || program.requiredVariables < 0
+				|| program.requiredVariables > maxDimension)
+			throw invalid("sizes");
+
+		for (int i = 0; i < program.length(); i++) {
+			int op = program.ops[i];
+			int arg = program.args[i];
+
+			if (op < 0 || op >= Opcodes.count())
+				throw invalid("opcode " + op);
+
+			boolean valid;
+			switch (op) {
+				case Opcodes.CONST: valid = arg >= 0 && arg < program.constants.length; break;
+				case Opcodes.VAR: valid = arg >= 0 && arg < program.requiredVariables; break;
+				case Opcodes.LOAD: valid = arg >= 0 && arg < stored.length && stored[arg]; break;
+				case Opcodes.STORE: valid = arg >= 0 && arg < stored.length && depth > 0; break;
+				case Opcodes.CALL: valid = arg >= 0 && arg < program.functions.length; break;
+				default: valid = true;
+			}
+
+			if (!valid)
+				throw invalid("argument " + arg + " of " + Opcodes.name(op));
+
+			if (op == Opcodes.STORE) {
+				stored[arg] = true;
+				continue;
+			}
+
+			depth -= op == Opcodes.CALL ? program.functions[arg].arity : Opcodes.operands(op);
+			if (depth < 0)
+				throw invalid("stack underflow");
+
+			depth++;
+			if (depth > program.stackSize)
+				throw invalid("stack overflow");
+		}
+
+		if (depth != 1)
+			throw invalid("result");
+	}
+
+	private static IOException invalid(String what) {
+		return new IOException("Invalid program in expression library: " + what + ".");
+	}
+}
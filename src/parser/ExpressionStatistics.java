@@ -0,0 +1,67 @@
+package parser;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What evaluating a single expression has cost so far, as recorded by <code>Metrics</code>.
+ * Expressions compiled with different settings but from the same text share their statistics.
+ */
+public final class ExpressionStatistics {
+	private final LongAdder evaluations = new LongAdder();
+	private final LongAdder rows = new LongAdder();
+	private final LongAdder operations = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder nanos = new LongAdder();
+
+	ExpressionStatistics() { }
+
+	void record(long rows, int instructions, long nanos, boolean failed) {
+		this.evaluations.increment();
+		this.rows.add(rows);
+		this.operations.add(rows * instructions);
+		this.nanos.add(nanos);
+
+		if (failed)
+			failures.increment();
+	}
+
+	/**
+	 * @return How many times the expression was evaluated, counting each batch once.
+	 */
+	public long getEvaluations() {
+		return evaluations.sum();
+	}
+
+	/**
+	 * @return How many rows were evaluated, counting each single evaluation as one row.
+	 */
+	public long getRows() {
+		return rows.sum();
+	}
+
+	/**
+	 * @return How many instructions were executed, as the rows times the instructions of the expression.
+	 */
+	public long getOperations() {
+		return operations.sum();
+	}
+
+	/**
+	 * @return How many evaluations threw a <code>ParserException</code>.
+	 */
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	/**
+	 * @return How long every evaluation took in total, in nanoseconds.
+	 */
+	public long getTotalNanos() {
+		return nanos.sum();
+	}
+
+	public String toString() {
+		return "evaluations=" + getEvaluations() + " rows=" + getRows() + " operations=" + getOperations()
+				+ " failures=" + getFailures() + " nanos=" + getTotalNanos();
+	}
+}
@@ -0,0 +1,128 @@
+package parser;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A custom JDK Flight Recorder event type, defined while running through
+ * <code>jdk.jfr.EventFactory</code>. The library is compiled for Java 8, whose API has no
+ * <code>jdk.jfr</code> package, so the flight recorder is only reached by reflection. On
+ * JVMs without it, events are silently dropped.
+ */
+final class FlightRecorderEvent {
+	private static final MethodHandle NEW_EVENT;
+	private static final MethodHandle IS_ENABLED;
+	private static final MethodHandle BEGIN;
+	private static final MethodHandle SET;
+	private static final MethodHandle COMMIT;
+
+	static {
+		MethodHandle newEvent = null, isEnabled = null, begin = null, set = null, commit = null;
+
+		try {
+			Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+			Class<?> event = Class.forName("jdk.jfr.Event");
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+			newEvent = lookup.findVirtual(factory, "newEvent", MethodType.methodType(event));
+			isEnabled = lookup.findVirtual(event, "isEnabled", MethodType.methodType(boolean.class));
+			begin = lookup.findVirtual(event, "begin", MethodType.methodType(void.class));
+			set = lookup.findVirtual(event, "set", MethodType.methodType(void.class, int.class, Object.class));
+			commit = lookup.findVirtual(event, "commit", MethodType.methodType(void.class));
+		}
+		catch (ReflectiveOperationException | LinkageError e) {
+			//no flight recorder in this JVM
+			newEvent = null;
+		}
+
+		NEW_EVENT = newEvent;
+		IS_ENABLED = isEnabled;
+		BEGIN = begin;
+		SET = set;
+		COMMIT = commit;
+	}
+
+	/** The <code>jdk.jfr.EventFactory</code> of this type, or <code>null</code> if it couldn't be defined */
+	private final Object factory;
+
+	/**
+	 * Defines an event type in the category "JParser".
+	 * @param name The name of the event type, as shown by JFR tools.
+	 * @param label A human readable name.
+	 * @param fields The names of the event's fields.
+	 * @param types The types of the event's fields, which must be primitives or <code>String</code>.
+	 */
+	FlightRecorderEvent(String name, String label, String[] fields, Class<?>[] types) {
+		this.factory = NEW_EVENT == null ? null : define(name, label, fields, types);
+	}
+
+	private static Object define(String name, String label, String[] fields, Class<?>[] types) {
+		try {
+			Constructor<?> annotation = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+			Constructor<?> field = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class);
+			List<Object> annotations = new ArrayList<>();
+			List<Object> descriptors = new ArrayList<>();
+
+			annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Name"), name));
+			annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Label"), label));
+			annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] {"JParser"}));
+
+			for (int i = 0; i < fields.length; i++)
+				descriptors.add(field.newInstance(types[i], fields[i]));
+
+			return Class.forName("jdk.jfr.EventFactory").getMethod("create", List.class, List.class)
+					.invoke(null, annotations, descriptors);
+		}
+		catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return Whether events of this type can be recorded at all.
+	 */
+	boolean isAvailable() {
+		return factory != null;
+	}
+
+	/**
+	 * Starts an event, which lasts until it is committed.
+	 * @return The event, or <code>null</code> if the flight recorder isn't recording this type.
+	 */
+	Object begin() {
+		if (factory == null)
+			return null;
+
+		try {
+			Object event = NEW_EVENT.invoke(factory);
+
+			if (!(boolean) IS_ENABLED.invoke(event))
+				return null;
+
+			BEGIN.invoke(event);
+			return event;
+		}
+		catch (Throwable e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Sets the fields of <code>event</code>, in the order they were defined, and records it.
+	 */
+	void commit(Object event, Object... values) {
+		try {
+			for (int i = 0; i < values.length; i++)
+				SET.invoke(event, i, values[i]);
+
+			COMMIT.invoke(event);
+		}
+		catch (Throwable e) {
+			//a broken event is not worth failing the evaluation
+		}
+	}
+}
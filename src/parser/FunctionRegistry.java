@@ -0,0 +1,105 @@
+package parser;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import lexer.Lexer;
+
+/**
+ * Functions defined outside the parser, which expressions call by name like the built-in ones.
+ * Functions of many arguments separate them by commas, as in <code>clamp(x, 0, 1)</code>.
+ * 
+ * Names are resolved once, when an expression is compiled: each call site is bound to the
+ * function registered at that moment, so evaluating it never looks the name up again.
+ * Registering a function again replaces it only for the expressions compiled afterwards.
+ * 
+ * Registered functions must be pure: calls with constant arguments are evaluated while
+ * compiling and repeated calls with the same arguments are evaluated only once. They may be
+ * called concurrently by the threads evaluating an expression, and may evaluate other compiled
+ * expressions only through an <code>EvaluationFrame</code> of their own.
+ * 
+ * Registries can be shared between threads and compilers.
+ */
+public final class FunctionRegistry {
+	private volatile Map<String, Call> functions = Collections.emptyMap();
+
+	/**
+	 * Registers a function of a single argument.
+	 * @param name The function's name, made only of the letters a-z. Case is ignored.
+	 * @param function The function's implementation.
+	 * @throws IllegalArgumentException if <code>name</code> is not valid or is a built-in name.
+	 */
+	public void register(String name, ScalarFunction function) {
+		name = check(name);
+		put(new Call(name, function));
+	}
+
+	/**
+	 * Registers a function of <code>arity</code> arguments. The array passed to <code>function</code>
+	 * is reused between calls, so it must not be kept.
+	 * @param name The function's name, made only of the letters a-z. Case is ignored.
+	 * @param arity How many arguments the function takes.
+	 * @param function The function's implementation.
+	 * @throws IllegalArgumentException if <code>name</code> is not valid or is a built-in name, or
+	 * if <code>arity</code> is negative.
+	 */
+	public void register(String name, int arity, VectorFunction function) {
+		name = check(name);
+
+		if (arity < 0)
+			throw new IllegalArgumentException("The arity of a function can't be negative.");
+
+		put(new Call(name, arity, function));
+	}
+
+	/**
+	 * @return <code>true</code> if a function called <code>name</code> is registered.
+	 */
+	public boolean contains(String name) {
+		return functions.containsKey(name.toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * @return How many arguments the function called <code>name</code> takes, or -1 if there
+	 * is no such function.
+	 */
+	public int getArity(String name) {
+		Call call = functions.get(name.toLowerCase(Locale.ROOT));
+
+		return call == null ? -1 : call.arity;
+	}
+
+	/* The registered functions, as an immutable map replaced on every registration */
+	Map<String, Call> snapshot() {
+		return functions;
+	}
+
+	private synchronized void put(Call call) {
+		Map<String, Call> updated = new HashMap<>(functions);
+
+		updated.put(call.name, call);
+		functions = Collections.unmodifiableMap(updated);
+	}
+
+	private static String check(String name) {
+		name = name.toLowerCase(Locale.ROOT);
+
+		if (name.isEmpty())
+			throw new IllegalArgumentException("Function names can't be empty.");
+
+		for (int i = 0; i < name.length(); i++)
+			if (name.charAt(i) < 'a' || name.charAt(i) > 'z')
+				throw new IllegalArgumentException("Function names can only have the letters a-z.");
+
+		if (Lexer.isReserved(name))
+			throw new IllegalArgumentException(name + " is already a built-in name.");
+
+		return name;
+	}
+
+	public String toString() {
+		return functions.values().toString();
+	}
+}
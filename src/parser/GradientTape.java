@@ -0,0 +1,49 @@
+package parser;
+
+/**
+ * The buffers <code>ReverseInterpreter</code> records a program's evaluation in, which
+ * <code>Selects</code> also reads to tell the failures of chosen branches. Tapes belong
+ * to an <code>EvaluationFrame</code> and only grow, so computing gradients repeatedly doesn't
+ * allocate memory.
+ */
+final class GradientTape {
+	/** The value computed by each instruction */
+	double[] values = new double[0];
+
+	/** The adjoint of each instruction, which is the derivative of the result with respect to its value */
+	double[] adjoints = new double[0];
+
+	/** The instructions that computed the operands of each instruction, in order of execution */
+	int[] operands = new int[0];
+
+	/** The instruction that computed each value on the operand stack, followed by each temporary slot */
+	int[] owners = new int[0];
+
+	/** The amount of links in <code>operands</code> */
+	int links;
+
+	/** Whether each instruction failed, for programs with selects, which don't throw while recorded */
+	boolean[] failed = new boolean[0];
+
+	/** How many instructions failed */
+	int failures;
+
+	/** Whether the outputs depend on each instruction through the branches chosen, once marked by <code>Selects</code> */
+	boolean[] live = new boolean[0];
+
+	/* Makes room for a program of length instructions, links to operands and a frame of frameSize elements */
+	void ensure(int length, int links, int frameSize) {
+		if (values.length < length) {
+			values = new double[length];
+			adjoints = new double[length];
+			failed = new boolean[length];
+			live = new boolean[length];
+		}
+
+		if (operands.length < links)
+			operands = new int[links];
+
+		if (owners.length < frameSize)
+			owners = new int[frameSize];
+	}
+}
@@ -0,0 +1,284 @@
+package parser;
+
+import java.util.Arrays;
+
+import exceptions.ParserException;
+
+/**
+ * Keeps the value of every instruction of a <code>CompiledExpression</code> between
+ * evaluations, so changing a single variable only recomputes the instructions that depend
+ * on it, instead of the whole expression. This suits algorithms that change one x[i] at a
+ * time, such as coordinate descent.
+ *
+ * The instructions depending on each variable are found once, when the evaluator is created.
+ * Instances hold the variables's values, so they must not be shared between threads.
+ * Instances are created by <code>CompiledExpression.incremental()</code>.
+ */
+public final class IncrementalEvaluator {
+	private final Program program;
+	private final double epsilon;
+	private final EvaluationFrame frame;
+
+	/* The operands of instruction i are the values of operands[first[i]] .. operands[first[i+1]-1] */
+	private final int[] first;
+	private final int[] operands;
+
+	/* The instructions depending on each variable, in program order */
+	private final int[][] dependents;
+
+	private final double[] variables;
+	private final double[] values;
+
+	/* For programs with selects, the instructions which failed and how many, since only the chosen branches' count */
+	private final boolean[] failed;
+	private final boolean[] live;
+	private final int[] result;
+	private int failures;
+
+	IncrementalEvaluator(Program program, double epsilon, double[] variables) throws ParserException {
+		int n = program.length();
+
+		this.program = program;
+		this.epsilon = epsilon;
+		this.frame = new EvaluationFrame();
+		this.first = new int[n + 1];
+		this.operands = link(program, first);
+		this.dependents = dependents(program, first, operands, variables.length);
+		this.variables = variables.clone();
+		this.values = new double[n];
+		this.failed = new boolean[n];
+		this.live = new boolean[n];
+		this.result = new int[] {n - 1};
+
+		for (int i = 0; i < n; i++)
+			set(i);
+		check();
+	}
+
+	/* Finds the instruction each operand was computed by, replaying the stack of the program */
+	private static int[] link(Program program, int[] first) {
+		int[] ops = program.ops;
+		int[] args = program.args;
+		int[] owners = new int[program.frameSize()];
+		int[] operands = new int[2 * ops.length];
+		int top = -1;
+		int cursor = 0;
+
+		for (int i = 0; i < ops.length; i++) {
+			first[i] = cursor;
+
+			switch (ops[i]) {
+				case Opcodes.CONST:
+				case Opcodes.VAR:
+					break;
+
+				case Opcodes.LOAD:
+					operands[cursor++] = owners[program.stackSize + args[i]];
+					break;
+
+				case Opcodes.STORE:
+					operands[cursor++] = owners[top--];
+					owners[program.stackSize + args[i]] = i;
+					break;
+
+				default:
+					int count = ops[i] == Opcodes.CALL ? program.functions[args[i]].arity : Opcodes.operands(ops[i]);
+
+					for (int j = top - count + 1; j <= top; j++)
+						operands[cursor++] = owners[j];
+
+					top -= count;
+			}
+
+			owners[++top] = i;
+		}
+
+		first[ops.length] = cursor;
+		return operands;
+	}
+
+	/* Lists, for each variable, the instructions whose value depends on it */
+	private static int[][] dependents(Program program, int[] first, int[] operands, int count) {
+		int n = program.length();
+		int[][] dependents = new int[count][];
+		boolean[] depends = new boolean[n];
+		int[] list = new int[n];
+
+		for (int v = 0; v < count; v++) {
+			int size = 0;
+
+			for (int i = 0; i < n; i++) {
+				boolean dirty = program.ops[i] == Opcodes.VAR && program.args[i] == v;
+
+				for (int j = first[i]; j < first[i + 1] && !dirty; j++)
+					dirty = depends[operands[j]];
+
+				depends[i] = dirty;
+				if (dirty)
+					list[size++] = i;
+			}
+
+			dependents[v] = Arrays.copyOf(list, size);
+		}
+
+		return dependents;
+	}
+
+	/**
+	 * @return The value of the expression for the current variables.
+	 */
+	public double getValue() {
+		return values[values.length - 1];
+	}
+
+	/**
+	 * @return The current value of x[index] (or x, for index 0).
+	 */
+	public double getVariable(int index) {
+		return variables[index];
+	}
+
+	/**
+	 * @return How many instructions <code>update()</code> recomputes when x[index] changes.
+	 */
+	public int getDependentCount(int index) {
+		checkIndex(index);
+		return dependents[index].length;
+	}
+
+	/**
+	 * Replaces x[index] (or x, for index 0) by <code>value</code> and recomputes only the
+	 * instructions depending on it.
+	 *
+	 * @return The value of the expression for the new variables.
+	 * @throws ParserException if a illegal mathematical operation is performed (such as 0^0,
+	 * division by zero or log(x), x < 0). In this case, the evaluator keeps the previous value
+	 * of x[index].
+	 */
+	public double update(int index, double value) throws ParserException {
+		checkIndex(index);
+		double previous = variables[index];
+
+		if (Double.doubleToLongBits(previous) == Double.doubleToLongBits(value))
+			return getValue();
+
+		variables[index] = value;
+		try {
+			recompute(dependents[index]);
+		}
+		catch (ParserException e) {
+			//the previous values were computed without errors, so this succeeds
+			variables[index] = previous;
+			recompute(dependents[index]);
+			throw e;
+		}
+
+		return getValue();
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= variables.length)
+			throw new IllegalArgumentException("There is no variable x[" + index + "].");
+	}
+
+	private void recompute(int[] instructions) throws ParserException {
+		for (int i : instructions)
+			set(i);
+		check();
+	}
+
+	/* Computes instruction i, marking it instead of throwing if it fails in a program with selects */
+	private void set(int i) throws ParserException {
+		if (!program.selects) {
+			values[i] = compute(i, epsilon);
+			return;
+		}
+
+		if (failed[i]) {
+			failed[i] = false;
+			failures--;
+		}
+
+		try {
+			values[i] = compute(i, epsilon);
+		}
+		catch (ParserException e) {
+			values[i] = program.ops[i] == Opcodes.CALL ? Double.NaN : compute(i, Selects.UNCHECKED);
+			failed[i] = true;
+			failures++;
+		}
+	}
+
+	/* Throws the first failure which reaches the result through the branches chosen, if any */
+	private void check() throws ParserException {
+		if (failures == 0)
+			return;
+
+		Selects.mark(program, values, operands, first[values.length], result, 1, live);
+		Selects.raise(program, epsilon, values, operands, failed, live, frame);
+	}
+
+	/* Computes instruction i from the values of its operands */
+	private double compute(int i, double epsilon) throws ParserException {
+		int j = first[i];
+		double a = j < first[i + 1] ? values[operands[j]] : 0;
+		double b = j + 1 < first[i + 1] ? values[operands[j + 1]] : 0;
+		double c = j + 2 < first[i + 1] ? values[operands[j + 2]] : 0;
+
+		switch (program.ops[i]) {
+			case Opcodes.CONST: return program.constants[program.args[i]];
+			case Opcodes.VAR: return variables[program.args[i]];
+			case Opcodes.LOAD:
+			case Opcodes.STORE:
+				return a;
+
+			case Opcodes.ADD: return a + b;
+			case Opcodes.SUB: return a - b;
+			case Opcodes.MUL: return a * b;
+			case Opcodes.DIV: return Operations.div(a, b, epsilon);
+			case Opcodes.POW: return Operations.pow(a, b, epsilon);
+			case Opcodes.NEG: return -a;
+
+			case Opcodes.SIN: return Math.sin(a);
+			case Opcodes.COS: return Math.cos(a);
+			case Opcodes.TAN: return Math.tan(a);
+			case Opcodes.SEC: return Operations.sec(a, epsilon);
+			case Opcodes.CSC: return Operations.csc(a, epsilon);
+			case Opcodes.CTG: return Operations.ctg(a, epsilon);
+
+			case Opcodes.SINH: return Math.sinh(a);
+			case Opcodes.COSH: return Math.cosh(a);
+			case Opcodes.TANH: return Math.tanh(a);
+
+			case Opcodes.ASIN: return Math.asin(a);
+			case Opcodes.ACOS: return Math.acos(a);
+			case Opcodes.ATAN: return Math.atan(a);
+
+			case Opcodes.LN: return Operations.ln(a, epsilon);
+			case Opcodes.SQRT: return Math.sqrt(a);
+
+			case Opcodes.LT: case Opcodes.LE: case Opcodes.GT: case Opcodes.GE: case Opcodes.EQ: case Opcodes.NE:
+				return DualInterpreter.compare(program.ops[i], a, b);
+
+			case Opcodes.MIN: return Math.min(a, b);
+			case Opcodes.MAX: return Math.max(a, b);
+			case Opcodes.ABS: return Math.abs(a);
+			case Opcodes.SELECT: return a != 0 ? b : c;
+
+			case Opcodes.CALL:
+				Call call = program.functions[program.args[i]];
+
+				if (call.unary != null)
+					return call.unary.evaluate(a);
+
+				double[] arguments = frame.arguments(call.arity);
+				for (int k = 0; k < call.arity; k++)
+					arguments[k] = values[operands[j + k]];
+
+				return call.vector.evaluate(arguments);
+
+			default:
+				throw new ParserException("Unknown error.");
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package parser;
+
+import exceptions.ParserException;
+
+/**
+ * Runs a <code>Program</code> one row at a time over a preallocated operand stack. When an
+ * operation of a program with selects fails, <code>Selects</code> tells whether it counts.
+ */
+final class Interpreter {
+	private Interpreter() { }
+
+	/**
+	 * Runs <code>program</code>, which must have been verified to use only the given variables.
+	 * @param frame Holds the operand stack followed by the temporary slots.
+	 * @return The value on top of the stack after the last instruction.
+	 */
+	static double run(Program program, double epsilon, double[] variables, EvaluationFrame frame)
+			throws ParserException {
+		double[] stack = frame.stack(program.frameSize());
+
+		try {
+			return stack[execute(program, epsilon, variables, stack, frame)];
+		}
+		catch (ParserException e) {
+			//the failure may belong to a branch not chosen
+			if (!program.selects)
+				throw e;
+			return Selects.evaluate(program, epsilon, variables, frame);
+		}
+	}
+
+	/**
+	 * Runs <code>program</code>, which may have many outputs, copying them into <code>out</code>.
+	 * @param frame Holds the operand stack followed by the temporary slots.
+	 */
+	static void run(Program program, double epsilon, double[] variables, double[] out, EvaluationFrame frame)
+			throws ParserException {
+		double[] stack = frame.stack(program.frameSize());
+
+		//the outputs are the whole stack left by the program
+		try {
+			execute(program, epsilon, variables, stack, frame);
+			System.arraycopy(stack, 0, out, 0, program.outputs);
+		}
+		catch (ParserException e) {
+			if (!program.selects)
+				throw e;
+			Selects.evaluate(program, epsilon, variables, out, frame);
+		}
+	}
+
+	/* Runs the instructions over stack, returning the index of its top */
+	private static int execute(Program program, double epsilon, double[] variables, double[] stack,
+			EvaluationFrame frame) throws ParserException {
+		final int[] ops = program.ops;
+		final int[] args = program.args;
+		final double[] constants = program.constants;
+		final int temporaries = program.stackSize;
+		int top = -1;
+
+		for (int i = 0; i < ops.length; i++) {
+			switch (ops[i]) {
+				case Opcodes.CONST: stack[++top] = constants[args[i]]; break;
+				case Opcodes.VAR: stack[++top] = variables[args[i]]; break;
+				case Opcodes.LOAD: stack[++top] = stack[temporaries + args[i]]; break;
+				case Opcodes.STORE: stack[temporaries + args[i]] = stack[top]; break;
+
+				case Opcodes.ADD: top--; stack[top] += stack[top + 1]; break;
+				case Opcodes.SUB: top--; stack[top] -= stack[top + 1]; break;
+				case Opcodes.MUL: top--; stack[top] *= stack[top + 1]; break;
+
+				case Opcodes.DIV: top--; stack[top] = Operations.div(stack[top], stack[top + 1], epsilon); break;
+				case Opcodes.POW: top--; stack[top] = Operations.pow(stack[top], stack[top + 1], epsilon); break;
+				case Opcodes.NEG: stack[top] = -stack[top]; break;
+
+				case Opcodes.SIN: stack[top] = Math.sin(stack[top]); break;
+				case Opcodes.COS: stack[top] = Math.cos(stack[top]); break;
+				case Opcodes.TAN: stack[top] = Math.tan(stack[top]); break;
+
+				case Opcodes.SEC: stack[top] = Operations.sec(stack[top], epsilon); break;
+				case Opcodes.CSC: stack[top] = Operations.csc(stack[top], epsilon); break;
+				case Opcodes.CTG: stack[top] = Operations.ctg(stack[top], epsilon); break;
+
+				case Opcodes.SINH: stack[top] = Math.sinh(stack[top]); break;
+				case Opcodes.COSH: stack[top] = Math.cosh(stack[top]); break;
+				case Opcodes.TANH: stack[top] = Math.tanh(stack[top]); break;
+
+				case Opcodes.ASIN: stack[top] = Math.asin(stack[top]); break;
+				case Opcodes.ACOS: stack[top] = Math.acos(stack[top]); break;
+				case Opcodes.ATAN: stack[top] = Math.atan(stack[top]); break;
+
+				case Opcodes.LN: stack[top] = Operations.ln(stack[top], epsilon); break;
+				case Opcodes.SQRT: stack[top] = Math.sqrt(stack[top]); break;
+
+				case Opcodes.LT: top--; stack[top] = stack[top] < stack[top + 1] ? 1 : 0; break;
+				case Opcodes.LE: top--; stack[top] = stack[top] <= stack[top + 1] ? 1 : 0; break;
+				case Opcodes.GT: top--; stack[top] = stack[top] > stack[top + 1] ? 1 : 0; break;
+				case Opcodes.GE: top--; stack[top] = stack[top] >= stack[top + 1] ? 1 : 0; break;
+				case Opcodes.EQ: top--; stack[top] = stack[top] == stack[top + 1] ? 1 : 0; break;
+				case Opcodes.NE: top--; stack[top] = stack[top] != stack[top + 1] ? 1 : 0; break;
+
+				case Opcodes.MIN: top--; stack[top] = Math.min(stack[top], stack[top + 1]); break;
+				case Opcodes.MAX: top--; stack[top] = Math.max(stack[top], stack[top + 1]); break;
+				case Opcodes.ABS: stack[top] = Math.abs(stack[top]); break;
+
+				case Opcodes.SELECT: top -= 2; stack[top] = stack[top] != 0 ? stack[top + 1] : stack[top + 2]; break;
+
+				case Opcodes.CALL:
+					Call call = program.functions[args[i]];
+
+					if (call.unary != null)
+						stack[top] = call.unary.evaluate(stack[top]);
+					else {
+						double[] arguments = frame.arguments(call.arity);
+
+						top -= call.arity - 1;
+						System.arraycopy(stack, top, arguments, 0, call.arity);
+						stack[top] = call.vector.evaluate(arguments);
+					}
+				break;
+
+				default:
+					throw new ParserException("Unknown error.");
+			}
+		}
+
+		return top;
+	}
+}
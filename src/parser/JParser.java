@@ -1,23 +1,16 @@
 package parser;
 
-import java.util.EmptyStackException;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.Stack;
-
-import lexer.FunctionToken;
-import lexer.IntegerToken;
 import lexer.Lexer;
-import lexer.DecimalToken;
-import lexer.Token;
-import lexer.VariableToken;
 import exceptions.LexerException;
 import exceptions.ParserException;
+import exceptions.ParserException.Kind;
 
+/**
+ * A facade over <code>ExpressionCompiler</code> and <code>CompiledExpression</code> that
+ * holds a single compiled expression and its variables. This class is not thread-safe:
+ * to compile or evaluate from many threads, use <code>ExpressionCompiler</code> directly.
+ */
 public class JParser {
-	Stack<Double> numbers;
-	Stack<Token> operators;
-	
 	/**
 	 * Used to verify if the number isn't to small to perform
 	 * a division. 
@@ -28,10 +21,15 @@ public class JParser {
 	private double epsilon;
 	private double[] variablesVaue;
 	
-	private Queue<Token> compiledExpression;
+	private final ExpressionCompiler compiler;
+	private final EvaluationFrame frame;
+	private CompiledExpression compiledExpression;
 	
 	private JParser() {
 		epsilon = EPSILON;
+		compiler = new ExpressionCompiler(ShuntingYard.getInstance());
+		compiler.setCache(CompileCache.getShared());
+		frame = new EvaluationFrame();
 		//creating a private constructor, so the Singleton pattern can be used
 	}
 	
@@ -89,17 +87,34 @@ public class JParser {
 		Lexer.getInstance().setAcceptVariables(false);
 	}
 
+	/**
+	 * Allows future expressions to call the functions registered in <code>functions</code>, besides
+	 * the built-in ones.
+	 * @param functions The functions, or <code>null</code> to allow only the built-in ones.
+	 */
+	public void setFunctions(FunctionRegistry functions) {
+		compiler.setFunctions(functions);
+	}
+	
+	/**
+	 * @return The functions future expressions can call, or <code>null</code> if there are none.
+	 */
+	public FunctionRegistry getFunctions() {
+		return compiler.getFunctions();
+	}
+
 	/**
 	 * PRE: Call this method BEFORE setting the variable's configuration through the <code>
 	 * setVariable()</code> and <code>setConstantExpression()</code> methods.
 	 * 
 	 * Parses and caches <code>expression</code> so if it has to be evaluated multiple times,
 	 * this can be done just changing the variables's values through <code>setVariable()</code>
-	 * and invoking <code>parse()</code>.
+	 * and invoking <code>parse()</code>. Compiled expressions are kept in <code>CompileCache.getShared()</code>,
+	 * so compiling the same text again with the same configuration doesn't parse it again.
 	 * 
 	 * @param expression The expression to be evaluated. It can contain traditional operations 
-	 * (+,-,*,/,^ - power), functions (sin, cos, tan, asin, acos, atan, sinh, cosh, tanh, ln).
-	 * Parenthesed expressions will be properly evaluated.
+	 * (+,-,*,/,^ - power), functions (sin, cos, tan, asin, acos, atan, sinh, cosh, tanh, ln and
+	 * the ones given to <code>setFunctions()</code>). Parenthesed expressions will be properly evaluated.
 	 *  
 	 * @throws LexerException if the expression contains invalid function names, characters, 
 	 * or invalid variables, which are set through the <code>setVariable()</code> and 
@@ -108,10 +123,8 @@ public class JParser {
 	 * @throws ParserException If the expression is malformed.
 	 */
 	public void compileExpression(String expression) throws LexerException, ParserException {
-		ShuntingYard s = ShuntingYard.getInstance();
-
-		s.convertFromInfixToPosfix(expression);
-		this.compiledExpression = s.getExpression();
+		compiler.setEpsilon(this.epsilon);
+		this.compiledExpression = compiler.compile(expression);
 	}
 	
 	/**
@@ -127,154 +140,93 @@ public class JParser {
 		if (compiledExpression == null)
 			throw new ParserException("There is no compiled expression to evaluate.");
 		
-		Queue<Token> workingStack = new LinkedList<Token>(compiledExpression);
+		//the threshold was changed after compiling, so the expression has to be rebuilt
+		if (compiledExpression.getEpsilon() != this.epsilon)
+			recompile();
 		
-		operators = new Stack<>();
-		numbers = new Stack<>();
+		return compiledExpression.evaluate(frame, variablesVaue);
+	}
+	
+	/**
+	 * PRE: Invoke <code>compileExpression</code> before calling this method.
+	 * Evaluates the compiled expression and its derivative with respect to x (or x[0]) in a
+	 * single pass, which is cheaper and more accurate than evaluating it again at a nearby point.
+	 * 
+	 * @return The value and the derivative of the expression.
+	 * @throws ParserException if the expression is malformed or a illegal mathematical operation
+	 * is performed.
+	 */
+	public DualNumber differentiate() throws ParserException {
+		double[] direction = new double[variablesVaue == null ? 0 : variablesVaue.length];
 		
-		double op1, op2;
+		if (direction.length > 0)
+			direction[0] = 1;
 		
-		while (!workingStack.isEmpty()) {
-			Token element = workingStack.poll();
-			
-			switch (element.getType()) {
-				case NUM: 
-					if (element instanceof DecimalToken)
-						numbers.push(((DecimalToken)element).getValue());
-					else // can only be a IntegerToken
-						numbers.push((double) ((IntegerToken)element).getValue());
-						
-				break;
-				
-				case VAR:
-					int index = ((VariableToken)element).getIndex();
-					try {
-						numbers.push(variablesVaue[index]);
-					}
-					catch(Exception e) {
-						throw new ParserException("Variable x["+index+"] is not set. Did you change the variables"
-								+ "array to a smaller one?");
-					}
-				break;
-					
-				
-				case ADD:
-					numbers.push(tryPop() + tryPop());
-				break;
-					
-				//subtraction it is not commutative
-				case SUB:
-					op1 = tryPop();
-					op2 = tryPop();
-					numbers.push(op2 - op1);
-				break;
-					
-				case MUL:
-					numbers.push(tryPop() * tryPop());
-				break;
-					
-				case DIV:
-					op1 = tryPop();
-					op2 = tryPop();
-					
-					if (Math.abs(op1) < this.epsilon)
-						throw new ParserException("Attempt to divide by zero.");
-					
-					numbers.push(op2 / op1);
-				break;
-				
-				case POS:
-					//do nothing and avoid an exception 
-				break;
-				
-				case NEG: 
-					numbers.push(-tryPop()); 
-				break;
-				
-				case POW:
-					op1 = tryPop();
-					op2 = tryPop();
-					
-					if (Math.abs(op1) < this.epsilon && Math.abs(op2) < this.epsilon)
-						throw new ParserException("Attempt to evaluate 0^0.");
-					
-					numbers.push(Math.pow(op2, op1));
-				break;
+		return differentiate(direction);
+	}
 	
-				case FUN:
-					FunctionToken token = (FunctionToken)element;
-					
-					switch (token.getFunctionID()) {
-						case sin: numbers.push(Math.sin(tryPop())); break;
-						case cos: numbers.push(Math.cos(tryPop())); break;
-						case tan: numbers.push(Math.tan(tryPop())); break;
-						
-						case sec: 
-							op1 = Math.cos(tryPop());
-							
-							if (Math.abs(op1) < this.epsilon)
-								throw new ParserException("Attemp to divide by zero while calculating sec(x).");
-							numbers.push(1 / op1); 
-						break;
-						
-						case csc:
-							op1 = Math.sin(tryPop());
-							
-							if (Math.abs(op1) < this.epsilon)
-								throw new ParserException("Attemp to divide by zero while calculating csc(x).");
-							numbers.push(1 / op1);
-						break;
-						
-						case ctg:
-							op1 = Math.tan(tryPop());
-							
-							if (Math.abs(op1) < this.epsilon)
-								throw new ParserException("Attemp to divide by zero while calculating ctg(x).");
-							numbers.push(1 / op1);
-						break;
-						
-						case sinh: numbers.push(Math.sinh(tryPop())); break;
-						case cosh: numbers.push(Math.cosh(tryPop())); break;
-						case tanh: numbers.push(Math.tanh(tryPop())); break;
-						
-						case asin: numbers.push(Math.asin(tryPop())); break;
-						case acos: numbers.push(Math.acos(tryPop())); break;
-						case atan: numbers.push(Math.atan(tryPop())); break;
-						
-						case ln:
-							op1 = tryPop();
-							if (op1 < this.epsilon)
-								throw new ParserException("Attemp to calculate ln(0).");
-							
-							numbers.push(Math.log(op1)); 
-						break;
-					}
-				break;
-					
-				case COM: 
-					throw new ParserException("Commas are not allowed. Use '.' as decimal separator."); 
-					
-				default: 
-					throw new ParserException("Unknown error.");
-			}
-		}
+	/**
+	 * PRE: Invoke <code>compileExpression</code> before calling this method.
+	 * Evaluates the compiled expression and its derivative along <code>direction</code>
+	 * in a single pass.
+	 * 
+	 * @param direction The direction of the derivative, with one element per variable.
+	 * @return The value and the derivative of the expression.
+	 * @throws ParserException if the expression is malformed or a illegal mathematical operation
+	 * is performed.
+	 */
+	public DualNumber differentiate(double[] direction) throws ParserException {
+		if (compiledExpression == null)
+			throw new ParserException("There is no compiled expression to evaluate.");
+		
+		if (compiledExpression.getEpsilon() != this.epsilon)
+			recompile();
+		
+		return compiledExpression.differentiate(frame, variablesVaue, direction, new DualNumber());
+	}
 	
-		return tryPop();
+	/**
+	 * PRE: Invoke <code>compileExpression</code> before calling this method.
+	 * Evaluates the compiled expression and its partial derivatives with respect to every variable.
+	 * 
+	 * @param gradient Receives the partial derivative with respect to x[i] (or x) at index i.
+	 * @return The value which this expression corresponds to.
+	 * @throws ParserException if the expression is malformed or a illegal mathematical operation
+	 * is performed.
+	 */
+	public double gradient(double[] gradient) throws ParserException {
+		if (compiledExpression == null)
+			throw new ParserException("There is no compiled expression to evaluate.");
+		
+		if (compiledExpression.getEpsilon() != this.epsilon)
+			recompile();
+		
+		return compiledExpression.gradient(frame, variablesVaue, gradient);
 	}
 	
-	/* Tries to pop an element from the stack (because it may be empty). In this case
-	 * swap the EmptyStackException by a ParserException */
-	private double tryPop() throws ParserException {
-		Double toReturn = null;
+	/**
+	 * @return The last compiled expression, which is immutable and can be evaluated 
+	 * concurrently without this facade, or <code>null</code> if no expression was compiled.
+	 */
+	public CompiledExpression getCompiledExpression() {
+		return this.compiledExpression;
+	}
+	
+	/* Compiles the current expression again, with the same variables configuration */
+	private void recompile() throws ParserException {
+		ExpressionCompiler recompiler = new ExpressionCompiler();
+		
+		recompiler.setMaxDimension(compiledExpression.getMaxDimension());
+		recompiler.setEpsilon(this.epsilon);
+		recompiler.setFunctions(compiler.getFunctions());
 		
 		try {
-			toReturn = numbers.pop();
+			compiledExpression = recompiler.compile(compiledExpression.getSource());
 		}
-		catch (EmptyStackException e) {
-			throw new ParserException("Malformed expression.");
+		catch (LexerException e) {
+			//the same text was already accepted by the lexer with this configuration
+			throw new ParserException(e.getMessage(), Kind.MALFORMED);
 		}
-
-		return toReturn;
 	}
 	
 	/**
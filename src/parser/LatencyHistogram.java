@@ -0,0 +1,95 @@
+package parser;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how long an operation took, in nanoseconds. Durations are kept in buckets whose
+ * bounds are powers of two, so percentiles are accurate within a factor of two, but
+ * recording is a couple of atomic increments and the memory used is fixed.
+ *
+ * Histograms are updated concurrently by every thread, so their values are only consistent
+ * with each other when nothing is being recorded.
+ */
+public final class LatencyHistogram {
+	private static final int BUCKETS = 64;
+
+	/* Bucket i counts the durations d with 2^(i-1) <= d < 2^i, and bucket 0 those of 0ns */
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+
+	LatencyHistogram() { }
+
+	void record(long nanos) {
+		nanos = Math.max(0, nanos);
+
+		buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+		count.increment();
+		total.add(nanos);
+	}
+
+	void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			buckets.set(i, 0);
+
+		count.reset();
+		total.reset();
+	}
+
+	/**
+	 * @return How many durations were recorded.
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return The sum of every duration recorded, in nanoseconds.
+	 */
+	public long getTotalNanos() {
+		return total.sum();
+	}
+
+	/**
+	 * @return The mean duration, in nanoseconds, or 0 if none was recorded.
+	 */
+	public double getMeanNanos() {
+		long count = getCount();
+		return count == 0 ? 0 : getTotalNanos() / (double) count;
+	}
+
+	/**
+	 * @param quantile The fraction of durations, between 0 and 1, that should be shorter than
+	 * the returned one, such as 0.99 for the 99th percentile.
+	 * @return An upper bound for the duration at <code>quantile</code>, in nanoseconds, which is
+	 * at most twice the actual one, or 0 if nothing was recorded.
+	 */
+	public long getPercentileNanos(double quantile) {
+		if (quantile < 0 || quantile > 1)
+			throw new IllegalArgumentException("The quantile must be between 0 and 1.");
+
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+
+		for (int i = 0; i < BUCKETS; i++)
+			count += counts[i] = buckets.get(i);
+
+		long rank = (long) Math.ceil(quantile * count);
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+
+			if (seen >= rank && counts[i] > 0)
+				return i == 0 ? 0 : i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+		}
+
+		return 0;
+	}
+
+	public String toString() {
+		return "count=" + getCount() + " mean=" + Math.round(getMeanNanos()) + "ns p50<=" + getPercentileNanos(0.5)
+				+ "ns p99<=" + getPercentileNanos(0.99) + "ns";
+	}
+}
@@ -0,0 +1,247 @@
+package parser;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import exceptions.ParserException;
+
+/**
+ * Evaluates an expression for every row of a file, writing one result per row into another
+ * file. Both files hold little-endian doubles: the input has one value per variable in each
+ * row, the output one value per row.
+ *
+ * The files are memory-mapped one chunk of rows at a time and the rows are read in place,
+ * gathered a block at a time into the columns of the evaluating thread's frame. The heap
+ * only holds those blocks, however large the files are. Chunks are independent, so they
+ * can be split across the threads of a <code>ForkJoinPool</code>.
+ *
+ * Each chunk's mappings are released as soon as its rows are evaluated, so each thread maps a
+ * single chunk of each file at a time. This relies on <code>sun.misc.Unsafe.invokeCleaner()</code>,
+ * available since Java 9. Older JVMs unmap the chunks only when their buffers are collected,
+ * so the mappings may pile up until then, and on Windows the files stay locked until they are.
+ */
+final class MappedBatch extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	/** The size of the input mapped at once, small enough to be split across many threads */
+	private static final long CHUNK_BYTES = 1 << 22;
+
+	//Unsafe.invokeCleaner() and the Unsafe instance, or null if this JVM has no way to unmap
+	private static final Method UNMAP;
+	private static final Object UNSAFE;
+
+	static {
+		Method unmap = null;
+		Object unsafe = null;
+
+		try {
+			Class<?> type = Class.forName("sun.misc.Unsafe");
+			Field field = type.getDeclaredField("theUnsafe");
+
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			unmap = type.getMethod("invokeCleaner", ByteBuffer.class);
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			//Java 8, or a restricted JVM: the chunks are unmapped when they are collected
+			unmap = null;
+			unsafe = null;
+		}
+
+		UNMAP = unmap;
+		UNSAFE = unsafe;
+	}
+
+	private final CompiledExpression expression;
+	private final FileChannel input;
+	private final FileChannel output;
+	private final int width;
+	private final long rows;
+	private final int chunkRows;
+	private final long from;
+	private final long to;
+
+	private MappedBatch(CompiledExpression expression, FileChannel input, FileChannel output, int width, long rows,
+			int chunkRows, long from, long to) {
+		this.expression = expression;
+		this.input = input;
+		this.output = output;
+		this.width = width;
+		this.rows = rows;
+		this.chunkRows = chunkRows;
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * Evaluates <code>expression</code> for every row of <code>input</code>, using the threads
+	 * of <code>pool</code>, or the calling thread if it is <code>null</code>.
+	 * @return The amount of rows evaluated.
+	 */
+	static long run(ForkJoinPool pool, CompiledExpression expression, Path input, Path output)
+			throws IOException, ParserException {
+		int width = Math.max(1, expression.getMaxDimension());
+		long rowBytes = 8L * width;
+
+		try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+				RandomAccessFile out = new RandomAccessFile(output.toFile(), "rw")) {
+			long size = in.size();
+
+			if (size % rowBytes != 0)
+				throw new IOException("The size of " + input + " is not a multiple of the row size, " + rowBytes
+						+ " bytes.");
+
+			long rows = size / rowBytes;
+			int chunkRows = chunkRows(rowBytes);
+			long chunks = (rows + chunkRows - 1) / chunkRows;
+
+			//sized upfront, so threads never map past the end of the file
+			out.setLength(8 * rows);
+			MappedBatch task = new MappedBatch(expression, in, out.getChannel(), width, rows, chunkRows, 0, chunks);
+
+			if (pool == null || chunks <= 1) {
+				for (long chunk = 0; chunk < chunks; chunk++)
+					task.evaluate(chunk, CompiledExpression.frame());
+
+				return rows;
+			}
+
+			try {
+				pool.invoke(task);
+			}
+			catch (RuntimeException e) {
+				//the pool may rethrow a copy of the exception thrown by a task, with the original as cause
+				for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+					if (cause instanceof ParserException)
+						throw (ParserException) cause;
+
+					if (cause instanceof IOException)
+						throw (IOException) cause;
+				}
+
+				throw e;
+			}
+
+			return rows;
+		}
+	}
+
+	/* The amount of rows mapped at once: whole blocks, unless a single block is already too large */
+	private static int chunkRows(long rowBytes) {
+		long rows = Math.max(1, CHUNK_BYTES / rowBytes);
+
+		if (rows >= BatchEvaluator.BLOCK_SIZE)
+			rows -= rows % BatchEvaluator.BLOCK_SIZE;
+
+		return (int) rows;
+	}
+
+	@Override
+	protected void compute() {
+		if (to - from > 1) {
+			long middle = from + (to - from) / 2;
+
+			invokeAll(new MappedBatch(expression, input, output, width, rows, chunkRows, from, middle),
+					new MappedBatch(expression, input, output, width, rows, chunkRows, middle, to));
+			return;
+		}
+
+		try {
+			evaluate(from, CompiledExpression.frame());
+		}
+		catch (ParserException e) {
+			throw new Failure(e);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/* Maps a chunk of both files and evaluates its rows, one block at a time */
+	private void evaluate(long chunk, EvaluationFrame frame) throws IOException, ParserException {
+		long first = chunk * chunkRows;
+		int n = (int) Math.min(chunkRows, rows - first);
+		Metrics.Probe probe = null;
+
+		MappedByteBuffer mappedInput = input.map(MapMode.READ_ONLY, 8L * width * first, 8L * width * n);
+		MappedByteBuffer mappedOutput = null;
+
+		try {
+			mappedOutput = output.map(MapMode.READ_WRITE, 8L * first, 8L * n);
+
+			//each chunk is measured as a batch of its own, as each range of evaluateParallel() is
+			probe = Metrics.enabled ? Metrics.evaluating() : null;
+			evaluate(mappedInput.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer(),
+					mappedOutput.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer(), n, frame);
+		}
+		catch (ParserException e) {
+			if (probe != null)
+				probe.failed(e);
+			throw e;
+		}
+		finally {
+			if (probe != null)
+				probe.evaluated(expression, n);
+
+			//the views above are dropped with the chunk, so nothing reads the mappings anymore
+			unmap(mappedInput);
+			unmap(mappedOutput);
+		}
+	}
+
+	/* Evaluates the n rows of values, one block at a time, into results */
+	private void evaluate(DoubleBuffer values, DoubleBuffer results, int n, EvaluationFrame frame)
+			throws ParserException {
+		Program program = expression.getProgram();
+		int required = program.requiredVariables;
+		double[][] columns = frame.inputs(required);
+		double[] block = frame.results();
+
+		for (int start = 0; start < n; start += BatchEvaluator.BLOCK_SIZE) {
+			int count = Math.min(BatchEvaluator.BLOCK_SIZE, n - start);
+
+			//only the variables the expression uses are read, the rest of the row is skipped
+			for (int r = 0, offset = start * width; r < count; r++, offset += width)
+				for (int i = 0; i < required; i++)
+					columns[i][r] = values.get(offset + i);
+
+			BatchEvaluator.run(program, expression.getEpsilon(), columns, block, 0, count, frame);
+			results.put(block, 0, count);
+		}
+	}
+
+	/* Releases a mapping at once, where the JVM allows it, instead of when it is collected */
+	private static void unmap(MappedByteBuffer buffer) {
+		if (buffer == null || UNMAP == null)
+			return;
+
+		try {
+			UNMAP.invoke(UNSAFE, buffer);
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			//left to the collector
+		}
+	}
+
+	/* Carries a ParserException out of a task, which can't throw checked exceptions */
+	private static final class Failure extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Failure(ParserException cause) {
+			super(cause);
+		}
+	}
+}
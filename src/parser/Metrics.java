@@ -0,0 +1,230 @@
+package parser;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import exceptions.LexerException;
+import exceptions.ParserException;
+
+/**
+ * Counters and latency histograms of the compilation and evaluation of every expression,
+ * shared by the whole JVM. The same measurements are emitted as JDK Flight Recorder events,
+ * named <code>jparser.Compilation</code> and <code>jparser.Evaluation</code>, when the running
+ * JVM has a flight recorder recording them.
+ *
+ * Metrics are disabled by default, and then cost a single field read per compilation or
+ * evaluation. Once enabled, each one also reads the clock twice and updates a few counters.
+ * Single evaluations, batches and the tasks of parallel evaluations are measured, while
+ * derivatives and incremental evaluations are not.
+ */
+public final class Metrics {
+	/** The measured phases */
+	public enum Stage {
+		/** Splitting the text into tokens */
+		LEXING,
+		/** Converting the tokens into RPN, including lexing */
+		SHUNTING_YARD,
+		/** The whole <code>compile()</code>, including the previous stages and optimizations */
+		COMPILATION,
+		/** A single evaluation or a batch */
+		EVALUATION
+	}
+
+	/** Why a compilation or evaluation threw */
+	public enum Failure {
+		DIVISION_BY_ZERO,
+		ZERO_TO_THE_ZERO,
+		LOGARITHM_DOMAIN,
+		/** An expression which couldn't be compiled, or variables not set */
+		MALFORMED,
+		OTHER
+	}
+
+	/** How many different expressions have their own statistics, so memory stays bounded */
+	static final int MAX_EXPRESSIONS = 1024;
+
+	static volatile boolean enabled;
+
+	private static final Map<Stage, LatencyHistogram> LATENCIES = new EnumMap<>(Stage.class);
+	private static final Map<Failure, LongAdder> FAILURES = new EnumMap<>(Failure.class);
+	private static final Map<String, ExpressionStatistics> EXPRESSIONS = new ConcurrentHashMap<>();
+
+	private static final FlightRecorderEvent COMPILATION_EVENT = new FlightRecorderEvent("jparser.Compilation",
+			"Expression Compilation", new String[] {"expression", "instructions", "failure"},
+			new Class<?>[] {String.class, int.class, String.class});
+	private static final FlightRecorderEvent EVALUATION_EVENT = new FlightRecorderEvent("jparser.Evaluation",
+			"Expression Evaluation", new String[] {"expression", "rows", "failure"},
+			new Class<?>[] {String.class, long.class, String.class});
+
+	static {
+		for (Stage stage : Stage.values())
+			LATENCIES.put(stage, new LatencyHistogram());
+
+		for (Failure failure : Failure.values())
+			FAILURES.put(failure, new LongAdder());
+	}
+
+	private Metrics() { }
+
+	/**
+	 * Starts or stops measuring. Measurements taken so far are kept.
+	 */
+	public static void setEnabled(boolean enabled) {
+		Metrics.enabled = enabled;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Discards every measurement taken so far.
+	 */
+	public static void reset() {
+		for (LatencyHistogram histogram : LATENCIES.values())
+			histogram.reset();
+
+		for (LongAdder count : FAILURES.values())
+			count.reset();
+
+		EXPRESSIONS.clear();
+	}
+
+	/**
+	 * @return The durations of <code>stage</code>. Its count is how many times it ran.
+	 */
+	public static LatencyHistogram getLatency(Stage stage) {
+		return LATENCIES.get(stage);
+	}
+
+	/**
+	 * @return How many compilations and evaluations threw because of <code>failure</code>, plus
+	 * how many times the rows of evaluations without exceptions failed the same checks (see
+	 * <code>EvaluationFlags</code>), once per check failed by each row.
+	 */
+	public static long getFailures(Failure failure) {
+		return FAILURES.get(failure).sum();
+	}
+
+	/**
+	 * @return The statistics of each evaluated expression, by its text. Only the first
+	 * <code>MAX_EXPRESSIONS</code> different texts are kept.
+	 */
+	public static Map<String, ExpressionStatistics> getExpressionStatistics() {
+		return Collections.unmodifiableMap(EXPRESSIONS);
+	}
+
+	/**
+	 * @return Whether the running JVM has a flight recorder the events can be emitted to.
+	 */
+	public static boolean isFlightRecorderAvailable() {
+		return EVALUATION_EVENT.isAvailable();
+	}
+
+	/* Records a stage that started at the given nanoTime() */
+	static void record(Stage stage, long start) {
+		LATENCIES.get(stage).record(System.nanoTime() - start);
+	}
+
+	/* Starts measuring a compilation */
+	static Probe compiling() {
+		return new Probe(Stage.COMPILATION, COMPILATION_EVENT.begin());
+	}
+
+	/* Starts measuring an evaluation */
+	static Probe evaluating() {
+		return new Probe(Stage.EVALUATION, EVALUATION_EVENT.begin());
+	}
+
+	/* The failure of an exception, by the kind its throw site gave it */
+	static Failure cause(Exception e) {
+		if (e instanceof LexerException)
+			return Failure.MALFORMED;
+		if (!(e instanceof ParserException))
+			return Failure.OTHER;
+
+		switch (((ParserException) e).getKind()) {
+			case DIVISION_BY_ZERO: return Failure.DIVISION_BY_ZERO;
+			case ZERO_TO_THE_ZERO: return Failure.ZERO_TO_THE_ZERO;
+			case LOGARITHM_DOMAIN: return Failure.LOGARITHM_DOMAIN;
+			case MALFORMED: return Failure.MALFORMED;
+			default: return Failure.OTHER;
+		}
+	}
+
+	/* The failure a flag of EvaluationFlags stands for */
+	private static Failure cause(int flag) {
+		switch (flag) {
+			case EvaluationFlags.DIVISION_BY_ZERO:
+			case EvaluationFlags.TRIGONOMETRIC_POLE:
+				return Failure.DIVISION_BY_ZERO;
+			case EvaluationFlags.ZERO_TO_THE_ZERO: return Failure.ZERO_TO_THE_ZERO;
+			case EvaluationFlags.LOGARITHM_OF_ZERO: return Failure.LOGARITHM_DOMAIN;
+			default: return Failure.OTHER;
+		}
+	}
+
+	/**
+	 * A compilation or evaluation being measured. Probes are only created while metrics are
+	 * enabled, so disabled metrics allocate nothing.
+	 */
+	static final class Probe {
+		private final Stage stage;
+		private final long start;
+		private final Object event;
+		private Failure failure;
+
+		private Probe(Stage stage, Object event) {
+			this.stage = stage;
+			this.event = event;
+			this.start = System.nanoTime();
+		}
+
+		void failed(Exception e) {
+			failure = cause(e);
+			FAILURES.get(failure).increment();
+		}
+
+		/* Counts each check failed by the rows [from, to[ of an evaluation without exceptions */
+		void flagged(byte[] flags, int from, int to) {
+			for (int i = from; i < to; i++)
+				for (int flag = 1; flag <= EvaluationFlags.FUNCTION_FAILED; flag <<= 1)
+					if ((flags[i] & flag) != 0)
+						FAILURES.get(cause(flag)).increment();
+		}
+
+		/* Ends a compilation, whose result is null if it failed */
+		void compiled(String expression, CompiledExpression result) {
+			LATENCIES.get(stage).record(System.nanoTime() - start);
+
+			if (event != null)
+				COMPILATION_EVENT.commit(event, expression, result == null ? 0 : result.getInstructionCount(),
+						failure == null ? null : failure.name());
+		}
+
+		/* Ends the evaluation of rows of expression */
+		void evaluated(CompiledExpression expression, long rows) {
+			long nanos = System.nanoTime() - start;
+			String source = expression.getSource();
+			ExpressionStatistics statistics = EXPRESSIONS.get(source);
+
+			LATENCIES.get(stage).record(nanos);
+
+			if (statistics == null && EXPRESSIONS.size() < MAX_EXPRESSIONS) {
+				ExpressionStatistics created = new ExpressionStatistics();
+				statistics = EXPRESSIONS.putIfAbsent(source, created);
+				if (statistics == null)
+					statistics = created;
+			}
+
+			if (statistics != null)
+				statistics.record(rows, expression.getInstructionCount(), nanos, failure != null);
+
+			if (event != null)
+				EVALUATION_EVENT.commit(event, source, rows, failure == null ? null : failure.name());
+		}
+	}
+}
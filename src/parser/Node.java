@@ -0,0 +1,131 @@
+package parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A node of the expression tree the optimization passes work on, built from the RPN
+ * produced by <code>ShuntingYard</code> and lowered afterwards into a <code>Program</code>.
+ * Nodes are immutable: passes return new trees instead of changing the given one.
+ */
+final class Node {
+	private static final Node[] LEAF = new Node[0];
+
+	/** One of the <code>Opcodes</code> */
+	final int op;
+
+	/** The variable index for <code>VAR</code> nodes, unused otherwise */
+	final int arg;
+
+	/** The value of <code>CONST</code> nodes, unused otherwise */
+	final double value;
+
+	/** The function called by <code>CALL</code> nodes, <code>null</code> otherwise */
+	final Call function;
+
+	final Node[] children;
+
+	private Node(int op, int arg, double value, Call function, Node[] children) {
+		this.op = op;
+		this.arg = arg;
+		this.value = value;
+		this.function = function;
+		this.children = children;
+	}
+
+	static Node constant(double value) {
+		return new Node(Opcodes.CONST, 0, value, null, LEAF);
+	}
+
+	static Node variable(int index) {
+		return new Node(Opcodes.VAR, index, 0, null, LEAF);
+	}
+
+	static Node operation(int op, Node... children) {
+		return new Node(op, 0, 0, null, children);
+	}
+
+	static Node call(Call function, Node... children) {
+		return new Node(Opcodes.CALL, 0, 0, function, children);
+	}
+
+	boolean isConstant() {
+		return op == Opcodes.CONST;
+	}
+
+	/**
+	 * @return <code>true</code> if this is a constant equals to <code>value</code>.
+	 */
+	boolean isConstant(double value) {
+		return op == Opcodes.CONST && this.value == value;
+	}
+
+	Node child(int i) {
+		return children[i];
+	}
+
+	/**
+	 * @return A node like this one, but with <code>children</code> as children.
+	 */
+	Node withChildren(Node[] children) {
+		return new Node(op, arg, value, function, children);
+	}
+
+	/**
+	 * Lists the nodes reachable from <code>root</code> so that every node comes after its
+	 * children, visiting nodes shared by many parents only once. The traversal doesn't recurse,
+	 * so the very deep trees of long machine-generated expressions are supported.
+	 */
+	static List<Node> postOrder(Node root) {
+		List<Node> order = new ArrayList<>();
+		Set<Node> visited = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+		Deque<Node> pending = new ArrayDeque<>();
+		Deque<Integer> nextChild = new ArrayDeque<>();
+
+		pending.push(root);
+		nextChild.push(0);
+		visited.add(root);
+
+		while (!pending.isEmpty()) {
+			Node node = pending.peek();
+			int i = nextChild.pop();
+
+			//skip the children already listed through another parent
+			while (i < node.children.length && visited.contains(node.children[i]))
+				i++;
+
+			if (i == node.children.length) {
+				pending.pop();
+				order.add(node);
+			}
+			else {
+				nextChild.push(i + 1);
+				pending.push(node.children[i]);
+				nextChild.push(0);
+				visited.add(node.children[i]);
+			}
+		}
+
+		return order;
+	}
+
+	public String toString() {
+		if (op == Opcodes.CONST)
+			return String.valueOf(value);
+		if (op == Opcodes.VAR)
+			return "VAR_" + arg;
+
+		String name = op == Opcodes.CALL ? function.name : Opcodes.name(op);
+		StringBuilder buffer = new StringBuilder(name).append('(');
+
+		for (int i = 0; i < children.length; i++)
+			buffer.append(i > 0 ? ", " : "").append(children[i]);
+
+		return buffer.append(')').toString();
+	}
+}
@@ -0,0 +1,175 @@
+package parser;
+
+import lexer.FunctionToken.FunctionID;
+
+/**
+ * Instructions of the flat program a <code>CompiledExpression</code> is lowered to.
+ * Each instruction is an opcode and an integer argument, which is an index into the
+ * constant pool for <code>CONST</code>, a variable index for <code>VAR</code>, a temporary
+ * slot for <code>LOAD</code> and <code>STORE</code>, an index into the program's functions
+ * for <code>CALL</code> and unused otherwise.
+ */
+final class Opcodes {
+	static final int CONST = 0;
+	static final int VAR = 1;
+
+	static final int ADD = 2;
+	static final int SUB = 3;
+	static final int MUL = 4;
+	static final int DIV = 5;
+	static final int POW = 6;
+	static final int NEG = 7;
+
+	static final int SIN = 8;
+	static final int COS = 9;
+	static final int TAN = 10;
+	static final int SEC = 11;
+	static final int CSC = 12;
+	static final int CTG = 13;
+	static final int ASIN = 14;
+	static final int ACOS = 15;
+	static final int ATAN = 16;
+	static final int SINH = 17;
+	static final int COSH = 18;
+	static final int TANH = 19;
+	static final int LN = 20;
+
+	/** Pushes the temporary slot given by the argument */
+	static final int LOAD = 21;
+	/** Copies the top of the stack into the temporary slot given by the argument, without popping it */
+	static final int STORE = 22;
+
+	/** Calls the registered function given by the argument, which pops as many operands as its arity */
+	static final int CALL = 23;
+
+	/** The square root, which <code>POW</code> is reduced to for the exponent 0.5 */
+	static final int SQRT = 24;
+
+	/** Comparisons, which push 1 when they hold and 0 otherwise, even for NaN operands */
+	static final int LT = 25;
+	static final int LE = 26;
+	static final int GT = 27;
+	static final int GE = 28;
+	static final int EQ = 29;
+	static final int NE = 30;
+
+	static final int MIN = 31;
+	static final int MAX = 32;
+	static final int ABS = 33;
+
+	/** Pops c, a and b, pushing a if c isn't 0 and b otherwise. Both are computed, but only the chosen one may fail */
+	static final int SELECT = 34;
+
+	private static final String[] NAMES = {"CONST", "VAR", "ADD", "SUB", "MUL", "DIV", "POW", "NEG",
+		"SIN", "COS", "TAN", "SEC", "CSC", "CTG", "ASIN", "ACOS", "ATAN", "SINH", "COSH", "TANH", "LN",
+		"LOAD", "STORE", "CALL", "SQRT", "LT", "LE", "GT", "GE", "EQ", "NE", "MIN", "MAX", "ABS", "SELECT"};
+
+	private Opcodes() { }
+
+	/**
+	 * @return The opcode that evaluates the built-in function <code>fID</code>.
+	 */
+	static int forFunction(FunctionID fID) {
+		switch (fID) {
+			case sin: return SIN;
+			case cos: return COS;
+			case tan: return TAN;
+			case sec: return SEC;
+			case csc: return CSC;
+			case ctg: return CTG;
+			case asin: return ASIN;
+			case acos: return ACOS;
+			case atan: return ATAN;
+			case sinh: return SINH;
+			case cosh: return COSH;
+			case tanh: return TANH;
+			case ln: return LN;
+			case abs: return ABS;
+			case min: return MIN;
+			case max: return MAX;
+			case IF: return SELECT;
+		}
+
+		throw new IllegalArgumentException("Unknown function " + fID + ".");
+	}
+
+	/**
+	 * @return How many operands the instruction pops from the stack. All instructions push
+	 * exactly one value. <code>CALL</code> is not covered, since it depends on the function.
+	 */
+	static int operands(int opcode) {
+		switch (opcode) {
+			case CONST:
+			case VAR:
+			case LOAD:
+				return 0;
+
+			case ADD:
+			case SUB:
+			case MUL:
+			case DIV:
+			case POW:
+			case LT:
+			case LE:
+			case GT:
+			case GE:
+			case EQ:
+			case NE:
+			case MIN:
+			case MAX:
+				return 2;
+
+			case SELECT:
+				return 3;
+
+			default:
+				return 1;
+		}
+	}
+
+	/**
+	 * @return A rough estimate of how long the instruction takes, relative to an addition.
+	 */
+	static int cost(int opcode) {
+		switch (opcode) {
+			case CONST:
+			case VAR:
+			case LOAD:
+			case STORE:
+			case ADD:
+			case SUB:
+			case MUL:
+			case NEG:
+			case LT:
+			case LE:
+			case GT:
+			case GE:
+			case EQ:
+			case NE:
+			case MIN:
+			case MAX:
+			case ABS:
+			case SELECT:
+				return 1;
+
+			case DIV:
+			case SQRT:
+				return 4;
+
+			default:
+				//pow, the trigonometric functions, ln and registered functions are computed in software
+				return 20;
+		}
+	}
+
+	/**
+	 * @return How many opcodes there are, which are numbered from 0.
+	 */
+	static int count() {
+		return NAMES.length;
+	}
+
+	static String name(int opcode) {
+		return NAMES[opcode];
+	}
+}
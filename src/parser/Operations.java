@@ -0,0 +1,113 @@
+package parser;
+
+import exceptions.ParserException;
+import exceptions.ParserException.Kind;
+
+/**
+ * The operations that may fail, shared by every evaluation backend so they all raise
+ * the same <code>ParserException</code> conditions. Each method compares its operands
+ * to <code>epsilon</code> before operating. The comparisons and <code>select()</code>, which
+ * have no JVM instruction of their own, are here as well.
+ * 
+ * This class is public only because the classes generated by <code>BytecodeCompiler</code>
+ * are defined in their own class loaders and call these methods directly.
+ */
+public final class Operations {
+	private Operations() { }
+
+	public static double div(double dividend, double divisor, double epsilon) throws ParserException {
+		if (Math.abs(divisor) < epsilon)
+			throw new ParserException("Attempt to divide by zero.", Kind.DIVISION_BY_ZERO);
+
+		return dividend / divisor;
+	}
+
+	public static double pow(double base, double exponent, double epsilon) throws ParserException {
+		if (Math.abs(exponent) < epsilon && Math.abs(base) < epsilon)
+			throw new ParserException("Attempt to evaluate 0^0.", Kind.ZERO_TO_THE_ZERO);
+
+		return Math.pow(base, exponent);
+	}
+
+	public static double sec(double x, double epsilon) throws ParserException {
+		double cos = Math.cos(x);
+
+		if (Math.abs(cos) < epsilon)
+			throw new ParserException("Attemp to divide by zero while calculating sec(x).", Kind.DIVISION_BY_ZERO);
+		return 1 / cos;
+	}
+
+	public static double csc(double x, double epsilon) throws ParserException {
+		double sin = Math.sin(x);
+
+		if (Math.abs(sin) < epsilon)
+			throw new ParserException("Attemp to divide by zero while calculating csc(x).", Kind.DIVISION_BY_ZERO);
+		return 1 / sin;
+	}
+
+	public static double ctg(double x, double epsilon) throws ParserException {
+		double tan = Math.tan(x);
+
+		if (Math.abs(tan) < epsilon)
+			throw new ParserException("Attemp to divide by zero while calculating ctg(x).", Kind.DIVISION_BY_ZERO);
+		return 1 / tan;
+	}
+
+	public static double ln(double x, double epsilon) throws ParserException {
+		if (x < epsilon)
+			throw new ParserException("Attemp to calculate ln(0).", Kind.LOGARITHM_DOMAIN);
+
+		return Math.log(x);
+	}
+
+	public static double less(double a, double b) {
+		return a < b ? 1 : 0;
+	}
+
+	public static double lessOrEqual(double a, double b) {
+		return a <= b ? 1 : 0;
+	}
+
+	public static double greater(double a, double b) {
+		return a > b ? 1 : 0;
+	}
+
+	public static double greaterOrEqual(double a, double b) {
+		return a >= b ? 1 : 0;
+	}
+
+	public static double equal(double a, double b) {
+		return a == b ? 1 : 0;
+	}
+
+	public static double notEqual(double a, double b) {
+		return a != b ? 1 : 0;
+	}
+
+	/**
+	 * @return <code>a</code> if <code>condition</code> isn't 0, <code>b</code> otherwise. Simple
+	 * enough for the JIT to compile into a conditional move instead of a branch.
+	 */
+	public static double select(double condition, double a, double b) {
+		return condition != 0 ? a : b;
+	}
+
+	/**
+	 * Verifies that every variable used by an expression is set.
+	 * @param variables The variables's values.
+	 * @param required The largest variable index used by the expression plus one.
+	 */
+	public static void checkVariables(double[] variables, int required) throws ParserException {
+		if (required > 0 && (variables == null || variables.length < required))
+			throw new ParserException("Variable x["+(required - 1)+"] is not set. Did you change the variables"
+					+ "array to a smaller one?", Kind.MALFORMED);
+	}
+
+	/**
+	 * @return The array the calling thread passes the arguments of registered functions of
+	 * <code>arity</code> arguments in.
+	 */
+	public static double[] arguments(int arity) {
+		return CompiledExpression.frame().arguments(arity);
+	}
+}
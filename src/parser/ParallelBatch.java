@@ -0,0 +1,117 @@
+package parser;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import exceptions.ParserException;
+
+/**
+ * Splits a batch evaluation across the threads of a <code>ForkJoinPool</code>. Each task
+ * evaluates its rows with <code>CompiledExpression.evaluateBatch()</code> on a frame of the
+ * worker thread running it, writing into its own range of the shared output array.
+ * 
+ * Tasks are only split while they have enough work to pay for the scheduling overhead,
+ * which depends on how expensive the expression is: cheap expressions are split into
+ * fewer, larger tasks.
+ */
+final class ParallelBatch extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	/** The minimum estimated work of a task, in additions, so splitting pays off */
+	private static final long MIN_TASK_WORK = 1 << 16;
+
+	/** How many tasks per thread, at most, so threads that finish early can steal work */
+	private static final int TASKS_PER_THREAD = 8;
+
+	private final CompiledExpression expression;
+	private final double[][] columns;
+	private final double[] out;
+	private final byte[] flags;
+	private final int from;
+	private final int to;
+	private final int threshold;
+
+	private ParallelBatch(CompiledExpression expression, double[][] columns, double[] out, byte[] flags, int from,
+			int to, int threshold) {
+		this.expression = expression;
+		this.columns = columns;
+		this.out = out;
+		this.flags = flags;
+		this.from = from;
+		this.to = to;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Evaluates <code>expression</code> for every row, using the threads of <code>pool</code>.
+	 * @param flags Receives the checks failed by each row, or <code>null</code> to throw instead.
+	 */
+	static void run(ForkJoinPool pool, CompiledExpression expression, double[][] columns, double[] out, byte[] flags)
+			throws ParserException {
+		int threshold = threshold(expression, out.length, pool.getParallelism());
+		ParallelBatch task = new ParallelBatch(expression, columns, out, flags, 0, out.length, threshold);
+
+		//not worth forking at all
+		if (out.length <= threshold) {
+			task.evaluate();
+			return;
+		}
+
+		try {
+			pool.invoke(task);
+		}
+		catch (RuntimeException e) {
+			//the pool may rethrow a copy of the exception thrown by a task, with the original as cause
+			for (Throwable cause = e; cause != null; cause = cause.getCause())
+				if (cause instanceof ParserException)
+					throw (ParserException) cause;
+
+			throw e;
+		}
+	}
+
+	/* The amount of rows under which a task is not split */
+	private static int threshold(CompiledExpression expression, int rows, int parallelism) {
+		long cost = Math.max(1, expression.getProgram().cost());
+		long byCost = (MIN_TASK_WORK + cost - 1) / cost;
+		long byCount = (rows + (long) parallelism * TASKS_PER_THREAD - 1) / ((long) parallelism * TASKS_PER_THREAD);
+		long threshold = Math.max(byCost, byCount);
+
+		//whole blocks keep the batch evaluator's loops full
+		threshold = (threshold + BatchEvaluator.BLOCK_SIZE - 1) / BatchEvaluator.BLOCK_SIZE * BatchEvaluator.BLOCK_SIZE;
+		return (int) Math.min(threshold, Integer.MAX_VALUE);
+	}
+
+	@Override
+	protected void compute() {
+		if (to - from <= threshold) {
+			try {
+				evaluate();
+			}
+			catch (ParserException e) {
+				throw new Failure(e);
+			}
+			return;
+		}
+
+		int middle = from + (to - from) / 2;
+		invokeAll(new ParallelBatch(expression, columns, out, flags, from, middle, threshold),
+				new ParallelBatch(expression, columns, out, flags, middle, to, threshold));
+	}
+
+	private void evaluate() throws ParserException {
+		if (flags == null)
+			expression.evaluateBatch(CompiledExpression.frame(), columns, out, from, to);
+		else
+			expression.evaluateBatch(CompiledExpression.frame(), columns, out, flags, from, to);
+	}
+
+	/* Carries a ParserException out of a task, which can't throw checked exceptions */
+	private static final class Failure extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Failure(ParserException cause) {
+			super(cause);
+		}
+	}
+}
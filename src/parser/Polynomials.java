@@ -0,0 +1,339 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites polynomials in a single variable written in expanded form, such as
+ * <code>3*x^5 - 2*x^3 + x - 7</code>, into Horner's form <code>((3*x*x - 2)*x*x + 1)*x - 7</code>,
+ * with their coefficients computed while compiling. Each term then costs a multiplication and
+ * an addition, instead of a power. Polynomials of degree <code>ESTRIN_DEGREE</code> or more use
+ * Estrin's scheme instead, which evaluates pairs of terms independently and combines them with
+ * x^2, x^4, x^8, ..., so the processor can overlap the multiplications. Rational functions are
+ * covered as well, since the numerator and the denominator are rewritten independently.
+ *
+ * Only sums of terms are expanded: products and powers are accepted when one side is a single
+ * term, as in <code>2*x^3</code> or <code>(4*x)^2</code>, since expanding <code>(x+1)^5</code>
+ * would be less accurate than evaluating it as written. Subtrees are rewritten only when their
+ * new form takes fewer operations, and never lose a <code>ParserException</code>: exponents are
+ * positive integers and divisors are constants, which <code>Simplifier</code> already checked.
+ *
+ * The rewritten polynomial is evaluated with different roundings. For finite x, without
+ * overflows, a polynomial of degree n with expanded coefficients c[i] written as a sum of terms
+ * is within <code>2 * gamma(2n + 2) * S(x)</code> of its written evaluation, where
+ * <code>S(x) = |c[0]| + |c[1]*x| + ... + |c[n]*x^n|</code>, <code>gamma(k) = k*u/(1 - k*u)</code>
+ * and <code>u = 2^-53</code>: both evaluations are within <code>gamma(2n + 2)</code> times
+ * <code>S(x)</code> of the exact value (Higham, Accuracy and Stability of Numerical Algorithms,
+ * section 5.1). The bound is relative to the size of the terms, not of the result, so results
+ * close to a root may differ in more than their last bits. Since it is stated over the merged
+ * coefficients, sums whose like terms cancel, as in <code>(x + 1e16) - 1e16</code>, are kept as
+ * written: each coefficient tracks the magnitudes of the terms it merges, and any coefficient
+ * smaller than them stops the rewrite.
+ */
+final class Polynomials extends TreeRewriter {
+	/** The largest degree recognized */
+	static final int MAX_DEGREE = 32;
+
+	/** The smallest degree evaluated by Estrin's scheme instead of Horner's */
+	static final int ESTRIN_DEGREE = 8;
+
+	/* The nodes already visited which are polynomials, including the ones rewritten */
+	private final Map<Node, Polynomial> polynomials = new IdentityHashMap<>();
+	private final boolean relaxed;
+
+	/**
+	 * @param relaxed Whether divisions by constants other than powers of two may be folded into
+	 * the coefficients, as <code>StrengthReduction</code> does with relaxed arithmetic.
+	 */
+	Polynomials(boolean relaxed) {
+		this.relaxed = relaxed;
+	}
+
+	@Override
+	protected Node visit(Node node) {
+		Polynomial p = polynomial(node);
+
+		//like terms which cancel are left as written, along with the sums holding them
+		if (p == null || !p.isFinite() || p.cancels())
+			return node;
+
+		Node rewritten = p.degree() >= 1 ? p.rewrite() : null;
+		if (rewritten == null || operations(rewritten) >= p.cost) {
+			polynomials.put(node, p);
+			return node;
+		}
+
+		p.cost = operations(rewritten);
+		polynomials.put(rewritten, p);
+		return rewritten;
+	}
+
+	/* The polynomial node computes, if it is one, from the polynomials of its children */
+	private Polynomial polynomial(Node node) {
+		switch (node.op) {
+			case Opcodes.CONST:
+				return new Polynomial(null, new double[] {node.value}, new double[] {Math.abs(node.value)}, 0);
+
+			case Opcodes.VAR:
+				return new Polynomial(node, new double[] {0, 1}, new double[] {0, 1}, 0);
+		}
+
+		Polynomial a = node.children.length > 0 ? polynomials.get(node.child(0)) : null;
+		Polynomial b = node.children.length > 1 ? polynomials.get(node.child(1)) : null;
+
+		if (a == null)
+			return null;
+
+		switch (node.op) {
+			case Opcodes.NEG:
+				return a.scale(-1, a.cost + 1);
+
+			case Opcodes.ADD:
+			case Opcodes.SUB:
+				if (b == null || !a.sameVariable(b))
+					return null;
+
+				return a.add(b, node.op == Opcodes.SUB ? -1 : 1, a.cost + b.cost + 1);
+
+			case Opcodes.MUL:
+				if (b == null || !a.sameVariable(b) || a.terms() > 1 && b.terms() > 1
+						|| a.degree() + b.degree() > MAX_DEGREE)
+					return null;
+
+				return a.multiply(b, a.cost + b.cost + 1);
+
+			case Opcodes.DIV:
+				if (b == null || !node.child(1).isConstant() || node.child(1).value == 0)
+					return null;
+				if (!relaxed && !StrengthReduction.isPowerOfTwo(node.child(1).value))
+					return null;
+
+				return a.divide(node.child(1).value, a.cost + Opcodes.cost(Opcodes.DIV));
+
+			case Opcodes.POW:
+				if (b == null || !node.child(1).isConstant())
+					return null;
+
+				double exponent = node.child(1).value;
+				if (exponent < 1 || exponent != Math.rint(exponent) || a.terms() > 1
+						|| a.degree() * exponent > MAX_DEGREE)
+					return null;
+
+				return a.power((int) exponent, a.cost + powerCost((int) exponent));
+		}
+
+		return null;
+	}
+
+	/* The multiplications StrengthReduction turns a power into, or the cost of Math.pow */
+	private static int powerCost(int exponent) {
+		if (exponent > StrengthReduction.MAX_EXPONENT)
+			return Opcodes.cost(Opcodes.POW);
+
+		return 31 - Integer.numberOfLeadingZeros(exponent) + Integer.bitCount(exponent) - 1;
+	}
+
+	/* How many distinct operations the tree has */
+	private static int operations(Node root) {
+		int count = 0;
+
+		for (Node node : Node.postOrder(root))
+			if (node.children.length > 0)
+				count++;
+
+		return count;
+	}
+
+	/**
+	 * A polynomial in a single variable, whose coefficient i multiplies x^i, and the cost of the
+	 * node computing it.
+	 */
+	private static final class Polynomial {
+		/* The variable, or null if the polynomial is a constant */
+		final Node x;
+		final double[] coefficients;
+
+		/* The sum of the absolute values of the terms written for each coefficient */
+		final double[] magnitudes;
+		int cost;
+
+		Polynomial(Node x, double[] coefficients, double[] magnitudes, int cost) {
+			this.x = x;
+			this.coefficients = coefficients;
+			this.magnitudes = magnitudes;
+			this.cost = cost;
+		}
+
+		boolean sameVariable(Polynomial other) {
+			return x == null || other.x == null || x.arg == other.x.arg;
+		}
+
+		/* The variable of the combination of both */
+		Node variable(Polynomial other) {
+			return x != null ? x : other.x;
+		}
+
+		/* The highest power with a coefficient other than 0, or -1 if every coefficient is 0 */
+		int degree() {
+			int degree = coefficients.length - 1;
+
+			while (degree >= 0 && coefficients[degree] == 0)
+				degree--;
+
+			return degree;
+		}
+
+		/* Whether no coefficient overflowed, which the written evaluation might not do */
+		boolean isFinite() {
+			for (double c : coefficients)
+				if (Double.isNaN(c) || Double.isInfinite(c))
+					return false;
+
+			return true;
+		}
+
+		/* Whether the terms written for a coefficient cancel, so it is smaller than their magnitudes */
+		boolean cancels() {
+			for (int i = 0; i < coefficients.length; i++)
+				if (magnitudes[i] > Math.abs(coefficients[i]))
+					return true;
+
+			return false;
+		}
+
+		/* How many coefficients aren't 0 */
+		int terms() {
+			int terms = 0;
+
+			for (double c : coefficients)
+				if (c != 0)
+					terms++;
+
+			return terms;
+		}
+
+		Polynomial scale(double factor, int cost) {
+			double[] scaled = coefficients.clone();
+			double[] magnitudes = this.magnitudes.clone();
+
+			for (int i = 0; i < scaled.length; i++) {
+				scaled[i] *= factor;
+				magnitudes[i] *= Math.abs(factor);
+			}
+
+			return new Polynomial(x, scaled, magnitudes, cost);
+		}
+
+		Polynomial divide(double divisor, int cost) {
+			double[] divided = coefficients.clone();
+			double[] magnitudes = this.magnitudes.clone();
+
+			for (int i = 0; i < divided.length; i++) {
+				divided[i] /= divisor;
+				magnitudes[i] /= Math.abs(divisor);
+			}
+
+			return new Polynomial(x, divided, magnitudes, cost);
+		}
+
+		Polynomial add(Polynomial other, double sign, int cost) {
+			int length = Math.max(coefficients.length, other.coefficients.length);
+			double[] sum = Arrays.copyOf(coefficients, length);
+			double[] magnitudes = Arrays.copyOf(this.magnitudes, length);
+
+			for (int i = 0; i < other.coefficients.length; i++) {
+				sum[i] += sign * other.coefficients[i];
+				magnitudes[i] += other.magnitudes[i];
+			}
+
+			return new Polynomial(variable(other), sum, magnitudes, cost);
+		}
+
+		Polynomial multiply(Polynomial other, int cost) {
+			double[] product = new double[coefficients.length + other.coefficients.length - 1];
+			double[] magnitudes = new double[product.length];
+
+			for (int i = 0; i < coefficients.length; i++)
+				for (int j = 0; j < other.coefficients.length; j++) {
+					product[i + j] += coefficients[i] * other.coefficients[j];
+					magnitudes[i + j] += this.magnitudes[i] * other.magnitudes[j];
+				}
+
+			return new Polynomial(variable(other), product, magnitudes, cost);
+		}
+
+		/* A single term raised to exponent */
+		Polynomial power(int exponent, int cost) {
+			int degree = degree();
+			double[] power = new double[Math.max(0, degree) * exponent + 1];
+			double[] magnitudes = new double[power.length];
+
+			if (degree >= 0) {
+				power[degree * exponent] = Math.pow(coefficients[degree], exponent);
+				magnitudes[degree * exponent] = Math.pow(this.magnitudes[degree], exponent);
+			}
+
+			return new Polynomial(x, power, magnitudes, cost);
+		}
+
+		/* The tree evaluating this polynomial, of degree 1 at least, in the cheapest scheme */
+		Node rewrite() {
+			double[] c = Arrays.copyOf(coefficients, degree() + 1);
+
+			return c.length - 1 >= ESTRIN_DEGREE ? estrin(c, x) : horner(c, x);
+		}
+	}
+
+	/* (((c[n]*x + c[n-1])*x + ...)*x + c[0], skipping the additions of zeros */
+	private static Node horner(double[] c, Node x) {
+		Node result = Node.constant(c[c.length - 1]);
+
+		for (int i = c.length - 2; i >= 0; i--) {
+			result = result.isConstant(1) ? x : Node.operation(Opcodes.MUL, result, x);
+
+			if (c[i] != 0)
+				result = Node.operation(Opcodes.ADD, result, Node.constant(c[i]));
+		}
+
+		return result;
+	}
+
+	/* Splits the coefficients in halves recursively, as low(x) + high(x) * x^half, sharing each x^(2^k) */
+	private static Node estrin(double[] c, Node x) {
+		List<Node> powers = new ArrayList<>();
+		int size = 1;
+
+		powers.add(x);
+		while (size < c.length) {
+			size *= 2;
+			if (size < c.length)
+				powers.add(Node.operation(Opcodes.MUL, powers.get(powers.size() - 1), powers.get(powers.size() - 1)));
+		}
+
+		return estrin(c, 0, size, powers);
+	}
+
+	/* The terms c[from] .. c[from+count-1], divided by x^from, or null if they are all 0 */
+	private static Node estrin(double[] c, int from, int count, List<Node> powers) {
+		if (from >= c.length)
+			return null;
+
+		if (count == 1)
+			return c[from] == 0 ? null : Node.constant(c[from]);
+
+		int half = count / 2;
+		Node low = estrin(c, from, half, powers);
+		Node high = estrin(c, from + half, half, powers);
+
+		if (high == null)
+			return low;
+
+		Node power = powers.get(Integer.numberOfTrailingZeros(half));
+		Node term = high.isConstant(1) ? power : Node.operation(Opcodes.MUL, high, power);
+
+		return low == null ? term : Node.operation(Opcodes.ADD, low, term);
+	}
+}
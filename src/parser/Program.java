@@ -0,0 +1,93 @@
+package parser;
+
+/**
+ * The flat form of a compiled expression: parallel arrays of opcodes and arguments
+ * (see <code>Opcodes</code>), the constant pool and the sizes the evaluator needs to
+ * preallocate. Programs are immutable once built.
+ */
+final class Program {
+	final int[] ops;
+	final int[] args;
+	final double[] constants;
+
+	/** The functions called by <code>CALL</code> instructions */
+	final Call[] functions;
+
+	/** The maximum amount of values on the operand stack at any point of the evaluation */
+	final int stackSize;
+
+	/** The amount of temporary slots used by <code>LOAD</code> and <code>STORE</code> */
+	final int temporaries;
+
+	/** The largest variable index used plus one, or 0 if no variables are used */
+	final int requiredVariables;
+
+	/** How many values are left on the stack, one per output, the last one on top */
+	final int outputs;
+
+	/** Whether there are <code>SELECT</code> instructions, whose branches not chosen may fail (see <code>Selects</code>) */
+	final boolean selects;
+
+	Program(int[] ops, int[] args, double[] constants, Call[] functions, int stackSize, int temporaries,
+			int requiredVariables, int outputs) {
+		this.ops = ops;
+		this.args = args;
+		this.constants = constants;
+		this.functions = functions;
+		this.stackSize = stackSize;
+		this.temporaries = temporaries;
+		this.requiredVariables = requiredVariables;
+		this.outputs = outputs;
+
+		boolean selects = false;
+		for (int op : ops)
+			selects |= op == Opcodes.SELECT;
+		this.selects = selects;
+	}
+
+	/**
+	 * @return The size of the memory the evaluator needs: the operand stack followed by the
+	 * temporary slots, so slot k is stored at <code>stackSize + k</code>.
+	 */
+	int frameSize() {
+		return stackSize + temporaries;
+	}
+
+	/**
+	 * @return The estimated cost of evaluating one row, as the sum of <code>Opcodes.cost()</code>.
+	 */
+	int cost() {
+		int cost = 0;
+
+		for (int op : ops)
+			cost += Opcodes.cost(op);
+
+		return cost;
+	}
+
+	int length() {
+		return ops.length;
+	}
+
+	public String toString() {
+		StringBuilder buffer = new StringBuilder();
+
+		for (int i = 0; i < ops.length; i++) {
+			if (i > 0)
+				buffer.append(' ');
+
+			if (ops[i] == Opcodes.CONST)
+				buffer.append(constants[args[i]]);
+			else if (ops[i] == Opcodes.VAR)
+				buffer.append("VAR_" + args[i]);
+			else if (ops[i] == Opcodes.CALL)
+				buffer.append(functions[args[i]].name);
+			else if (ops[i] == Opcodes.LOAD || ops[i] == Opcodes.STORE)
+				buffer.append(Opcodes.name(ops[i]) + "_" + args[i]);
+			else
+				buffer.append(Opcodes.name(ops[i]));
+		}
+
+		return buffer.toString();
+	}
+}
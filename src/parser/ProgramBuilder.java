@@ -0,0 +1,225 @@
+package parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import exceptions.ParserException;
+import exceptions.ParserException.Kind;
+
+/**
+ * Lowers an expression tree into a <code>Program</code>. While doing so the operand stack
+ * is simulated, so the stack the evaluator needs is known in advance.
+ */
+final class ProgramBuilder {
+	private int[] ops;
+	private int[] args;
+	private int size;
+
+	private double[] constants;
+	private Map<Long, Integer> constantIndexes;
+
+	private List<Call> functions;
+	private Map<Call, Integer> functionIndexes;
+
+	private int depth;
+	private int maxDepth;
+	private int requiredVariables;
+
+	private int temporaries;
+	private Deque<Integer> freeSlots;
+
+	ProgramBuilder() {
+		ops = new int[16];
+		args = new int[16];
+		constants = new double[4];
+		constantIndexes = new HashMap<>();
+		functions = new ArrayList<>();
+		functionIndexes = new IdentityHashMap<>();
+		freeSlots = new ArrayDeque<>();
+	}
+
+	/**
+	 * Lowers the expression trees <code>roots</code> into a program, which leaves the value of
+	 * each root on the stack, in order. The trees may share nodes, within a tree and between
+	 * them (see <code>CommonSubexpressions</code>): a shared operation is evaluated the first
+	 * time it is needed and saved into a temporary slot, which later uses load. Slots are reused
+	 * once every use of their node was emitted.
+	 */
+	static Program lower(Node... roots) throws ParserException {
+		ProgramBuilder builder = new ProgramBuilder();
+		Map<Node, Integer> uses = countUses(roots);
+		Map<Node, Integer> slots = new IdentityHashMap<>();
+
+		for (Node root : roots)
+			builder.tree(root, uses, slots);
+
+		return builder.build(roots.length);
+	}
+
+	/* Emits the tree root, loading the nodes already saved into slots, by it or by previous trees */
+	private void tree(Node root, Map<Node, Integer> uses, Map<Node, Integer> slots) throws ParserException {
+		//an explicit stack of the nodes being emitted and the index of their next child
+		Deque<Node> pending = new ArrayDeque<>();
+		Deque<Integer> nextChild = new ArrayDeque<>();
+
+		pending.push(root);
+		nextChild.push(0);
+
+		while (!pending.isEmpty()) {
+			Node node = pending.peek();
+			int i = nextChild.pop();
+			Integer slot = slots.get(node);
+
+			if (i == 0 && slot != null) {
+				//already evaluated, so just load it
+				pending.pop();
+				emit(Opcodes.LOAD, slot);
+				release(node, uses, slot);
+			}
+			else if (i < node.children.length) {
+				nextChild.push(i + 1);
+				pending.push(node.children[i]);
+				nextChild.push(0);
+			}
+			else {
+				pending.pop();
+				node(node);
+
+				if (node.children.length > 0 && uses.get(node) > 1) {
+					slot = allocate();
+					slots.put(node, slot);
+					emit(Opcodes.STORE, slot);
+					release(node, uses, slot);
+				}
+			}
+		}
+	}
+
+	/* Counts how many parents reference each node, as a node may be shared, plus one per root it is */
+	private static Map<Node, Integer> countUses(Node... roots) {
+		Map<Node, Integer> uses = new IdentityHashMap<>();
+
+		for (Node root : roots) {
+			Integer count = uses.get(root);
+			uses.put(root, count == null ? 1 : count + 1);
+		}
+
+		//a node shared by many trees is listed by each of them, but its children are counted once
+		Set<Node> counted = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+
+		for (Node root : roots)
+			for (Node node : Node.postOrder(root)) {
+				if (!counted.add(node))
+					continue;
+
+				for (Node child : node.children) {
+					Integer count = uses.get(child);
+					uses.put(child, count == null ? 1 : count + 1);
+				}
+			}
+
+		return uses;
+	}
+
+	private void node(Node node) throws ParserException {
+		if (node.op == Opcodes.CONST)
+			constant(node.value);
+		else if (node.op == Opcodes.VAR)
+			variable(node.arg);
+		else if (node.op == Opcodes.CALL)
+			call(node.function);
+		else
+			operation(node.op);
+	}
+
+	/* Returns a free temporary slot */
+	private int allocate() {
+		if (freeSlots.isEmpty())
+			return temporaries++;
+
+		return freeSlots.pop();
+	}
+
+	/* Consumes one use of a shared node, freeing its slot after the last one */
+	private void release(Node node, Map<Node, Integer> uses, int slot) {
+		int remaining = uses.get(node) - 1;
+
+		uses.put(node, remaining);
+		if (remaining == 0)
+			freeSlots.push(slot);
+	}
+
+	void constant(double value) throws ParserException {
+		Long key = Double.doubleToLongBits(value);
+		Integer index = constantIndexes.get(key);
+
+		if (index == null) {
+			if (constantIndexes.size() == constants.length)
+				constants = Arrays.copyOf(constants, constants.length * 2);
+
+			index = constantIndexes.size();
+			constants[index] = value;
+			constantIndexes.put(key, index);
+		}
+
+		emit(Opcodes.CONST, index);
+	}
+
+	void variable(int index) throws ParserException {
+		requiredVariables = Math.max(requiredVariables, index + 1);
+		emit(Opcodes.VAR, index);
+	}
+
+	void operation(int opcode) throws ParserException {
+		emit(opcode, 0);
+	}
+
+	void call(Call function) throws ParserException {
+		Integer index = functionIndexes.get(function);
+
+		if (index == null) {
+			index = functions.size();
+			functions.add(function);
+			functionIndexes.put(function, index);
+		}
+
+		emit(Opcodes.CALL, index);
+	}
+
+	private void emit(int opcode, int argument) throws ParserException {
+		//every instruction pops its operands and pushes a single result
+		depth -= opcode == Opcodes.CALL ? functions.get(argument).arity : Opcodes.operands(opcode);
+		if (depth < 0)
+			throw new ParserException("Malformed expression.", Kind.MALFORMED);
+
+		depth++;
+		maxDepth = Math.max(maxDepth, depth);
+
+		if (size == ops.length) {
+			ops = Arrays.copyOf(ops, size * 2);
+			args = Arrays.copyOf(args, size * 2);
+		}
+
+		ops[size] = opcode;
+		args[size] = argument;
+		size++;
+	}
+
+	/* Builds the program, which must leave one value per output on the stack */
+	Program build(int outputs) throws ParserException {
+		if (depth != outputs)
+			throw new ParserException("Malformed expression.", Kind.MALFORMED);
+
+		return new Program(Arrays.copyOf(ops, size), Arrays.copyOf(args, size),
+				Arrays.copyOf(constants, constantIndexes.size()), functions.toArray(new Call[functions.size()]),
+				maxDepth, temporaries, requiredVariables, outputs);
+	}
+}
@@ -0,0 +1,329 @@
+package parser;
+
+import java.util.Arrays;
+
+import exceptions.ParserException;
+
+/**
+ * Computes the gradient of a <code>Program</code> with respect to all its variables by
+ * reverse-mode automatic differentiation. The forward pass evaluates the program while
+ * recording, for every instruction, its value and the instructions its operands came from.
+ * A single backward sweep over this tape then propagates the adjoint of each instruction to
+ * its operands, so the whole gradient costs a small multiple of one evaluation, however
+ * many variables there are.
+ * 
+ * Values are computed with the same <code>Operations</code> the interpreter uses, so the same
+ * <code>ParserException</code> conditions are raised, except in the branches selects don't
+ * choose (see <code>Selects</code>). Registered functions don't provide their
+ * derivatives, so they are differentiated numerically by central differences.
+ */
+final class ReverseInterpreter {
+	private ReverseInterpreter() { }
+
+	/**
+	 * Runs <code>program</code>, which must have been verified to use only the given variables.
+	 * @param gradient Receives the partial derivative with respect to each variable. Elements
+	 * for variables not used by the program are set to 0.
+	 * @param frame Holds the tape.
+	 * @return The value of the program.
+	 */
+	static double run(Program program, double epsilon, double[] variables, double[] gradient, EvaluationFrame frame)
+			throws ParserException {
+		final int[] ops = program.ops;
+		final int[] args = program.args;
+		final int n = ops.length;
+
+		GradientTape tape = record(program, epsilon, variables, frame);
+		Selects.raise(program, epsilon, tape, frame);
+
+		final double[] values = tape.values;
+		final double[] adjoints = tape.adjoints;
+		final int[] operands = tape.operands;
+		int cursor = tape.links;
+
+		//backward pass: the result's adjoint is 1 and every instruction passes its adjoint, times
+		//its local derivative, to the instructions of its operands
+		Arrays.fill(adjoints, 0, n, 0);
+		Arrays.fill(gradient, 0);
+		adjoints[n - 1] = 1;
+
+		for (int i = n - 1; i >= 0; i--) {
+			int count = operandCount(program, i);
+			cursor -= count;
+
+			double g = adjoints[i];
+			if (g == 0)
+				continue;
+
+			//the value, the instructions of the first and second operands and the first operand
+			double f = values[i];
+			int x = count > 0 ? operands[cursor] : 0;
+			int y = count > 1 ? operands[cursor + 1] : 0;
+			double a = values[x];
+
+			switch (ops[i]) {
+				case Opcodes.CONST: break;
+				case Opcodes.VAR: gradient[args[i]] += g; break;
+
+				case Opcodes.LOAD:
+				case Opcodes.STORE:
+					adjoints[x] += g;
+				break;
+
+				case Opcodes.ADD: adjoints[x] += g; adjoints[y] += g; break;
+				case Opcodes.SUB: adjoints[x] += g; adjoints[y] -= g; break;
+				case Opcodes.MUL: adjoints[x] += g * values[y]; adjoints[y] += g * a; break;
+
+				case Opcodes.DIV:
+					adjoints[x] += g / values[y];
+					adjoints[y] -= g * f / values[y];
+				break;
+
+				case Opcodes.POW:
+					double exponent = values[y];
+
+					adjoints[x] += g * exponent * Math.pow(a, exponent - 1);
+					//0^b doesn't change with b > 0, while ln(0) would turn the adjoint into NaN
+					if (f != 0)
+						adjoints[y] += g * f * Math.log(a);
+				break;
+
+				case Opcodes.NEG: adjoints[x] -= g; break;
+
+				case Opcodes.SIN: adjoints[x] += g * Math.cos(a); break;
+				case Opcodes.COS: adjoints[x] -= g * Math.sin(a); break;
+				case Opcodes.TAN: adjoints[x] += g * (1 + f * f); break;
+				case Opcodes.SEC: adjoints[x] += g * f * Math.tan(a); break;
+				case Opcodes.CSC: adjoints[x] -= g * f * f * Math.cos(a); break;
+				case Opcodes.CTG: adjoints[x] -= g * (1 + f * f); break;
+				case Opcodes.ASIN: adjoints[x] += g / Math.sqrt(1 - a * a); break;
+				case Opcodes.ACOS: adjoints[x] -= g / Math.sqrt(1 - a * a); break;
+				case Opcodes.ATAN: adjoints[x] += g / (1 + a * a); break;
+				case Opcodes.SINH: adjoints[x] += g * Math.cosh(a); break;
+				case Opcodes.COSH: adjoints[x] += g * Math.sinh(a); break;
+				case Opcodes.TANH: adjoints[x] += g * (1 - f * f); break;
+				case Opcodes.LN: adjoints[x] += g / a; break;
+				case Opcodes.SQRT: adjoints[x] += g / (2 * f); break;
+
+				//comparisons are flat but at their steps, and the condition of a select doesn't matter
+				case Opcodes.LT: case Opcodes.LE: case Opcodes.GT: case Opcodes.GE: case Opcodes.EQ: case Opcodes.NE:
+				break;
+
+				case Opcodes.MIN:
+					if (a <= values[y])
+						adjoints[x] += g;
+					else
+						adjoints[y] += g;
+				break;
+
+				case Opcodes.MAX:
+					if (a >= values[y])
+						adjoints[x] += g;
+					else
+						adjoints[y] += g;
+				break;
+
+				case Opcodes.ABS: adjoints[x] += g * Math.signum(a); break;
+
+				case Opcodes.SELECT:
+					if (a != 0)
+						adjoints[y] += g;
+					else
+						adjoints[operands[cursor + 2]] += g;
+				break;
+
+				case Opcodes.CALL:
+					backward(program, program.functions[args[i]], cursor, g, tape, frame);
+				break;
+
+				default:
+					throw new ParserException("Unknown error.");
+			}
+		}
+
+		return values[n - 1];
+	}
+
+	/**
+	 * Runs the forward pass of <code>program</code>, recording the value of every instruction and
+	 * the instructions its operands came from in the frame's tape. Programs with selects don't
+	 * throw: the operations that fail give their IEEE 754 results and are marked in the tape,
+	 * since only the failures of the branches chosen count (see <code>Selects</code>).
+	 */
+	static GradientTape record(Program program, double epsilon, double[] variables, EvaluationFrame frame)
+			throws ParserException {
+		final int[] ops = program.ops;
+		final int[] args = program.args;
+		final int n = ops.length;
+		final int temporaries = program.stackSize;
+
+		//less than n values are popped from the stack and each LOAD links to one more, so there are
+		//less than 2n links to operands
+		GradientTape tape = frame.tape(n, 2 * n, program.frameSize());
+		final double[] values = tape.values;
+		final int[] operands = tape.operands;
+		final int[] owners = tape.owners;
+		final boolean[] failed = tape.failed;
+
+		//the stack holds the instructions that computed each value
+		int top = -1;
+		int cursor = 0;
+
+		tape.failures = 0;
+		for (int i = 0; i < n; i++) {
+			double a, b;
+			int first;
+
+			failed[i] = false;
+			switch (ops[i]) {
+				case Opcodes.CONST: values[i] = program.constants[args[i]]; owners[++top] = i; continue;
+				case Opcodes.VAR: values[i] = variables[args[i]]; owners[++top] = i; continue;
+
+				case Opcodes.LOAD:
+					first = owners[temporaries + args[i]];
+					operands[cursor++] = first;
+					values[i] = values[first];
+					owners[++top] = i;
+				continue;
+
+				case Opcodes.STORE:
+					first = owners[top];
+					operands[cursor++] = first;
+					values[i] = values[first];
+					owners[top] = i;
+					owners[temporaries + args[i]] = i;
+				continue;
+
+				case Opcodes.CALL:
+					Call call = program.functions[args[i]];
+					double[] arguments = frame.arguments(call.arity);
+
+					first = top - call.arity + 1;
+					for (int j = 0; j < call.arity; j++) {
+						operands[cursor++] = owners[first + j];
+						arguments[j] = values[owners[first + j]];
+					}
+
+					try {
+						values[i] = call.invoke(arguments);
+					}
+					catch (ParserException e) {
+						if (!program.selects)
+							throw e;
+
+						values[i] = Double.NaN;
+						failed[i] = true;
+						tape.failures++;
+					}
+
+					top = first;
+					owners[top] = i;
+				continue;
+
+				case Opcodes.SELECT:
+					first = top - 2;
+					for (int j = 0; j < 3; j++)
+						operands[cursor++] = owners[first + j];
+
+					values[i] = values[owners[first]] != 0 ? values[owners[first + 1]] : values[owners[first + 2]];
+					top = first;
+					owners[top] = i;
+				continue;
+			}
+
+			//operations of one or two operands
+			if (Opcodes.operands(ops[i]) == 2) {
+				operands[cursor++] = owners[top - 1];
+				operands[cursor++] = owners[top];
+				a = values[owners[top - 1]];
+				b = values[owners[top]];
+				top--;
+			}
+			else {
+				operands[cursor++] = owners[top];
+				a = values[owners[top]];
+				b = 0;
+			}
+
+			try {
+				values[i] = apply(ops[i], a, b, epsilon);
+			}
+			catch (ParserException e) {
+				if (!program.selects)
+					throw e;
+
+				values[i] = apply(ops[i], a, b, Selects.UNCHECKED);
+				failed[i] = true;
+				tape.failures++;
+			}
+
+			owners[top] = i;
+		}
+
+		tape.links = cursor;
+		return tape;
+	}
+
+	/* The value of an operation of one or two operands, the second one being 0 for the former */
+	static double apply(int opcode, double a, double b, double epsilon) throws ParserException {
+		switch (opcode) {
+			case Opcodes.ADD: return a + b;
+			case Opcodes.SUB: return a - b;
+			case Opcodes.MUL: return a * b;
+			case Opcodes.DIV: return Operations.div(a, b, epsilon);
+			case Opcodes.POW: return Operations.pow(a, b, epsilon);
+			case Opcodes.NEG: return -a;
+
+			case Opcodes.SIN: return Math.sin(a);
+			case Opcodes.COS: return Math.cos(a);
+			case Opcodes.TAN: return Math.tan(a);
+			case Opcodes.SEC: return Operations.sec(a, epsilon);
+			case Opcodes.CSC: return Operations.csc(a, epsilon);
+			case Opcodes.CTG: return Operations.ctg(a, epsilon);
+			case Opcodes.ASIN: return Math.asin(a);
+			case Opcodes.ACOS: return Math.acos(a);
+			case Opcodes.ATAN: return Math.atan(a);
+			case Opcodes.SINH: return Math.sinh(a);
+			case Opcodes.COSH: return Math.cosh(a);
+			case Opcodes.TANH: return Math.tanh(a);
+			case Opcodes.LN: return Operations.ln(a, epsilon);
+			case Opcodes.SQRT: return Math.sqrt(a);
+
+			case Opcodes.LT: case Opcodes.LE: case Opcodes.GT: case Opcodes.GE: case Opcodes.EQ: case Opcodes.NE:
+				return DualInterpreter.compare(opcode, a, b);
+
+			case Opcodes.MIN: return Math.min(a, b);
+			case Opcodes.MAX: return Math.max(a, b);
+			case Opcodes.ABS: return Math.abs(a);
+
+			default:
+				throw new ParserException("Unknown error.");
+		}
+	}
+
+	/* How many operand links the forward pass recorded for instruction i */
+	static int operandCount(Program program, int i) {
+		switch (program.ops[i]) {
+			case Opcodes.LOAD: return 1;
+			case Opcodes.CALL: return program.functions[program.args[i]].arity;
+			default: return Opcodes.operands(program.ops[i]);
+		}
+	}
+
+	/* Passes the adjoint of a call to its arguments, differentiating the function numerically */
+	private static void backward(Program program, Call call, int first, double g, GradientTape tape,
+			EvaluationFrame frame) throws ParserException {
+		double[] arguments = frame.arguments(call.arity);
+
+		for (int j = 0; j < call.arity; j++)
+			arguments[j] = tape.values[tape.operands[first + j]];
+
+		for (int j = 0; j < call.arity; j++) {
+			int source = tape.operands[first + j];
+
+			//constants have no use for their adjoints
+			if (program.ops[source] != Opcodes.CONST)
+				tape.adjoints[source] += g * call.partial(arguments, j);
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package parser;
+
+import exceptions.ParserException;
+
+/**
+ * A function of the scalar variable x.
+ */
+public interface ScalarFunction {
+	/**
+	 * @param x The value x is replaced by.
+	 * @return The function's value.
+	 * @throws ParserException if a illegal mathematical operation is performed.
+	 */
+	double evaluate(double x) throws ParserException;
+}
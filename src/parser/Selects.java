@@ -0,0 +1,158 @@
+package parser;
+
+import java.util.Arrays;
+
+import exceptions.ParserException;
+
+/**
+ * Tells the failures of a program with selects which count. Both branches of a select are
+ * computed, but only the failures of the branch chosen may be raised, or guards such as
+ * <code>if(x > 0, ln(x), 0)</code> would fail whenever they hold.
+ *
+ * The evaluators run these programs as any other, and only once an operation fails do they
+ * evaluate the program again on a tape (see <code>ReverseInterpreter.record()</code>), which
+ * gives the IEEE 754 results of the failed operations and marks them. A backward sweep from
+ * the outputs then marks the instructions they depend on, passing over the branches not
+ * chosen, and the first failed instruction marked is repeated to raise its exception.
+ */
+final class Selects {
+	/** An epsilon no operand is closer to zero than, so <code>Operations</code> give their IEEE 754 results */
+	static final double UNCHECKED = Double.NEGATIVE_INFINITY;
+
+	private Selects() { }
+
+	/**
+	 * Evaluates a program with selects whose evaluation failed.
+	 * @return The value of the program, if only branches not chosen failed.
+	 * @throws ParserException if a failure reaches the result through the branches chosen.
+	 */
+	static double evaluate(Program program, double epsilon, double[] variables, EvaluationFrame frame)
+			throws ParserException {
+		GradientTape tape = ReverseInterpreter.record(program, epsilon, variables, frame);
+
+		raise(program, epsilon, tape, frame);
+		return tape.values[tape.owners[0]];
+	}
+
+	/**
+	 * Evaluates a program with selects and many outputs whose evaluation failed, copying the
+	 * outputs into <code>out</code>.
+	 * @throws ParserException if a failure reaches an output through the branches chosen.
+	 */
+	static void evaluate(Program program, double epsilon, double[] variables, double[] out, EvaluationFrame frame)
+			throws ParserException {
+		GradientTape tape = ReverseInterpreter.record(program, epsilon, variables, frame);
+
+		raise(program, epsilon, tape, frame);
+		for (int k = 0; k < program.outputs; k++)
+			out[k] = tape.values[tape.owners[k]];
+	}
+
+	/**
+	 * @return The <code>EvaluationFlags</code> of the failures which reach an output through the
+	 * branches chosen.
+	 */
+	static int flags(Program program, double epsilon, double[] variables, EvaluationFrame frame)
+			throws ParserException {
+		GradientTape tape = ReverseInterpreter.record(program, epsilon, variables, frame);
+		int flags = 0;
+
+		if (tape.failures == 0)
+			return 0;
+
+		mark(program, tape.values, tape.operands, tape.links, tape.owners, program.outputs, tape.live);
+		for (int i = 0; i < program.length(); i++)
+			if (tape.failed[i] && tape.live[i])
+				flags |= flag(program.ops[i]);
+
+		return flags;
+	}
+
+	/**
+	 * Throws the exception of the first failure recorded in <code>tape</code> which reaches an
+	 * output through the branches chosen, if any.
+	 */
+	static void raise(Program program, double epsilon, GradientTape tape, EvaluationFrame frame)
+			throws ParserException {
+		if (tape.failures == 0)
+			return;
+
+		mark(program, tape.values, tape.operands, tape.links, tape.owners, program.outputs, tape.live);
+		raise(program, epsilon, tape.values, tape.operands, tape.failed, tape.live, frame);
+	}
+
+	/**
+	 * Marks in <code>live</code> the instructions the roots depend on, where the operands of
+	 * instruction i are the instructions in <code>operands</code> following those of instruction
+	 * i-1, as <code>ReverseInterpreter.operandCount()</code> tells. A select only depends on its
+	 * condition and on the branch it chose.
+	 * @param links The amount of operands of every instruction.
+	 */
+	static void mark(Program program, double[] values, int[] operands, int links, int[] roots, int count,
+			boolean[] live) {
+		int cursor = links;
+
+		Arrays.fill(live, 0, program.length(), false);
+		for (int k = 0; k < count; k++)
+			live[roots[k]] = true;
+
+		for (int i = program.length() - 1; i >= 0; i--) {
+			int operandCount = ReverseInterpreter.operandCount(program, i);
+			cursor -= operandCount;
+
+			if (!live[i])
+				continue;
+
+			if (program.ops[i] == Opcodes.SELECT) {
+				int condition = operands[cursor];
+
+				live[condition] = true;
+				live[operands[values[condition] != 0 ? cursor + 1 : cursor + 2]] = true;
+			}
+			else
+				for (int j = cursor; j < cursor + operandCount; j++)
+					live[operands[j]] = true;
+		}
+	}
+
+	/**
+	 * Repeats the operation of the first instruction both failed and live, which throws the
+	 * exception evaluating it raised.
+	 */
+	static void raise(Program program, double epsilon, double[] values, int[] operands, boolean[] failed,
+			boolean[] live, EvaluationFrame frame) throws ParserException {
+		int cursor = 0;
+
+		for (int i = 0; i < program.length(); i++) {
+			int count = ReverseInterpreter.operandCount(program, i);
+
+			if (failed[i] && live[i]) {
+				if (program.ops[i] == Opcodes.CALL) {
+					double[] arguments = frame.arguments(count);
+
+					for (int j = 0; j < count; j++)
+						arguments[j] = values[operands[cursor + j]];
+					program.functions[program.args[i]].invoke(arguments);
+				}
+				else
+					ReverseInterpreter.apply(program.ops[i], values[operands[cursor]],
+							count > 1 ? values[operands[cursor + 1]] : 0, epsilon);
+
+				//only a registered function which isn't pure gets here, whose failure is then ignored
+			}
+
+			cursor += count;
+		}
+	}
+
+	/* The bit of EvaluationFlags set by a failure of the opcode */
+	private static int flag(int opcode) {
+		switch (opcode) {
+			case Opcodes.DIV: return EvaluationFlags.DIVISION_BY_ZERO;
+			case Opcodes.POW: return EvaluationFlags.ZERO_TO_THE_ZERO;
+			case Opcodes.LN: return EvaluationFlags.LOGARITHM_OF_ZERO;
+			case Opcodes.SEC: case Opcodes.CSC: case Opcodes.CTG: return EvaluationFlags.TRIGONOMETRIC_POLE;
+			default: return EvaluationFlags.FUNCTION_FAILED;
+		}
+	}
+}
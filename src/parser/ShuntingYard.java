@@ -1,9 +1,12 @@
 package parser;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.Queue;
-import java.util.Stack;
 
 import lexer.FunctionToken;
 import lexer.IntegerToken;
@@ -13,64 +16,191 @@ import lexer.Token;
 import lexer.VariableToken;
 import exceptions.LexerException;
 import exceptions.ParserException;
+import exceptions.ParserException.Kind;
 
 public class ShuntingYard {
+	private static final int NOT_A_CALL = -1;
+	
 	private Lexer lexer;
-	private Queue<Token> output;
+	private ArrayDeque<Token> output;
+	
+	//lexing is interleaved with the conversion, so its time is added up token by token
+	private long lexing;
 	private static ShuntingYard instance;
 
-	private ShuntingYard() {
-		lexer = Lexer.getInstance();
+	/**
+	 * Creates a ShuntingYard that reads its tokens from <code>lexer</code>. Neither this
+	 * object nor the lexer are thread-safe, so each thread should own its pair.
+	 * @param lexer The lexer used to tokenize the expressions.
+	 */
+	public ShuntingYard(Lexer lexer) {
+		this.lexer = lexer;
 	}
 	
 	/**
-	 * Returns the ShuntingYard instance, since this is a Singleton class.
+	 * Returns the shared ShuntingYard instance, which uses the shared Lexer.
 	 * @return
 	 */
 	public static ShuntingYard getInstance() {
 		if (instance == null)
-			instance = new ShuntingYard();
+			instance = new ShuntingYard(Lexer.getInstance());
 		
 		return instance;
 	}
 	
+	/**
+	 * @return The lexer used by this object.
+	 */
+	public Lexer getLexer() {
+		return this.lexer;
+	}
+	
 	public void convertFromInfixToPosfix(String expression) throws ParserException, LexerException {
-		lexer = Lexer.getInstance();
-		lexer.parseToTokens(expression);
+		convertFromInfixToPosfix((CharSequence) expression);
+	}
+	
+	/**
+	 * Converts <code>expression</code> into RPN, available through <code>getExpression()</code>.
+	 * Tokens are handed from the lexer as they are read, so the time taken is linear on the
+	 * expression's length.
+	 * @throws LexerException If there are invalid variable names or functions.
+	 * @throws ParserException If the expression is malformed.
+	 */
+	public void convertFromInfixToPosfix(CharSequence expression) throws ParserException, LexerException {
+		lexer.start(expression);
+		measure();
+	}
+	
+	/**
+	 * Converts the expression read from <code>expression</code> into RPN, reading only as many
+	 * characters at once as the lexer needs, so very long expressions don't have to be loaded
+	 * first. The reader is not closed.
+	 * @see #convertFromInfixToPosfix(CharSequence)
+	 * @throws IOException if <code>expression</code> can't be read.
+	 */
+	public void convertFromInfixToPosfix(Reader expression) throws ParserException, LexerException, IOException {
+		lexer.start(expression);
 		
-		List<Token> tokens = lexer.getList();
-		Stack<Token> operatorsStack = new Stack<>();
-		output = new LinkedList<Token>();
+		try {
+			measure();
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+	
+	private void measure() throws ParserException, LexerException {
+		if (!Metrics.enabled) {
+			convert(false);
+			return;
+		}
+
+		long start = System.nanoTime();
+		lexing = 0;
+		try {
+			convert(true);
+		}
+		finally {
+			//lexing is recorded as if it had taken place in one go, ending now
+			Metrics.record(Metrics.Stage.LEXING, System.nanoTime() - lexing);
+			Metrics.record(Metrics.Stage.SHUNTING_YARD, start);
+		}
+	}
+	
+	/* The next token, adding the time taken to lexing if the conversion is measured */
+	private Token next(boolean measured) throws LexerException {
+		if (!measured)
+			return lexer.next();
 		
-		for (int i = 0; i < tokens.size(); i++) {
-			Token current = tokens.get(i);
+		long start = System.nanoTime();
+		try {
+			return lexer.next();
+		}
+		finally {
+			lexing += System.nanoTime() - start;
+		}
+	}
+	
+	private void convert(boolean measured) throws ParserException, LexerException {
+		Deque<Token> operatorsStack = new ArrayDeque<>();
+		output = new ArrayDeque<>();
+		
+		//for each open parenthesis, how many arguments were given if it encloses a function's
+		//arguments, or NOT_A_CALL
+		int[] arguments = new int[8];
+		int depth = 0;
+		
+		//if an operand, as opposed to an operator, should come next
+		boolean operand = true;
+		Token previous = null;
+		
+		while (true) {
+			Token current = next(measured);
+			if (current == null)
+				break;
 			
-			if (current instanceof DecimalToken || current instanceof IntegerToken || current instanceof VariableToken)
+			if (current instanceof DecimalToken || current instanceof IntegerToken || current instanceof VariableToken) {
+				expect(operand);
 				output.add(current);
+				operand = false;
+			}
 			
-			else if (current instanceof FunctionToken)
-				operatorsStack.add(current);
+			else if (current instanceof FunctionToken) {
+				expect(operand);
+				operatorsStack.push(current);
+			}
 			
-			else if (current.getType() == Token.Type.LPAR)
+			else if (current.getType() == Token.Type.LPAR) {
+				expect(operand);
+				
+				if (depth == arguments.length)
+					arguments = Arrays.copyOf(arguments, depth * 2);
+				arguments[depth++] = previous instanceof FunctionToken ? 1 : NOT_A_CALL;
+				
 				operatorsStack.push(current);
+			}
 			
 			else if (current.getType() == Token.Type.RPAR) {
 				
-				while (operatorsStack.peek().getType() != Token.Type.LPAR) {
+				while (operatorsStack.size() > 0 && operatorsStack.peek().getType() != Token.Type.LPAR)
 					transfer(operatorsStack);
-					
-					if (operatorsStack.size() == 0)
-						throw new ParserException("Mismatched parenthesis.1");
-				}
 				
-				//get rid of )
+				if (operatorsStack.size() == 0)
+					throw new ParserException("Mismatched parenthesis.1", Kind.MALFORMED);
+				
+				int given = arguments[--depth];
+				
+				//empty parenthesis are only allowed when calling a function without arguments
+				if (previous.getType() == Token.Type.LPAR && given != NOT_A_CALL)
+					given = 0;
+				else
+					expect(!operand);
+				
+				//get rid of ( and, if the parenthesis enclosed a function's arguments, output the function
 				operatorsStack.pop();
-				transfer(operatorsStack);
+				if (given != NOT_A_CALL)
+					output.add(called((FunctionToken) operatorsStack.pop(), given));
+				
+				operand = false;
+			}
+			
+			else if (current.getType() == Token.Type.COM) {
+				expect(!operand);
+				
+				while (operatorsStack.size() > 0 && operatorsStack.peek().getType() != Token.Type.LPAR)
+					transfer(operatorsStack);
+				
+				if (depth == 0 || arguments[depth - 1] == NOT_A_CALL)
+					throw new ParserException("Commas are not allowed. Use '.' as decimal separator.", Kind.MALFORMED);
+				
+				arguments[depth - 1]++;
+				operand = true;
 			}
 			
 			else {
-				//can only be now an operator or function (since all functions have  
-				//just one argument, for now)
+				//can only be now an operator. Signs come where an operand is expected
+				boolean sign = current.getType() == Token.Type.NEG || current.getType() == Token.Type.POS;
+				expect(operand == sign);
 				
 				while (operatorsStack.size() > 0) {
 					if ((operatorsStack.peek().getPriority() > current.getPriority() && (current.getType() == Token.Type.POW
@@ -83,21 +213,43 @@ public class ShuntingYard {
 				}
 				
 				operatorsStack.push(current);
+				operand = true;
 			}
 			
-//			System.out.println("O = " + operatorsStack.toString());
-//			System.out.println("N = " + output.toString());
+			previous = current;
 		}
 		
+		//the expression is empty or ends with an operator
+		expect(!operand || operatorsStack.size() > 0 && operatorsStack.peek().getType() == Token.Type.LPAR);
+		
 		while (operatorsStack.size() > 0) {
 			if (operatorsStack.peek().getType() == Token.Type.LPAR)
-				throw new ParserException("Mismatched parenthesis.2");
+				throw new ParserException("Mismatched parenthesis.2", Kind.MALFORMED);
 			
 			transfer(operatorsStack);
 		}
 	}
 	
-	private void transfer(Stack<Token> operands) {
+	/* Rejects tokens out of place, such as two operands without an operator between them */
+	private static void expect(boolean condition) throws ParserException {
+		if (!condition)
+			throw new ParserException("Malformed expression.", Kind.MALFORMED);
+	}
+	
+	/* The function token, with the amount of arguments it was called with */
+	private static Token called(FunctionToken function, int given) throws ParserException {
+		if (given == function.getArguments())
+			return function;
+		
+		if (function.getFunctionID() != null)
+			throw new ParserException("Function " + function.getName() + (function.getArguments() == 1
+					? " takes a single argument." : " takes " + function.getArguments() + " arguments."),
+					Kind.MALFORMED);
+		
+		return new FunctionToken(function.getName(), given);
+	}
+	
+	private void transfer(Deque<Token> operands) {
 		Token transfered = operands.pop();
 		
 		if (transfered.getType() != Token.Type.LPAR && transfered.getType() != Token.Type.RPAR)
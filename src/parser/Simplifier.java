@@ -0,0 +1,111 @@
+package parser;
+
+import exceptions.ParserException;
+import exceptions.ParserException.Kind;
+
+/**
+ * Folds constant subtrees and applies algebraic identities that give exactly the same
+ * results in floating point arithmetic:
+ * <ul>
+ * <li><code>x*1</code>, <code>1*x</code>, <code>x/1</code> and <code>x^1</code> are replaced by <code>x</code>;</li>
+ * <li><code>x+0</code>, <code>0+x</code> and <code>x-0</code> are replaced by <code>x</code>;</li>
+ * <li><code>--x</code> is replaced by <code>x</code>, <code>a+(-b)</code> by <code>a-b</code>, <code>a-(-b)</code>
+ * by <code>a+b</code> and <code>(-a)*(-b)</code> and <code>(-a)/(-b)</code> drop both signs;</li>
+ * <li><code>if(c, a, b)</code> is replaced by a or b when c is a constant.</li>
+ * </ul>
+ * The only observable difference is that <code>x+0</code> gives 0 instead of -0 when x is -0.
+ * 
+ * Constant subtrees, including calls to registered functions, are evaluated with the same
+ * code and epsilon the expression is evaluated with, so operations that always fail, like
+ * <code>3/0</code> or <code>x/0</code>, raise their <code>ParserException</code> at compile time.
+ */
+final class Simplifier extends TreeRewriter {
+	private final double epsilon;
+	private final EvaluationFrame frame = new EvaluationFrame();
+
+	Simplifier(double epsilon) {
+		this.epsilon = epsilon;
+	}
+
+	@Override
+	protected Node visit(Node node) throws ParserException {
+		//constants and variables, but not calls without arguments
+		if (node.children.length == 0 && node.op != Opcodes.CALL)
+			return node;
+
+		if (allConstants(node))
+			return Node.constant(fold(node));
+
+		Node a = node.child(0);
+		Node b = node.children.length > 1 ? node.child(1) : null;
+
+		switch (node.op) {
+			case Opcodes.NEG:
+				if (a.op == Opcodes.NEG)
+					return a.child(0);
+			break;
+
+			case Opcodes.ADD:
+				if (b.isConstant(0))
+					return a;
+				if (a.isConstant(0))
+					return b;
+				if (b.op == Opcodes.NEG)
+					return Node.operation(Opcodes.SUB, a, b.child(0));
+				if (a.op == Opcodes.NEG)
+					return Node.operation(Opcodes.SUB, b, a.child(0));
+			break;
+
+			case Opcodes.SUB:
+				if (b.isConstant(0))
+					return a;
+				if (b.op == Opcodes.NEG)
+					return Node.operation(Opcodes.ADD, a, b.child(0));
+			break;
+
+			case Opcodes.MUL:
+				if (b.isConstant(1))
+					return a;
+				if (a.isConstant(1))
+					return b;
+				if (a.op == Opcodes.NEG && b.op == Opcodes.NEG)
+					return Node.operation(Opcodes.MUL, a.child(0), b.child(0));
+			break;
+
+			case Opcodes.DIV:
+				//whatever the dividend is, this division always fails
+				if (b.isConstant() && Math.abs(b.value) < epsilon)
+					throw new ParserException("Attempt to divide by zero.", Kind.DIVISION_BY_ZERO);
+				if (b.isConstant(1))
+					return a;
+				if (a.op == Opcodes.NEG && b.op == Opcodes.NEG)
+					return Node.operation(Opcodes.DIV, a.child(0), b.child(0));
+			break;
+
+			case Opcodes.POW:
+				if (b.isConstant(1))
+					return a;
+			break;
+
+			case Opcodes.SELECT:
+				if (a.isConstant())
+					return a.value != 0 ? b : node.child(2);
+			break;
+		}
+
+		return node;
+	}
+
+	private static boolean allConstants(Node node) {
+		for (Node child : node.children)
+			if (!child.isConstant())
+				return false;
+
+		return true;
+	}
+
+	/* Evaluates an operation over constants exactly as the interpreter would */
+	private double fold(Node node) throws ParserException {
+		return Interpreter.run(ProgramBuilder.lower(node), epsilon, null, frame);
+	}
+}
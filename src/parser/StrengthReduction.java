@@ -0,0 +1,78 @@
+package parser;
+
+import exceptions.ParserException;
+
+/**
+ * Replaces expensive operations by cheaper ones:
+ * <ul>
+ * <li><code>x^n</code>, for an integer n from 2 to <code>MAX_EXPONENT</code>, is replaced by
+ * multiplications, squaring x repeatedly. The product is within (n-1) roundings of the exact
+ * power, while <code>Math.pow</code> is within one, so they may differ in the last bits;</li>
+ * <li><code>x^0.5</code> is replaced by <code>sqrt(x)</code>, which only differs from
+ * <code>Math.pow</code> for -0 and minus infinity;</li>
+ * <li><code>x/c</code>, for a constant c, is replaced by <code>x*(1/c)</code> when c is a power of
+ * two, so the reciprocal is exact and the results are the same, or for any c if relaxed
+ * arithmetic was allowed.</li>
+ * </ul>
+ * The rewritten operations can't fail: exponents and divisors closer to zero than epsilon are
+ * left alone, so their <code>ParserException</code> conditions still apply.
+ */
+final class StrengthReduction extends TreeRewriter {
+	/** The largest exponent replaced by multiplications */
+	static final int MAX_EXPONENT = 8;
+
+	private final double epsilon;
+	private final boolean relaxed;
+
+	StrengthReduction(double epsilon, boolean relaxed) {
+		this.epsilon = epsilon;
+		this.relaxed = relaxed;
+	}
+
+	@Override
+	protected Node visit(Node node) throws ParserException {
+		if (node.children.length != 2 || !node.child(1).isConstant())
+			return node;
+
+		Node a = node.child(0);
+		double c = node.child(1).value;
+
+		switch (node.op) {
+			case Opcodes.POW:
+				//0^0 is checked against the exponent
+				if (Math.abs(c) < epsilon)
+					break;
+				if (c == 0.5)
+					return Node.operation(Opcodes.SQRT, a);
+				if (c >= 2 && c <= MAX_EXPONENT && c == Math.rint(c))
+					return power(a, (int) c);
+			break;
+
+			case Opcodes.DIV:
+				double reciprocal = 1 / c;
+
+				if (Math.abs(c) < epsilon || Double.isInfinite(reciprocal) || reciprocal == 0)
+					break;
+				if (relaxed || isPowerOfTwo(c))
+					return Node.operation(Opcodes.MUL, a, Node.constant(reciprocal));
+			break;
+		}
+
+		return node;
+	}
+
+	/* Builds x^n by squaring, sharing the node of each partial power between both factors */
+	private static Node power(Node x, int n) {
+		if (n == 1)
+			return x;
+
+		Node half = power(x, n / 2);
+		Node square = Node.operation(Opcodes.MUL, half, half);
+
+		return n % 2 == 0 ? square : Node.operation(Opcodes.MUL, square, x);
+	}
+
+	static boolean isPowerOfTwo(double c) {
+		return (Double.doubleToRawLongBits(c) & 0x000fffffffffffffL) == 0 && Math.getExponent(c) >= Double.MIN_EXPONENT;
+	}
+}
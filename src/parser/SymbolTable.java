@@ -0,0 +1,112 @@
+package parser;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import lexer.Lexer;
+
+/**
+ * Names the variables of expressions, such as <code>spot</code>, <code>vol</code> and
+ * <code>rate</code>, instead of x[0] .. x[n-1]. Each name is bound to a slot, its position in
+ * the table, when an expression is compiled (see <code>ExpressionCompiler.setSymbols()</code>),
+ * so the expression is evaluated with an array holding the value of each slot:
+ * <pre>
+ * SymbolTable symbols = new SymbolTable("spot", "vol", "rate");
+ * double[] slots = new double[symbols.size()];
+ * slots[symbols.getSlot("vol")] = 0.2;
+ * </pre>
+ * Evaluating never looks names up, and changing a variable is a write into the array.
+ *
+ * Tables are immutable, so they can be shared between threads and compilers.
+ */
+public final class SymbolTable {
+	private final List<String> names;
+	private final Map<String, Integer> slots;
+
+	/**
+	 * @param names The variables's names, made only of the letters a-z, in slot order. Case is ignored.
+	 * @throws IllegalArgumentException if there are no names, if a name is not valid, is a built-in
+	 * name (such as x, e or a function) or is repeated.
+	 */
+	public SymbolTable(String... names) {
+		if (names.length == 0)
+			throw new IllegalArgumentException("A symbol table needs at least one variable.");
+
+		String[] checked = new String[names.length];
+		Map<String, Integer> slots = new HashMap<>();
+
+		for (int i = 0; i < names.length; i++) {
+			checked[i] = check(names[i]);
+
+			if (slots.put(checked[i], i) != null)
+				throw new IllegalArgumentException("The variable " + checked[i] + " is repeated.");
+		}
+
+		this.names = Collections.unmodifiableList(Arrays.asList(checked));
+		this.slots = slots;
+	}
+
+	/**
+	 * @return How many variables there are, which is the length of the slots arrays.
+	 */
+	public int size() {
+		return names.size();
+	}
+
+	/**
+	 * @return The slot of the variable called <code>name</code>, or -1 if there is no such variable.
+	 */
+	public int getSlot(String name) {
+		Integer slot = slots.get(name.toLowerCase(Locale.ROOT));
+
+		return slot == null ? -1 : slot;
+	}
+
+	/**
+	 * @return The name of the variable in <code>slot</code>.
+	 */
+	public String getName(int slot) {
+		return names.get(slot);
+	}
+
+	/**
+	 * @return The variables's names, in slot order.
+	 */
+	public List<String> getNames() {
+		return this.names;
+	}
+
+	private static String check(String name) {
+		name = name.toLowerCase(Locale.ROOT);
+
+		if (name.isEmpty())
+			throw new IllegalArgumentException("Variable names can't be empty.");
+
+		for (int i = 0; i < name.length(); i++)
+			if (name.charAt(i) < 'a' || name.charAt(i) > 'z')
+				throw new IllegalArgumentException("Variable names can only have the letters a-z.");
+
+		if (Lexer.isReserved(name))
+			throw new IllegalArgumentException(name + " is already a built-in name.");
+
+		return name;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof SymbolTable && names.equals(((SymbolTable) other).names);
+	}
+
+	@Override
+	public int hashCode() {
+		return names.hashCode();
+	}
+
+	public String toString() {
+		return names.toString();
+	}
+}
@@ -0,0 +1,129 @@
+package parser;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Queue;
+
+import lexer.DecimalToken;
+import lexer.FunctionToken;
+import lexer.IntegerToken;
+import lexer.Token;
+import lexer.VariableToken;
+import exceptions.ParserException;
+import exceptions.ParserException.Kind;
+
+/**
+ * Builds the expression tree from the RPN produced by <code>ShuntingYard</code>, reporting
+ * malformed expressions at compile time.
+ */
+final class TreeBuilder {
+	private TreeBuilder() { }
+
+	/**
+	 * @param rpn The expression in RPN notation.
+	 * @param functions The registered functions, by name, which calls are bound to.
+	 * @return The expression's tree.
+	 * @throws ParserException If the expression is malformed or calls a function with the wrong
+	 * amount of arguments.
+	 */
+	static Node build(Queue<Token> rpn, Map<String, Call> functions) throws ParserException {
+		Deque<Node> operands = new ArrayDeque<>();
+
+		for (Token element : rpn) {
+			switch (element.getType()) {
+				case NUM:
+					if (element instanceof DecimalToken)
+						operands.push(Node.constant(((DecimalToken)element).getValue()));
+					else // can only be a IntegerToken
+						operands.push(Node.constant(((IntegerToken)element).getValue()));
+				break;
+
+				case VAR: operands.push(Node.variable(((VariableToken)element).getIndex())); break;
+
+				case ADD: binary(operands, Opcodes.ADD); break;
+				case SUB: binary(operands, Opcodes.SUB); break;
+				case MUL: binary(operands, Opcodes.MUL); break;
+				case DIV: binary(operands, Opcodes.DIV); break;
+				case POW: binary(operands, Opcodes.POW); break;
+				case NEG: unary(operands, Opcodes.NEG); break;
+
+				case LT: binary(operands, Opcodes.LT); break;
+				case LE: binary(operands, Opcodes.LE); break;
+				case GT: binary(operands, Opcodes.GT); break;
+				case GE: binary(operands, Opcodes.GE); break;
+				case EQ: binary(operands, Opcodes.EQ); break;
+				case NE: binary(operands, Opcodes.NE); break;
+
+				case POS:
+					//a dummy sign, which doesn't produce any node
+				break;
+
+				case FUN:
+					FunctionToken function = (FunctionToken) element;
+
+					if (function.getFunctionID() != null)
+						operation(operands, Opcodes.forFunction(function.getFunctionID()), function.getArguments());
+					else
+						call(operands, functions.get(function.getName()), function);
+				break;
+
+				case COM:
+					throw new ParserException("Commas are not allowed. Use '.' as decimal separator.", Kind.MALFORMED);
+
+				default:
+					throw new ParserException("Unknown error.");
+			}
+		}
+
+		//either nothing was parsed or there are operands without operators between them
+		if (operands.size() != 1)
+			throw new ParserException("Malformed expression.", Kind.MALFORMED);
+
+		return operands.pop();
+	}
+
+	/* Pops the arguments of a built-in function, the last one first */
+	private static void operation(Deque<Node> operands, int op, int arity) throws ParserException {
+		Node[] arguments = new Node[arity];
+
+		for (int i = arity - 1; i >= 0; i--)
+			arguments[i] = pop(operands);
+
+		operands.push(Node.operation(op, arguments));
+	}
+
+	private static void unary(Deque<Node> operands, int op) throws ParserException {
+		operands.push(Node.operation(op, pop(operands)));
+	}
+
+	private static void binary(Deque<Node> operands, int op) throws ParserException {
+		Node right = pop(operands);
+		Node left = pop(operands);
+
+		operands.push(Node.operation(op, left, right));
+	}
+
+	/* Binds a call to the registered function, popping its arguments */
+	private static void call(Deque<Node> operands, Call call, FunctionToken function) throws ParserException {
+		if (call == null)
+			throw new ParserException("Unknown function " + function.getName() + ".", Kind.MALFORMED);
+
+		if (call.arity != function.getArguments())
+			throw new ParserException("Function " + call.name + " takes " + call.arity + " arguments, but "
+					+ function.getArguments() + " were given.", Kind.MALFORMED);
+
+		Node[] arguments = new Node[call.arity];
+		for (int i = arguments.length - 1; i >= 0; i--)
+			arguments[i] = pop(operands);
+
+		operands.push(Node.call(call, arguments));
+	}
+
+	private static Node pop(Deque<Node> operands) throws ParserException {
+		if (operands.isEmpty())
+			throw new ParserException("Malformed expression.", Kind.MALFORMED);
+
+		return operands.pop();
+	}
+}
@@ -0,0 +1,45 @@
+package parser;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import exceptions.ParserException;
+
+/**
+ * Base class of the optimization passes. A pass rewrites the tree bottom-up: each node is
+ * visited once, after its children were already rewritten.
+ */
+abstract class TreeRewriter {
+
+	/**
+	 * @param root The tree to be rewritten, which is left unchanged.
+	 * @return The rewritten tree.
+	 */
+	final Node rewrite(Node root) throws ParserException {
+		Map<Node, Node> rewritten = new IdentityHashMap<>();
+
+		for (Node node : Node.postOrder(root)) {
+			Node[] children = node.children;
+
+			for (int i = 0; i < children.length; i++) {
+				Node child = rewritten.get(children[i]);
+
+				if (child != children[i]) {
+					if (children == node.children)
+						children = children.clone();
+					children[i] = child;
+				}
+			}
+
+			rewritten.put(node, visit(children == node.children ? node : node.withChildren(children)));
+		}
+
+		return rewritten.get(root);
+	}
+
+	/**
+	 * @param node A node whose children were already rewritten.
+	 * @return The node replacing <code>node</code>, which may be <code>node</code> itself.
+	 */
+	protected abstract Node visit(Node node) throws ParserException;
+}
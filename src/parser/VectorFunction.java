@@ -0,0 +1,16 @@
+package parser;
+
+import exceptions.ParserException;
+
+/**
+ * A function of the indexed variables x[0] .. x[n-1].
+ */
+public interface VectorFunction {
+	/**
+	 * @param x The values x[0] .. x[n-1] are replaced by.
+	 * @return The function's value.
+	 * @throws ParserException if a illegal mathematical operation is performed or a
+	 * variable is not set.
+	 */
+	double evaluate(double[] x) throws ParserException;
+}
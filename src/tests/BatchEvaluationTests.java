@@ -0,0 +1,371 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import parser.CompiledExpression;
+import parser.EvaluationFlags;
+import parser.EvaluationFrame;
+import parser.ExpressionCompiler;
+import parser.FunctionRegistry;
+import parser.ScalarFunction;
+import parser.VectorFunction;
+import exceptions.LexerException;
+import exceptions.ParserException;
+
+public class BatchEvaluationTests {
+	private static double DELTA = 1e-12;
+
+	ExpressionCompiler compiler;
+
+	@Before
+	public void setUp() throws Exception {
+		compiler = new ExpressionCompiler();
+	}
+
+	@Test public void scalarColumn() throws LexerException, ParserException {
+		compiler.setScalarVariable();
+		CompiledExpression e = compiler.compile("x^2 - 3*sin(x) + sec(x)/2");
+		double[] x = new double[1000];
+		double[] out = new double[x.length];
+
+		for (int i = 0; i < x.length; i++)
+			x[i] = i / 700.0;
+
+		e.evaluateBatch(x, out);
+
+		for (int i = 0; i < x.length; i++)
+			assertEquals(e.evaluate(x[i]), out[i], DELTA);
+	}
+
+	@Test public void indexedColumns() throws LexerException, ParserException {
+		compiler.setIndexedVariables(3);
+		CompiledExpression e = compiler.compile("x[0]*x[1] - x[2]/(1 + x[0]^2) + ln(2 + cos(x[1]))");
+		Random random = new Random(42);
+		int rows = 777;
+		double[][] columns = new double[3][rows];
+		double[] out = new double[rows];
+
+		for (double[] column : columns)
+			for (int r = 0; r < rows; r++)
+				column[r] = random.nextGaussian();
+
+		e.evaluateBatch(columns, out);
+
+		for (int r = 0; r < rows; r++)
+			assertEquals(e.evaluate(columns[0][r], columns[1][r], columns[2][r]), out[r], DELTA);
+	}
+
+	@Test public void constantExpression() throws LexerException, ParserException {
+		double[] out = new double[300];
+
+		compiler.compile("2*pi").evaluateBatch(new double[0][], out);
+
+		for (double value : out)
+			assertEquals(2 * Math.PI, value, DELTA);
+	}
+
+	@Test public void rowRange() throws LexerException, ParserException {
+		compiler.setScalarVariable();
+		CompiledExpression e = compiler.compile("x+1");
+		double[] out = new double[10];
+
+		e.evaluateBatch(new EvaluationFrame(), new double[][] {{0, 1, 2, 3, 4, 5, 6, 7, 8, 9}}, out, 3, 6);
+
+		assertEquals(0, out[2], DELTA);
+		assertEquals(4, out[3], DELTA);
+		assertEquals(6, out[5], DELTA);
+		assertEquals(0, out[6], DELTA);
+	}
+
+	@Test (expected=ParserException.class)
+	public void divisionByZeroInOneRow() throws LexerException, ParserException {
+		compiler.setScalarVariable();
+		double[] x = new double[500];
+
+		for (int i = 0; i < x.length; i++)
+			x[i] = i - 400;
+
+		compiler.compile("1/x").evaluateBatch(x, new double[x.length]);
+	}
+
+	@Test (expected=ParserException.class)
+	public void missingColumn() throws LexerException, ParserException {
+		compiler.setIndexedVariables(2);
+		compiler.compile("x[0]+x[1]").evaluateBatch(new double[][] {{1}}, new double[1]);
+	}
+
+	@Test public void parallelMatchesBatch() throws LexerException, ParserException {
+		compiler.setIndexedVariables(2);
+		CompiledExpression e = compiler.compile("sin(x[0])*cos(x[1]) + x[0]/(1 + x[1]^2)");
+		int rows = 200000;
+		double[][] columns = new double[2][rows];
+		double[] expected = new double[rows];
+		double[] out = new double[rows];
+		ForkJoinPool pool = new ForkJoinPool(4);
+
+		for (int r = 0; r < rows; r++) {
+			columns[0][r] = r * 0.001;
+			columns[1][r] = -r * 0.002;
+		}
+
+		try {
+			e.evaluateBatch(columns, expected);
+			e.evaluateParallel(pool, columns, out);
+		}
+		finally {
+			pool.shutdown();
+		}
+
+		for (int r = 0; r < rows; r++)
+			assertEquals(expected[r], out[r], 0);
+	}
+
+	@Test public void parallelSmallInput() throws LexerException, ParserException {
+		compiler.setScalarVariable();
+		double[] out = new double[3];
+
+		compiler.compile("x*2").evaluateParallel(new double[][] {{1, 2, 3}}, out);
+		assertEquals(6, out[2], DELTA);
+	}
+
+	@Test (expected=ParserException.class)
+	public void parallelDivisionByZero() throws LexerException, ParserException {
+		compiler.setScalarVariable();
+		double[] x = new double[1000000];
+
+		for (int i = 0; i < x.length; i++)
+			x[i] = i - 654321;
+
+		compiler.compile("ln(x^2)/x").evaluateParallel(new double[][] {x}, new double[x.length]);
+	}
+
+	/* Writes values as little-endian doubles into a temporary file */
+	private static Path write(double[] values) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(8 * values.length).order(ByteOrder.LITTLE_ENDIAN);
+		Path file = Files.createTempFile("rows", ".bin");
+
+		bytes.asDoubleBuffer().put(values);
+		Files.write(file, bytes.array());
+		file.toFile().deleteOnExit();
+		return file;
+	}
+
+	private static double[] read(Path file) throws IOException {
+		double[] values = new double[(int) (Files.size(file) / 8)];
+
+		ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(values);
+		return values;
+	}
+
+	@Test public void fileRows() throws LexerException, ParserException, IOException {
+		compiler.setIndexedVariables(3);
+		CompiledExpression e = compiler.compile("x[0]*x[2] - sin(x[2])");
+		int rows = 400000;
+		double[] values = new double[3 * rows];
+
+		for (int i = 0; i < values.length; i++)
+			values[i] = i * 0.0001;
+
+		Path input = write(values);
+		Path output = write(new double[0]);
+		Path parallel = write(new double[0]);
+		ForkJoinPool pool = new ForkJoinPool(4);
+
+		try {
+			assertEquals(rows, e.evaluateFile(input, output));
+			assertEquals(rows, e.evaluateFile(pool, input, parallel));
+		}
+		finally {
+			pool.shutdown();
+		}
+
+		double[] out = read(output);
+		double[] out2 = read(parallel);
+
+		assertEquals(rows, out.length);
+		for (int r = 0; r < rows; r++) {
+			double expected = e.evaluate(values[3 * r], values[3 * r + 1], values[3 * r + 2]);
+
+			assertEquals(expected, out[r], 0);
+			assertEquals(expected, out2[r], 0);
+		}
+	}
+
+	@Test public void filesAreReleasedAfterwards() throws LexerException, ParserException, IOException {
+		compiler.setScalarVariable();
+		CompiledExpression e = compiler.compile("x/2");
+		Path input = write(new double[1200000]);
+		Path output = write(new double[0]);
+
+		//several chunks, each unmapped once evaluated, so the files can be replaced at once
+		assertEquals(1200000, e.evaluateFile(input, output));
+		Files.delete(input);
+		Files.delete(output);
+	}
+
+	@Test public void emptyFile() throws LexerException, ParserException, IOException {
+		compiler.setScalarVariable();
+		Path output = write(new double[] {1, 2});
+
+		assertEquals(0, compiler.compile("x").evaluateFile(write(new double[0]), output));
+		assertEquals(0, Files.size(output));
+	}
+
+	@Test (expected=IOException.class)
+	public void partialRow() throws LexerException, ParserException, IOException {
+		compiler.setIndexedVariables(2);
+		compiler.compile("x[0]+x[1]").evaluateFile(write(new double[] {1, 2, 3}), write(new double[0]));
+	}
+
+	@Test (expected=ParserException.class)
+	public void fileDivisionByZero() throws LexerException, ParserException, IOException {
+		compiler.setScalarVariable();
+		double[] x = new double[1000000];
+
+		for (int i = 0; i < x.length; i++)
+			x[i] = i - 765432;
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+
+		try {
+			compiler.compile("1/x").evaluateFile(pool, write(x), write(new double[0]));
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test (expected=IllegalArgumentException.class)
+	public void shortResults() throws LexerException, ParserException {
+		compiler.setIndexedVariables(2);
+		compiler.compile("x[0] + x[1]").evaluateBatch(new EvaluationFrame(), new double[][] {{1, 2, 3}, {4, 5, 6}},
+				new double[2], 0, 3);
+	}
+
+	@Test public void flagsInsteadOfExceptions() throws LexerException, ParserException {
+		compiler.setIndexedVariables(2);
+		CompiledExpression e = compiler.compile("x[0]/x[1] + ln(x[0]) + x[0]^x[1] + csc(x[1])");
+		double[][] columns = {{1, 2, 0, -1, 3}, {1, 0, 0, 2, 1e-12}};
+		double[] out = new double[5];
+		byte[] flags = {9, 9, 9, 9, 9};
+
+		e.evaluateBatch(columns, out, flags);
+
+		assertEquals(0, flags[0]);
+		assertEquals(e.evaluate(1, 1), out[0], DELTA);
+		assertEquals(EvaluationFlags.DIVISION_BY_ZERO | EvaluationFlags.TRIGONOMETRIC_POLE, flags[1]);
+		assertEquals(Double.POSITIVE_INFINITY, out[1], 0);
+		assertEquals(EvaluationFlags.DIVISION_BY_ZERO | EvaluationFlags.LOGARITHM_OF_ZERO
+				| EvaluationFlags.ZERO_TO_THE_ZERO | EvaluationFlags.TRIGONOMETRIC_POLE, flags[2]);
+		assertEquals(EvaluationFlags.LOGARITHM_OF_ZERO, flags[3]);
+		assertEquals(Double.NaN, out[3], 0);
+
+		//close to zero without being zero: flagged, but the result is finite
+		assertEquals(EvaluationFlags.DIVISION_BY_ZERO | EvaluationFlags.TRIGONOMETRIC_POLE, flags[4]);
+		assertEquals(3 / 1e-12 + Math.log(3) + Math.pow(3, 1e-12) + 1 / Math.sin(1e-12), out[4], 1e3);
+	}
+
+	@Test (expected=IllegalArgumentException.class)
+	public void shortResultsWithFlags() throws LexerException, ParserException {
+		compiler.setScalarVariable();
+		compiler.compile("1/x").evaluateBatch(new EvaluationFrame(), new double[][] {{1, 0, 2}}, new double[2],
+				new byte[3], 0, 3);
+	}
+
+	@Test public void flagsInParallel() throws LexerException, ParserException {
+		compiler.setScalarVariable();
+		CompiledExpression e = compiler.compile("1/x + sec(x)");
+		double[] x = new double[1000000];
+		double[] out = new double[x.length];
+		byte[] flags = new byte[x.length];
+		ForkJoinPool pool = new ForkJoinPool(4);
+
+		for (int i = 0; i < x.length; i++)
+			x[i] = i - 654321;
+
+		try {
+			e.evaluateParallel(pool, new double[][] {x}, out, flags);
+		}
+		finally {
+			pool.shutdown();
+		}
+
+		for (int i = 0; i < x.length; i++)
+			if (i == 654321) {
+				assertEquals(EvaluationFlags.DIVISION_BY_ZERO, flags[i]);
+				assertEquals(Double.POSITIVE_INFINITY, out[i], 0);
+			}
+			else {
+				assertEquals(0, flags[i]);
+				assertEquals(e.evaluate(x[i]), out[i], DELTA);
+			}
+	}
+
+	@Test public void failedFunctionsAreFlagged() throws LexerException, ParserException {
+		FunctionRegistry functions = new FunctionRegistry();
+		functions.register("root", new ScalarFunction() {
+			public double evaluate(double x) throws ParserException {
+				if (x < 0)
+					throw new ParserException("Negative root.");
+				return Math.sqrt(x);
+			}
+		});
+		functions.register("ratio", 2, new VectorFunction() {
+			public double evaluate(double[] x) throws ParserException {
+				if (x[1] == 0)
+					throw new ParserException("Zero ratio.");
+				return x[0] / x[1];
+			}
+		});
+
+		compiler.setFunctions(functions);
+		compiler.setIndexedVariables(2);
+		CompiledExpression e = compiler.compile("root(x[0]) + ratio(x[0], x[1])");
+		double[][] columns = new double[2][600];
+		double[] out = new double[600];
+		byte[] flags = new byte[600];
+
+		for (int i = 0; i < out.length; i++) {
+			columns[0][i] = i % 3 == 0 ? -i : i;
+			columns[1][i] = i % 5 == 0 ? 0 : 2;
+		}
+
+		e.evaluateBatch(columns, out, flags);
+		for (int i = 0; i < out.length; i++) {
+			int expected = (columns[0][i] < 0 || columns[1][i] == 0 ? EvaluationFlags.FUNCTION_FAILED : 0);
+
+			assertEquals(expected, flags[i]);
+			if (expected == 0)
+				assertEquals(e.evaluate(columns[0][i], columns[1][i]), out[i], DELTA);
+			else
+				assertEquals(Double.NaN, out[i], 0);
+		}
+	}
+
+	@Test (expected=ParserException.class)
+	public void failedFunctionThrowsWithoutFlags() throws LexerException, ParserException {
+		FunctionRegistry functions = new FunctionRegistry();
+		functions.register("root", new ScalarFunction() {
+			public double evaluate(double x) throws ParserException {
+				if (x < 0)
+					throw new ParserException("Negative root.");
+				return Math.sqrt(x);
+			}
+		});
+
+		compiler.setFunctions(functions);
+		compiler.setScalarVariable();
+		compiler.compile("root(x)").evaluateBatch(new double[] {4, -1}, new double[2]);
+	}
+}
@@ -0,0 +1,90 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import parser.BytecodeCompiler;
+import parser.CompiledExpression;
+import parser.ExpressionCompiler;
+import parser.ScalarFunction;
+import parser.VectorFunction;
+import exceptions.LexerException;
+import exceptions.ParserException;
+
+public class BytecodeCompilerTests {
+	private static double DELTA = 1e-12;
+
+	ExpressionCompiler compiler;
+
+	@Before
+	public void setUp() throws Exception {
+		compiler = new ExpressionCompiler();
+	}
+
+	@Test public void constantExpression() throws LexerException, ParserException {
+		VectorFunction f = BytecodeCompiler.toVectorFunction(compiler.compile("5+3*cos(ln(e) - 1)"));
+		assertEquals(8, f.evaluate(null), DELTA);
+	}
+
+	@Test public void scalarMatchesInterpreter() throws LexerException, ParserException {
+		compiler.setScalarVariable();
+		CompiledExpression e = compiler.compile("sin(x)^2 - sec(x)/3 + tanh(x)*atan(x) - -x + ln(x)");
+		ScalarFunction f = BytecodeCompiler.toScalarFunction(e);
+
+		for (double x = 0.1; x < 10; x += 0.37)
+			assertEquals(e.evaluate(x), f.evaluate(x), DELTA);
+	}
+
+	@Test public void vectorMatchesInterpreter() throws LexerException, ParserException {
+		compiler.setIndexedVariables(3);
+		CompiledExpression e = compiler.compile("x[0]^x[1] / (x[2] + 1) - csc(x[1]) * ctg(x[0])");
+		VectorFunction f = BytecodeCompiler.toVectorFunction(e);
+		double[] x = {1.5, 2.5, 300};
+
+		assertEquals(e.evaluate(x), f.evaluate(x), DELTA);
+	}
+
+	@Test (expected=ParserException.class)
+	public void divisionByZero() throws LexerException, ParserException {
+		compiler.setScalarVariable();
+		BytecodeCompiler.toScalarFunction(compiler.compile("1/x")).evaluate(0);
+	}
+
+	@Test (expected=ParserException.class)
+	public void zeroPowerZero() throws LexerException, ParserException {
+		compiler.setScalarVariable();
+		BytecodeCompiler.toScalarFunction(compiler.compile("x^x")).evaluate(0);
+	}
+
+	@Test (expected=ParserException.class)
+	public void invalidLn() throws LexerException, ParserException {
+		compiler.setIndexedVariables(2);
+		BytecodeCompiler.toVectorFunction(compiler.compile("ln(x[1])")).evaluate(new double[] {1, -1});
+	}
+
+	@Test (expected=ParserException.class)
+	public void missingVariable() throws LexerException, ParserException {
+		compiler.setIndexedVariables(2);
+		BytecodeCompiler.toVectorFunction(compiler.compile("x[1]")).evaluate(new double[] {1});
+	}
+
+	@Test (expected=ParserException.class)
+	public void indexedExpressionAsScalar() throws LexerException, ParserException {
+		compiler.setIndexedVariables(2);
+		BytecodeCompiler.toScalarFunction(compiler.compile("x[0]+x[1]"));
+	}
+
+	@Test public void largeExpressionFallsBack() throws LexerException, ParserException {
+		StringBuilder buffer = new StringBuilder("x");
+		for (int i = 0; i < 12000; i++)
+			buffer.append("+x*" + i);
+
+		compiler.setScalarVariable();
+		CompiledExpression e = compiler.compile(buffer.toString());
+		ScalarFunction f = BytecodeCompiler.toScalarFunction(e);
+
+		assertEquals(e.evaluate(2), f.evaluate(2), 1e-6);
+	}
+}
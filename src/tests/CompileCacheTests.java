@@ -0,0 +1,145 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import parser.CompileCache;
+import parser.CompiledExpression;
+import parser.ExpressionCompiler;
+import exceptions.LexerException;
+import exceptions.ParserException;
+
+public class CompileCacheTests {
+	CompileCache cache;
+	ExpressionCompiler compiler;
+
+	@Before
+	public void setUp() throws Exception {
+		cache = new CompileCache(4);
+		compiler = new ExpressionCompiler();
+		compiler.setCache(cache);
+	}
+
+	@Test public void repeatedCompilationIsCached() throws LexerException, ParserException {
+		CompiledExpression first = compiler.compile("2*3");
+
+		assertSame(first, compiler.compile("2*3"));
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test public void cacheIsSharedByCompilers() throws LexerException, ParserException {
+		ExpressionCompiler other = new ExpressionCompiler();
+		other.setCache(cache);
+
+		assertSame(compiler.compile("2*3"), other.compile("2*3"));
+	}
+
+	@Test public void keyIncludesVariablesConfiguration() throws LexerException, ParserException {
+		compiler.setIndexedVariables(2);
+		CompiledExpression indexed = compiler.compile("x[0]*x[1]");
+
+		compiler.setIndexedVariables(3);
+		CompiledExpression larger = compiler.compile("x[0]*x[1]");
+
+		assertNotSame(indexed, larger);
+		assertEquals(3, larger.getMaxDimension());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test public void keyIncludesEpsilon() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("1/3");
+
+		compiler.setEpsilon(1e-3);
+		assertNotSame(e, compiler.compile("1/3"));
+	}
+
+	@Test public void leastRecentlyUsedIsEvicted() throws LexerException, ParserException {
+		for (int i = 0; i < 4; i++)
+			compiler.compile("1+" + i);
+
+		//keeps 1+0 referenced, so another expression is evicted
+		CompiledExpression kept = compiler.compile("1+0");
+		compiler.compile("1+4");
+
+		assertEquals(4, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertSame(kept, compiler.compile("1+0"));
+	}
+
+	@Test public void failuresAreNotCached() throws LexerException, ParserException {
+		try {
+			compiler.compile("3/0");
+		}
+		catch (ParserException e) { }
+
+		assertEquals(0, cache.size());
+	}
+
+	@Test public void concurrentClearAndPut() throws Exception {
+		final CompileCache shared = new CompileCache(64);
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		final AtomicBoolean compiling = new AtomicBoolean(true);
+		Thread[] threads = new Thread[4];
+
+		for (int t = 0; t < threads.length; t++) {
+			final int id = t;
+
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					ExpressionCompiler own = new ExpressionCompiler();
+					own.setCache(shared);
+
+					try {
+						for (int i = 0; i < 20000; i++)
+							own.compile(id + "+" + i);
+					}
+					catch (Exception e) {
+						failure.set(e);
+					}
+				}
+			});
+			threads[t].start();
+		}
+
+		Thread clearing = new Thread(new Runnable() {
+			public void run() {
+				while (compiling.get())
+					shared.clear();
+			}
+		});
+		clearing.start();
+
+		for (Thread thread : threads)
+			thread.join();
+
+		compiling.set(false);
+		clearing.join();
+
+		if (failure.get() != null)
+			throw failure.get();
+
+		//a key left in the ring without its entry, or the reverse, would skew the evictions below
+		int before = shared.size();
+		long evictions = shared.getEvictions();
+
+		compiler.setCache(shared);
+		for (int i = 0; i < 64; i++)
+			compiler.compile("2*" + i);
+
+		assertEquals(64, shared.size());
+		assertEquals(before, shared.getEvictions() - evictions);
+	}
+
+	@Test (expected=IllegalArgumentException.class)
+	public void invalidCapacity() {
+		new CompileCache(0);
+	}
+}
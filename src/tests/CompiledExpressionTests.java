@@ -0,0 +1,108 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import parser.CompiledExpression;
+import parser.EvaluationFrame;
+import parser.ExpressionCompiler;
+import exceptions.LexerException;
+import exceptions.ParserException;
+
+public class CompiledExpressionTests {
+	private static double DELTA = 1e-9;
+
+	ExpressionCompiler compiler;
+
+	@Before
+	public void setUp() throws Exception {
+		compiler = new ExpressionCompiler();
+	}
+
+	@Test public void constantExpression() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("5+3*cos(ln(e) - 1)");
+		assertEquals(8, e.evaluate(), DELTA);
+	}
+
+	@Test public void scalarVariable() throws LexerException, ParserException {
+		compiler.setScalarVariable();
+		CompiledExpression e = compiler.compile("x^2");
+
+		EvaluationFrame frame = new EvaluationFrame();
+		assertEquals(4, e.evaluate(frame, 2), DELTA);
+		assertEquals(9, e.evaluate(frame, 3), DELTA);
+	}
+
+	@Test public void frameReusedAcrossExpressions() throws LexerException, ParserException {
+		compiler.setIndexedVariables(2);
+		CompiledExpression a = compiler.compile("x[0]-x[1]");
+		CompiledExpression b = compiler.compile("x[0]*x[1]");
+
+		EvaluationFrame frame = new EvaluationFrame();
+		assertEquals(-1, a.evaluate(frame, 2, 3), DELTA);
+		assertEquals(6, b.evaluate(frame, 2, 3), DELTA);
+	}
+
+	@Test (expected=ParserException.class)
+	public void missingVariable() throws LexerException, ParserException {
+		compiler.setIndexedVariables(3);
+		compiler.compile("x[2]").evaluate(1, 2);
+	}
+
+	@Test (expected=LexerException.class)
+	public void compilersAreIndependent() throws LexerException, ParserException {
+		ExpressionCompiler other = new ExpressionCompiler();
+		other.setScalarVariable();
+
+		compiler.compile("x+1");
+	}
+
+	@Test (expected=ParserException.class)
+	public void malformedExpressionRejectedOnCompile() throws LexerException, ParserException {
+		compiler.compile("3+");
+	}
+
+	@Test public void positiveSignsAreDropped() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("+(+3)");
+
+		assertEquals(1, e.getInstructionCount());
+		assertEquals(3, e.evaluate(), DELTA);
+	}
+
+	@Test public void concurrentEvaluation() throws Exception {
+		compiler.setScalarVariable();
+		final CompiledExpression e = compiler.compile("sin(x)^2 + cos(x)^2 + x");
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+
+		try {
+			List<Future<Double>> results = new ArrayList<>();
+
+			for (int t = 0; t < 8; t++)
+				results.add(pool.submit(new Callable<Double>() {
+					public Double call() throws ParserException {
+						EvaluationFrame frame = new EvaluationFrame();
+						double sum = 0;
+
+						for (int i = 0; i < 1000; i++)
+							sum += e.evaluate(frame, i);
+						return sum;
+					}
+				}));
+
+			for (Future<Double> f : results)
+				assertEquals(1000 + 999 * 1000 / 2, f.get(), 1e-6);
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+}
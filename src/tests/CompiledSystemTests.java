@@ -0,0 +1,98 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import parser.CompiledExpression;
+import parser.CompiledSystem;
+import parser.EvaluationFrame;
+import parser.ExpressionCompiler;
+import exceptions.LexerException;
+import exceptions.ParserException;
+
+public class CompiledSystemTests {
+	private static double DELTA = 1e-12;
+
+	ExpressionCompiler compiler;
+
+	@Before
+	public void setUp() throws Exception {
+		compiler = new ExpressionCompiler();
+		compiler.setIndexedVariables(3);
+	}
+
+	@Test public void everyOutput() throws LexerException, ParserException {
+		String[] expressions = {"x[0]*x[1] + sin(x[2])", "x[1]^2 - x[0]/x[2]", "ln(x[0]) * sin(x[2])", "7"};
+		CompiledSystem system = compiler.compileSystem(expressions);
+		double[] x = {2, 3, 0.5};
+		double[] out = new double[4];
+
+		system.evaluate(x, out);
+
+		assertEquals(4, system.getOutputCount());
+		for (int k = 0; k < expressions.length; k++)
+			assertEquals(expressions[k], compiler.compile(expressions[k]).evaluate(x), out[k], DELTA);
+	}
+
+	@Test public void subexpressionsSharedAcrossOutputs() throws LexerException, ParserException {
+		String[] expressions = {"sin(x[0]*x[1]) + 1", "sin(x[0]*x[1]) * x[2]", "cos(x[2]) - sin(x[0]*x[1])"};
+		CompiledSystem system = compiler.compileSystem(expressions);
+		int separate = 0;
+
+		for (String expression : expressions)
+			separate += compiler.compile(expression).getInstructionCount();
+
+		assertTrue(system.getEliminatedNodes() >= 4);
+		assertTrue(system.getInstructionCount() < separate);
+
+		double[] out = new double[3];
+		system.evaluate(new double[] {0.5, 2, 1}, out);
+		assertEquals(Math.sin(1) + 1, out[0], DELTA);
+		assertEquals(Math.sin(1), out[1], DELTA);
+		assertEquals(Math.cos(1) - Math.sin(1), out[2], DELTA);
+	}
+
+	@Test public void repeatedOutputs() throws LexerException, ParserException {
+		CompiledSystem system = compiler.compileSystem("x[0]+x[1]", "x[0]+x[1]", "x[2]");
+		double[] out = new double[3];
+
+		system.evaluate(new double[] {1, 2, 3}, out);
+		assertEquals(3, out[0], DELTA);
+		assertEquals(3, out[1], DELTA);
+		assertEquals(3, out[2], DELTA);
+	}
+
+	@Test public void batch() throws LexerException, ParserException {
+		CompiledSystem system = compiler.compileSystem("x[0]*x[1]", "sin(x[0]*x[1]) - x[2]");
+		CompiledExpression second = compiler.compile("sin(x[0]*x[1]) - x[2]");
+		int rows = 600;
+		double[][] columns = new double[3][rows];
+		double[][] out = new double[2][rows];
+
+		for (int r = 0; r < rows; r++) {
+			columns[0][r] = r * 0.01;
+			columns[1][r] = 1 - r * 0.003;
+			columns[2][r] = r;
+		}
+
+		system.evaluateBatch(new EvaluationFrame(), columns, out, 0, rows);
+
+		for (int r = 0; r < rows; r++) {
+			assertEquals(columns[0][r] * columns[1][r], out[0][r], DELTA);
+			assertEquals(second.evaluate(columns[0][r], columns[1][r], columns[2][r]), out[1][r], DELTA);
+		}
+	}
+
+	@Test (expected=ParserException.class)
+	public void illegalOperationInOneOutput() throws LexerException, ParserException {
+		compiler.compileSystem("x[0]", "1/x[1]").evaluate(new double[] {1, 0, 0}, new double[2]);
+	}
+
+	@Test (expected=IllegalArgumentException.class)
+	public void shortResults() throws LexerException, ParserException {
+		compiler.compileSystem("x[0]", "x[1]").evaluate(new double[] {1, 0, 0}, new double[1]);
+	}
+}
@@ -0,0 +1,258 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import parser.BytecodeCompiler;
+import parser.CompiledExpression;
+import parser.DualNumber;
+import parser.EvaluationFlags;
+import parser.ExpressionCompiler;
+import parser.IncrementalEvaluator;
+import parser.ScalarFunction;
+import parser.VectorFunction;
+import exceptions.LexerException;
+import exceptions.ParserException;
+
+public class ConditionalTests {
+	private static double DELTA = 1e-12;
+
+	ExpressionCompiler compiler;
+
+	@Before
+	public void setUp() throws Exception {
+		compiler = new ExpressionCompiler();
+	}
+
+	private double constant(String expression) throws LexerException, ParserException {
+		compiler.setConstantExpression();
+		return compiler.compile(expression).evaluate();
+	}
+
+	@Test public void comparisons() throws LexerException, ParserException {
+		assertEquals(1, constant("1 < 2"), 0);
+		assertEquals(0, constant("2 < 2"), 0);
+		assertEquals(1, constant("2 <= 2"), 0);
+		assertEquals(1, constant("3 > 2"), 0);
+		assertEquals(0, constant("1 >= 2"), 0);
+		assertEquals(1, constant("2 == 2"), 0);
+		assertEquals(0, constant("2 != 2"), 0);
+		assertEquals(1, constant("1 < = 2"), 0);
+	}
+
+	@Test public void comparisonsBindLooserThanArithmetic() throws LexerException, ParserException {
+		assertEquals(1, constant("1 + 2 < 2 * 2"), 0);
+		assertEquals(0, constant("2 < 1 + 0.5"), 0);
+		assertEquals(1, constant("-1 < -0.5"), 0);
+		assertEquals(0, constant("2^3 <= -2^3"), 0);
+		assertEquals(2, constant("(1 < 2) + (3 > 2)"), 0);
+
+		//left associative, so 3 > 2 gives 1, which isn't greater than 1
+		assertEquals(0, constant("3 > 2 > 1"), 0);
+	}
+
+	@Test public void minMaxAbs() throws LexerException, ParserException {
+		assertEquals(-3, constant("min(2, -3)"), 0);
+		assertEquals(2, constant("max(2, -3)"), 0);
+		assertEquals(3, constant("abs(-3)"), 0);
+		assertEquals(5, constant("max(abs(-5), min(1, 2)*4)"), 0);
+	}
+
+	@Test public void piecewise() throws LexerException, ParserException {
+		compiler.setScalarVariable();
+		CompiledExpression f = compiler.compile("if(x < 0, -x, x^2) + if(x == 1, 10, 0)");
+
+		assertEquals(2, f.evaluate(-2), DELTA);
+		assertEquals(0, f.evaluate(0), DELTA);
+		assertEquals(11, f.evaluate(1), DELTA);
+		assertEquals(9, f.evaluate(3), DELTA);
+	}
+
+	@Test public void constantConditionsAreFolded() throws LexerException, ParserException {
+		compiler.setScalarVariable();
+		CompiledExpression f = compiler.compile("if(1 > 2, sin(x), x)");
+
+		assertEquals(1, f.getInstructionCount());
+		assertEquals(4, f.evaluate(4), 0);
+	}
+
+	@Test public void branchesNotChosenDontFail() throws LexerException, ParserException {
+		compiler.setScalarVariable();
+		CompiledExpression log = compiler.compile("if(x > 0, ln(x), 0)");
+		CompiledExpression sinc = compiler.compile("if(x != 0, sin(x)/x, 1)");
+
+		assertEquals(0, log.evaluate(-1), 0);
+		assertEquals(0, log.evaluate(1), DELTA);
+		assertEquals(1, sinc.evaluate(0), 0);
+		assertEquals(Math.sin(2) / 2, sinc.evaluate(2), DELTA);
+
+		assertEquals(0, BytecodeCompiler.toScalarFunction(log).evaluate(-1), 0);
+		assertEquals(1, BytecodeCompiler.toVectorFunction(sinc).evaluate(new double[] {0}), 0);
+		assertEquals(1, compiler.compile("if(x > 0, x*ln(x), 0) + x").differentiate(-1).getDerivative(), DELTA);
+		assertEquals(1, sinc.differentiate(0).getValue(), 0);
+
+		IncrementalEvaluator incremental = log.incremental(-1);
+		assertEquals(0, incremental.getValue(), 0);
+		assertEquals(Math.log(2), incremental.update(0, 2), DELTA);
+		assertEquals(0, incremental.update(0, -3), 0);
+
+		compiler.setIndexedVariables(2);
+		double[] gradient = new double[2];
+		CompiledExpression f = compiler.compile("if(x[0] > 0, ln(x[0]), x[1]^2) + x[1]");
+
+		assertEquals(6, f.gradient(new double[] {-1, 2}, gradient), DELTA);
+		assertEquals(0, gradient[0], 0);
+		assertEquals(5, gradient[1], DELTA);
+
+		double[] out = new double[2];
+		compiler.compileSystem("if(x[0] > 0, ln(x[0]), 0)", "x[1] / x[0]").evaluate(new double[] {-1, 2}, out);
+		assertEquals(0, out[0], 0);
+		assertEquals(-2, out[1], 0);
+	}
+
+	@Test public void chosenBranchesStillFail() throws LexerException, ParserException {
+		compiler.setScalarVariable();
+		String[] failing = {"if(x > 0, 0, ln(x))", "if(ln(x) > 0, 1, 0)", "if(x > 0, ln(x), 0) + ln(x)",
+			"if(x > 0, 1, 2) / (x + 1)"};
+
+		for (String expression : failing) {
+			CompiledExpression f = compiler.compile(expression);
+
+			try {
+				f.evaluate(-1);
+			}
+			catch (ParserException expected) {
+				try {
+					BytecodeCompiler.toScalarFunction(f).evaluate(-1);
+				}
+				catch (ParserException also) {
+					continue;
+				}
+			}
+
+			throw new AssertionError(expression + " didn't fail.");
+		}
+	}
+
+	@Test public void batchesOnlyFlagChosenBranches() throws LexerException, ParserException {
+		compiler.setScalarVariable();
+		CompiledExpression f = compiler.compile("if(x > 0, ln(x), 1/x)");
+		double[] x = {-2, 0, 3, -1};
+		double[] out = new double[x.length];
+		byte[] flags = new byte[x.length];
+
+		f.evaluateBatch(new double[][] {x}, out, flags);
+
+		assertEquals(-0.5, out[0], 0);
+		assertEquals(Math.log(3), out[2], DELTA);
+		assertEquals(0, flags[0]);
+		assertEquals(EvaluationFlags.DIVISION_BY_ZERO, flags[1]);
+		assertEquals(0, flags[2]);
+		assertEquals(0, flags[3]);
+
+		double[] guarded = {-2, 3, -1};
+		f.evaluateBatch(guarded, out = new double[3]);
+		assertEquals(-1, out[2], 0);
+
+		try {
+			f.evaluateBatch(x, new double[x.length]);
+		}
+		catch (ParserException expected) {
+			return;
+		}
+
+		throw new AssertionError("The chosen division by zero didn't fail.");
+	}
+
+	@Test public void everyBackendAgrees() throws LexerException, ParserException {
+		compiler.setIndexedVariables(2);
+		CompiledExpression f = compiler.compile("if(x[0] >= x[1], max(x[0], 1), min(abs(x[1]), 2)) * (x[0] != 0)");
+		VectorFunction generated = BytecodeCompiler.toVectorFunction(f);
+		IncrementalEvaluator incremental = f.incremental(0, 0);
+		Random random = new Random(7);
+		int rows = 1000;
+		double[][] columns = new double[2][rows];
+		double[] out = new double[rows];
+
+		for (int r = 0; r < rows; r++) {
+			columns[0][r] = random.nextInt(7) - 3;
+			columns[1][r] = random.nextGaussian() * 3;
+		}
+
+		f.evaluateBatch(columns, out);
+
+		for (int r = 0; r < rows; r++) {
+			double x = columns[0][r];
+			double y = columns[1][r];
+			double expected = x == 0 ? 0 : x >= y ? Math.max(x, 1) : Math.min(Math.abs(y), 2);
+
+			incremental.update(0, x);
+			incremental.update(1, y);
+
+			assertEquals(expected, f.evaluate(x, y), 0);
+			assertEquals(expected, out[r], 0);
+			assertEquals(expected, generated.evaluate(new double[] {x, y}), 0);
+			assertEquals(expected, incremental.getValue(), 0);
+		}
+	}
+
+	@Test public void derivatives() throws LexerException, ParserException {
+		compiler.setScalarVariable();
+
+		assertEquals(-1, compiler.compile("abs(x)").differentiate(-2).getDerivative(), DELTA);
+		assertEquals(2, compiler.compile("max(x, 2*x)").differentiate(3).getDerivative(), DELTA);
+		assertEquals(0, compiler.compile("x < 1").differentiate(0).getDerivative(), 0);
+
+		CompiledExpression f = compiler.compile("if(x < 0, x^2, 3*x)");
+		DualNumber left = f.differentiate(-1);
+
+		assertEquals(1, left.getValue(), DELTA);
+		assertEquals(-2, left.getDerivative(), DELTA);
+		assertEquals(3, f.differentiate(1).getDerivative(), DELTA);
+
+		compiler.setIndexedVariables(3);
+		double[] gradient = new double[3];
+		compiler.compile("min(x[0], x[1]) + if(x[2] > 0, x[2]*x[0], x[1])").gradient(new double[] {1, 2, 3}, gradient);
+
+		assertEquals(4, gradient[0], DELTA);
+		assertEquals(0, gradient[1], DELTA);
+		assertEquals(1, gradient[2], DELTA);
+	}
+
+	@Test public void scalarBytecode() throws LexerException, ParserException {
+		compiler.setScalarVariable();
+		ScalarFunction f = BytecodeCompiler.toScalarFunction(compiler.compile("if(x <= 1, x, 1/x)"));
+
+		assertEquals(0.5, f.evaluate(0.5), DELTA);
+		assertEquals(0.25, f.evaluate(4), DELTA);
+	}
+
+	@Test (expected=LexerException.class)
+	public void singleEquals() throws LexerException, ParserException {
+		constant("1 = 1");
+	}
+
+	@Test (expected=LexerException.class)
+	public void singleNot() throws LexerException, ParserException {
+		constant("!1");
+	}
+
+	@Test (expected=ParserException.class)
+	public void wrongArity() throws LexerException, ParserException {
+		constant("min(1)");
+	}
+
+	@Test (expected=ParserException.class)
+	public void ifWithoutElse() throws LexerException, ParserException {
+		constant("if(1 < 2, 3)");
+	}
+
+	@Test (expected=ParserException.class)
+	public void missingOperand() throws LexerException, ParserException {
+		constant("1 < ");
+	}
+}
@@ -0,0 +1,216 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import parser.CompiledExpression;
+import parser.DualNumber;
+import parser.EvaluationFrame;
+import parser.ExpressionCompiler;
+import parser.FunctionRegistry;
+import parser.JParser;
+import parser.ScalarFunction;
+import exceptions.LexerException;
+import exceptions.ParserException;
+
+public class DifferentiationTests {
+	private static double DELTA = 1e-9;
+
+	ExpressionCompiler compiler;
+
+	@Before
+	public void setUp() throws Exception {
+		compiler = new ExpressionCompiler();
+		compiler.setScalarVariable();
+	}
+
+	/* Compares the derivative of expression at x to the expected one */
+	private void assertDerivative(String expression, double x, double expected) throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile(expression);
+		DualNumber d = e.differentiate(x);
+
+		assertEquals(expression, e.evaluate(x), d.getValue(), DELTA);
+		assertEquals(expression, expected, d.getDerivative(), DELTA);
+	}
+
+	@Test public void arithmetic() throws LexerException, ParserException {
+		assertDerivative("3*x^2 - 2*x + 7", 2, 10);
+		assertDerivative("-x/(x+1)", 1, -0.25);
+		assertDerivative("2^x", 3, 8 * Math.log(2));
+		assertDerivative("x^x", 2, 4 * (Math.log(2) + 1));
+		assertDerivative("x^0.5", 4, 0.25);
+		assertDerivative("x^2", 0, 0);
+	}
+
+	@Test public void trigonometric() throws LexerException, ParserException {
+		double x = 0.7;
+
+		assertDerivative("sin(x)", x, Math.cos(x));
+		assertDerivative("cos(x)", x, -Math.sin(x));
+		assertDerivative("tan(x)", x, 1 / (Math.cos(x) * Math.cos(x)));
+		assertDerivative("sec(x)", x, Math.tan(x) / Math.cos(x));
+		assertDerivative("csc(x)", x, -Math.cos(x) / (Math.sin(x) * Math.sin(x)));
+		assertDerivative("ctg(x)", x, -1 / (Math.sin(x) * Math.sin(x)));
+		assertDerivative("asin(x)", x, 1 / Math.sqrt(1 - x * x));
+		assertDerivative("acos(x)", x, -1 / Math.sqrt(1 - x * x));
+		assertDerivative("atan(x)", x, 1 / (1 + x * x));
+	}
+
+	@Test public void hyperbolicAndLogarithm() throws LexerException, ParserException {
+		double x = 0.7;
+
+		assertDerivative("sinh(x)", x, Math.cosh(x));
+		assertDerivative("cosh(x)", x, Math.sinh(x));
+		assertDerivative("tanh(x)", x, 1 - Math.tanh(x) * Math.tanh(x));
+		assertDerivative("ln(x)", x, 1 / x);
+	}
+
+	@Test public void chainRule() throws LexerException, ParserException {
+		double x = 1.3;
+		assertDerivative("ln(sin(x)^2 + 1)", x, 2 * Math.sin(x) * Math.cos(x) / (Math.sin(x) * Math.sin(x) + 1));
+	}
+
+	@Test public void sharedSubexpressions() throws LexerException, ParserException {
+		double x = 0.4;
+		double s = Math.sin(x * x);
+
+		assertDerivative("sin(x*x) * sin(x*x) + sin(x*x)", x, (2 * s + 1) * Math.cos(x * x) * 2 * x);
+	}
+
+	@Test public void directionalDerivative() throws LexerException, ParserException {
+		compiler.setIndexedVariables(2);
+		CompiledExpression e = compiler.compile("x[0]^2 * x[1] + sin(x[1])");
+		EvaluationFrame frame = new EvaluationFrame();
+		DualNumber d = new DualNumber();
+
+		e.differentiate(frame, new double[] {3, 2}, new double[] {1, 0}, d);
+		assertEquals(18 + Math.sin(2), d.getValue(), DELTA);
+		assertEquals(12, d.getDerivative(), DELTA);
+
+		e.differentiate(frame, new double[] {3, 2}, new double[] {0, 1}, d);
+		assertEquals(9 + Math.cos(2), d.getDerivative(), DELTA);
+
+		e.differentiate(frame, new double[] {3, 2}, new double[] {1, 1}, d);
+		assertEquals(21 + Math.cos(2), d.getDerivative(), DELTA);
+	}
+
+	@Test public void registeredFunctions() throws LexerException, ParserException {
+		FunctionRegistry functions = new FunctionRegistry();
+		functions.register("cube", new ScalarFunction() {
+			public double evaluate(double x) {
+				return x * x * x;
+			}
+		});
+		compiler.setFunctions(functions);
+
+		assertDerivative("cube(2*x)", 1, 24);
+	}
+
+	@Test public void facade() throws LexerException, ParserException {
+		JParser parser = JParser.getInstance();
+
+		parser.setVariable(2);
+		parser.compileExpression("x^3");
+		DualNumber d = parser.differentiate();
+
+		assertEquals(8, d.getValue(), DELTA);
+		assertEquals(12, d.getDerivative(), DELTA);
+	}
+
+	@Test (expected=ParserException.class)
+	public void illegalOperation() throws LexerException, ParserException {
+		compiler.compile("ln(x)").differentiate(0);
+	}
+
+	/* Compares the gradient at x to the partial derivatives computed in forward mode */
+	private void assertGradient(CompiledExpression e, double... x) throws ParserException {
+		EvaluationFrame frame = new EvaluationFrame();
+		DualNumber d = new DualNumber();
+		double[] gradient = new double[x.length];
+
+		assertEquals(e.evaluate(x), e.gradient(frame, x, gradient), DELTA);
+
+		for (int i = 0; i < x.length; i++) {
+			double[] direction = new double[x.length];
+			direction[i] = 1;
+
+			e.differentiate(frame, x, direction, d);
+			assertEquals(e.getSource() + " x[" + i + "]", d.getDerivative(), gradient[i], DELTA);
+		}
+	}
+
+	@Test public void gradientOfEveryOperation() throws LexerException, ParserException {
+		compiler.setIndexedVariables(3);
+
+		assertGradient(compiler.compile("x[0]*x[1] - x[2]/x[0] + x[1]^x[2] + -x[0]"), 0.6, 1.7, 0.3);
+		assertGradient(compiler.compile("sin(x[0])*cos(x[1]) + tan(x[2]) - sec(x[0]*x[1]) + csc(x[1]) * ctg(x[2])"),
+				0.6, 1.7, 0.3);
+		assertGradient(compiler.compile("asin(x[0]) + acos(x[2]*x[0]) + atan(x[1]) * ln(x[1]+x[2])"), 0.6, 1.7, 0.3);
+		assertGradient(compiler.compile("sinh(x[0]) - cosh(x[1]*x[2]) * tanh(x[2])"), 0.6, 1.7, 0.3);
+	}
+
+	@Test public void gradientOfSharedSubexpressions() throws LexerException, ParserException {
+		compiler.setIndexedVariables(2);
+		CompiledExpression e = compiler.compile("sin(x[0]*x[1]) * sin(x[0]*x[1]) + ln(x[0]*x[1])");
+
+		assertGradient(e, 0.4, 2.5);
+	}
+
+	@Test public void gradientOfManyVariables() throws LexerException, ParserException {
+		int n = 300;
+		StringBuilder expression = new StringBuilder();
+		double[] x = new double[n];
+		double[] gradient = new double[n];
+
+		for (int i = 0; i < n; i++) {
+			expression.append(i > 0 ? " + " : "").append("x[" + i + "]^2");
+			x[i] = i / 10.0;
+		}
+
+		compiler.setIndexedVariables(n);
+		CompiledExpression e = compiler.compile(expression.toString());
+		e.gradient(x, gradient);
+
+		for (int i = 0; i < n; i++)
+			assertEquals(2 * x[i], gradient[i], DELTA);
+	}
+
+	@Test public void gradientOfUnusedVariables() throws LexerException, ParserException {
+		compiler.setIndexedVariables(3);
+		double[] gradient = {7, 7, 7};
+
+		assertEquals(3, compiler.compile("x[1]*3").gradient(new double[] {0, 1, 0}, gradient), DELTA);
+		assertEquals(0, gradient[0], DELTA);
+		assertEquals(3, gradient[1], DELTA);
+		assertEquals(0, gradient[2], DELTA);
+	}
+
+	@Test public void gradientOfRegisteredFunctions() throws LexerException, ParserException {
+		FunctionRegistry functions = new FunctionRegistry();
+		functions.register("cube", new ScalarFunction() {
+			public double evaluate(double x) {
+				return x * x * x;
+			}
+		});
+		compiler.setFunctions(functions);
+		compiler.setIndexedVariables(2);
+
+		double[] gradient = new double[2];
+		compiler.compile("cube(x[0]) * x[1]").gradient(new double[] {2, 3}, gradient);
+		assertEquals(36, gradient[0], 1e-6);
+		assertEquals(8, gradient[1], 1e-6);
+	}
+
+	@Test public void gradientThroughFacade() throws LexerException, ParserException {
+		JParser parser = JParser.getInstance();
+		double[] gradient = new double[2];
+
+		parser.setVariable(new double[] {2, 5});
+		parser.compileExpression("x[0]^2 * x[1]");
+		assertEquals(20, parser.gradient(gradient), DELTA);
+		assertEquals(20, gradient[0], DELTA);
+		assertEquals(4, gradient[1], DELTA);
+	}
+}
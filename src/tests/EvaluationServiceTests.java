@@ -0,0 +1,220 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import parser.CompiledExpression;
+import parser.EvaluationService;
+import parser.ExpressionCompiler;
+import exceptions.LexerException;
+import exceptions.ParserException;
+
+public class EvaluationServiceTests {
+	private static double DELTA = 1e-12;
+
+	ExpressionCompiler compiler;
+	EvaluationService service;
+
+	@Before
+	public void setUp() throws Exception {
+		compiler = new ExpressionCompiler();
+		compiler.setIndexedVariables(2);
+	}
+
+	@After
+	public void tearDown() {
+		if (service != null)
+			service.close();
+	}
+
+	@Test public void fullBatchesDontWait() throws Exception {
+		CompiledExpression f = compiler.compile("x[0]^2 + x[1]");
+		List<CompletableFuture<Double>> values = new ArrayList<>();
+
+		//the delay is too long for the test to finish unless full batches are dispatched
+		service = new EvaluationService(2, 8, 1, TimeUnit.HOURS, 64);
+		for (int i = 0; i < 16; i++)
+			values.add(service.submit(f, i, 1));
+
+		for (int i = 0; i < 16; i++)
+			assertEquals(i * i + 1, values.get(i).get(10, TimeUnit.SECONDS), DELTA);
+
+		assertEquals(2, service.getBatchCount());
+		assertEquals(16, service.getPointCount());
+	}
+
+	@Test public void partialBatchesWaitForTheDelay() throws Exception {
+		CompiledExpression f = compiler.compile("x[0] - x[1]");
+		double[] point = {5, 2};
+
+		service = new EvaluationService(1, 100, 1, TimeUnit.MILLISECONDS, 100);
+		CompletableFuture<Double> a = service.submit(f, point);
+		point[0] = 7;
+		CompletableFuture<Double> b = service.submit(f, point);
+
+		assertEquals(3, a.get(10, TimeUnit.SECONDS), DELTA);
+		assertEquals(5, b.get(10, TimeUnit.SECONDS), DELTA);
+	}
+
+	@Test public void failedPointsDontFailTheBatch() throws Exception {
+		CompiledExpression f = compiler.compile("x[1] / x[0]");
+
+		service = new EvaluationService(1, 3, 1, TimeUnit.HOURS, 3);
+		CompletableFuture<Double> a = service.submit(f, 2, 1);
+		CompletableFuture<Double> b = service.submit(f, 0, 1);
+		CompletableFuture<Double> c = service.submit(f, 4, 1);
+
+		assertEquals(0.5, a.get(10, TimeUnit.SECONDS), DELTA);
+		assertEquals(0.25, c.get(10, TimeUnit.SECONDS), DELTA);
+		assertFails(b);
+	}
+
+	@Test public void continuationsSeeTheBatchEvaluated() throws Exception {
+		final CompiledExpression f = compiler.compile("x[1] / x[0]");
+		final AtomicInteger depth = new AtomicInteger(-1);
+		final AtomicReference<CompletableFuture<Double>> resubmitted = new AtomicReference<>();
+		final CountDownLatch done = new CountDownLatch(1);
+
+		service = new EvaluationService(1, 3, 1, TimeUnit.HOURS, 3);
+		CompletableFuture<Double> a = service.submit(f, 2, 1);
+		CompletableFuture<Double> b = service.submit(f, 0, 1);
+
+		//the failed point is evaluated again before any future completes, and a full service would block the worker
+		b.whenComplete((value, e) -> {
+			depth.set(service.getQueueDepth() + service.getQueueDepth(f));
+			try {
+				resubmitted.set(service.submit(f, 1, 1));
+			}
+			catch (InterruptedException interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			done.countDown();
+		});
+		service.submit(f, 4, 1);
+
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(0, depth.get());
+		assertEquals(0.5, a.get(10, TimeUnit.SECONDS), DELTA);
+		assertFails(b);
+
+		service.close();
+		assertEquals(1, resubmitted.get().get(10, TimeUnit.SECONDS), DELTA);
+	}
+
+	@Test public void missingVariables() throws Exception {
+		service = new EvaluationService();
+
+		assertFails(service.submit(compiler.compile("x[0] + x[1]"), 1));
+	}
+
+	private static void assertFails(CompletableFuture<Double> value) throws InterruptedException {
+		try {
+			value.get(10, TimeUnit.SECONDS);
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ParserException);
+			return;
+		}
+		catch (Exception e) {
+			throw new AssertionError(e);
+		}
+
+		throw new AssertionError("The point didn't fail.");
+	}
+
+	@Test public void concurrentSubmissions() throws Exception {
+		final CompiledExpression f = compiler.compile("sin(x[0])*x[1] + x[0]/(1 + x[1]^2)");
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread[] threads = new Thread[8];
+
+		service = new EvaluationService(2, 32, 100, TimeUnit.MICROSECONDS, 256);
+		for (int t = 0; t < threads.length; t++) {
+			final int seed = t;
+
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						List<CompletableFuture<Double>> values = new ArrayList<>();
+
+						for (int i = 0; i < 1000; i++)
+							values.add(service.submit(f, seed, i));
+
+						for (int i = 0; i < 1000; i++)
+							assertEquals(f.evaluate(seed, i), values.get(i).get(10, TimeUnit.SECONDS), 0);
+					}
+					catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		for (Thread thread : threads)
+			thread.join();
+
+		if (failure.get() != null)
+			throw new AssertionError(failure.get());
+
+		assertEquals(8000, service.getPointCount());
+		assertEquals(0, service.getQueueDepth());
+		assertEquals(0, service.getQueueDepth(f));
+	}
+
+	@Test public void fullServiceBlocks() throws Exception {
+		final CompiledExpression f = compiler.compile("x[0] * x[1]");
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		service = new EvaluationService(1, 10, 1, TimeUnit.HOURS, 2);
+		CompletableFuture<Double> a = service.submit(f, 2, 3);
+		service.submit(f, 4, 5);
+
+		assertEquals(2, service.getQueueDepth());
+		assertEquals(2, service.getQueueDepth(f));
+		assertEquals(Integer.valueOf(2), service.getQueueDepths().get(f));
+
+		Thread blocked = new Thread() {
+			public void run() {
+				try {
+					service.submit(f, 1, 1);
+				}
+				catch (Throwable e) {
+					failure.set(e);
+				}
+			}
+		};
+		blocked.start();
+
+		while (blocked.getState() != Thread.State.WAITING)
+			Thread.sleep(1);
+
+		//closing evaluates the pending points, then the blocked one is rejected
+		service.close();
+		blocked.join();
+
+		assertEquals(6, a.get(), DELTA);
+		assertTrue(failure.get() instanceof RejectedExecutionException);
+	}
+
+	@Test (expected=RejectedExecutionException.class)
+	public void closedService() throws LexerException, ParserException, InterruptedException {
+		service = new EvaluationService();
+		service.close();
+
+		service.submit(compiler.compile("x[0]"), 1);
+	}
+}
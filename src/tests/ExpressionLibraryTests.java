@@ -0,0 +1,170 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import parser.CompiledExpression;
+import parser.ExpressionCompiler;
+import parser.ExpressionLibrary;
+import parser.FunctionRegistry;
+import parser.ScalarFunction;
+import exceptions.LexerException;
+import exceptions.ParserException;
+
+public class ExpressionLibraryTests {
+	private static double DELTA = 1e-12;
+
+	ExpressionCompiler compiler;
+	FunctionRegistry functions;
+
+	@Before
+	public void setUp() throws Exception {
+		functions = new FunctionRegistry();
+		functions.register("twice", new ScalarFunction() {
+			public double evaluate(double x) {
+				return 2 * x;
+			}
+		});
+
+		compiler = new ExpressionCompiler();
+		compiler.setFunctions(functions);
+	}
+
+	private List<CompiledExpression> library() throws LexerException, ParserException {
+		List<CompiledExpression> expressions = new ArrayList<>();
+
+		compiler.setConstantExpression();
+		expressions.add(compiler.compile("5+3*cos(ln(e) - 1)"));
+		compiler.setScalarVariable();
+		expressions.add(compiler.compile("sin(x)^2 + sin(x)/x - x^0.5"));
+		compiler.setIndexedVariables(3);
+		compiler.setEpsilon(1e-6);
+		expressions.add(compiler.compile("twice(x[0]) * x[2] - x[1]/3"));
+
+		return expressions;
+	}
+
+	private static byte[] bytes(List<CompiledExpression> expressions) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		ExpressionLibrary.write(out, expressions);
+		return out.toByteArray();
+	}
+
+	@Test public void roundTripThroughFile() throws LexerException, ParserException, IOException {
+		List<CompiledExpression> written = library();
+		Path file = Files.createTempFile("library", ".jprl");
+
+		try {
+			ExpressionLibrary.write(file, written);
+			List<CompiledExpression> read = ExpressionLibrary.read(file, functions);
+
+			assertEquals(written.size(), read.size());
+			for (int i = 0; i < read.size(); i++) {
+				CompiledExpression a = written.get(i);
+				CompiledExpression b = read.get(i);
+
+				assertEquals(a.getSource(), b.getSource());
+				assertEquals(a.getMaxDimension(), b.getMaxDimension());
+				assertEquals(a.getEpsilon(), b.getEpsilon(), 0);
+				assertEquals(a.getInstructionCount(), b.getInstructionCount());
+				assertEquals(a.getEliminatedNodes(), b.getEliminatedNodes());
+			}
+
+			assertEquals(8, read.get(0).evaluate(), DELTA);
+			assertEquals(written.get(1).evaluate(0.7), read.get(1).evaluate(0.7), 0);
+			assertEquals(4 * 5 - 1, read.get(2).evaluate(2, 3, 5), DELTA);
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test public void variablesAreStillChecked() throws LexerException, ParserException, IOException {
+		List<CompiledExpression> read = ExpressionLibrary.read(ByteBuffer.wrap(bytes(library())), functions);
+
+		try {
+			read.get(2).evaluate(1, 2);
+		}
+		catch (ParserException expected) {
+			return;
+		}
+
+		throw new AssertionError("Missing variable not detected.");
+	}
+
+	@Test public void readsVersionOne() throws LexerException, ParserException, IOException {
+		compiler.setScalarVariable();
+		CompiledExpression written = compiler.compile("twice(x) - x^3");
+		ByteBuffer current = ByteBuffer.wrap(bytes(Arrays.asList(written)));
+
+		//version 1 had no symbol count, which follows the source and maxDimension
+		int symbols = 4 + 2 + 4 + 4 + current.getInt(10) + 4;
+		ByteBuffer old = ByteBuffer.allocate(current.capacity() - 4);
+		old.put(current.array(), 0, symbols).put(current.array(), symbols + 4, current.capacity() - symbols - 4);
+		old.putShort(4, (short) 1).rewind();
+
+		CompiledExpression read = ExpressionLibrary.read(old, functions).get(0);
+
+		assertEquals(null, read.getSymbols());
+		assertEquals(written.getSource(), read.getSource());
+		assertEquals(written.evaluate(1.5), read.evaluate(1.5), 0);
+	}
+
+	@Test (expected=IOException.class)
+	public void futureVersion() throws LexerException, ParserException, IOException {
+		byte[] bytes = bytes(library());
+
+		bytes[5] = 3;
+		ExpressionLibrary.read(ByteBuffer.wrap(bytes), functions);
+	}
+
+	@Test (expected=IOException.class)
+	public void missingFunction() throws LexerException, ParserException, IOException {
+		ExpressionLibrary.read(ByteBuffer.wrap(bytes(library())), null);
+	}
+
+	@Test (expected=IOException.class)
+	public void wrongMagic() throws IOException {
+		ExpressionLibrary.read(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 0, 1, 0, 0, 0, 0}), null);
+	}
+
+	@Test (expected=IOException.class)
+	public void truncated() throws LexerException, ParserException, IOException {
+		byte[] bytes = bytes(library());
+		ExpressionLibrary.read(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 5)), functions);
+	}
+
+	@Test public void corruptedProgramsAreRejected() throws LexerException, ParserException, IOException {
+		compiler.setScalarVariable();
+		byte[] bytes = bytes(Arrays.asList(compiler.compile("x+1")));
+		int rejected = 0;
+
+		//every opcode and argument is in the last 24 bytes: ops VAR CONST ADD, then their arguments
+		for (int i = bytes.length - 24; i < bytes.length; i += 4) {
+			byte[] corrupted = bytes.clone();
+			corrupted[i + 3] += 7;
+
+			try {
+				ExpressionLibrary.read(ByteBuffer.wrap(corrupted), null);
+			}
+			catch (IOException expected) {
+				rejected++;
+			}
+		}
+
+		//the argument of ADD is unused
+		assertEquals(5, rejected);
+	}
+}
@@ -0,0 +1,196 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import parser.BytecodeCompiler;
+import parser.CompileCache;
+import parser.CompiledExpression;
+import parser.ExpressionCompiler;
+import parser.FunctionRegistry;
+import parser.JParser;
+import parser.ScalarFunction;
+import parser.VectorFunction;
+import exceptions.LexerException;
+import exceptions.ParserException;
+
+public class FunctionRegistryTests {
+	private static double DELTA = 1e-12;
+
+	ExpressionCompiler compiler;
+	FunctionRegistry functions;
+	int calls;
+
+	@Before
+	public void setUp() throws Exception {
+		functions = new FunctionRegistry();
+		functions.register("sigmoid", new ScalarFunction() {
+			public double evaluate(double x) {
+				calls++;
+				return 1 / (1 + Math.exp(-x));
+			}
+		});
+		functions.register("clamp", 3, new VectorFunction() {
+			public double evaluate(double[] x) {
+				return Math.max(x[1], Math.min(x[2], x[0]));
+			}
+		});
+		functions.register("answer", 0, new VectorFunction() {
+			public double evaluate(double[] x) {
+				return 42;
+			}
+		});
+
+		compiler = new ExpressionCompiler();
+		compiler.setFunctions(functions);
+		compiler.setIndexedVariables(2);
+	}
+
+	@Test public void unaryFunction() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("2*sigmoid(x[0]) - 1");
+		assertEquals(0, e.evaluate(0, 0), DELTA);
+		assertEquals(2 / (1 + Math.exp(-3)) - 1, e.evaluate(3, 0), DELTA);
+	}
+
+	@Test public void manyArguments() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("clamp(x[0], -x[1], x[1] * 2) + 1");
+		assertEquals(5, e.evaluate(4, 3), DELTA);
+		assertEquals(7, e.evaluate(9, 3), DELTA);
+		assertEquals(-2, e.evaluate(-9, 3), DELTA);
+	}
+
+	@Test public void nestedCalls() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("clamp(sigmoid(x[0]) * 10, clamp(x[1], 0, 1), answer())");
+		assertEquals(5, e.evaluate(0, 5), DELTA);
+		assertEquals(1, e.evaluate(-50, 5), DELTA);
+	}
+
+	@Test public void namesIgnoreCase() throws LexerException, ParserException {
+		assertEquals(0.5, compiler.compile("SigMoid(0)").evaluate(), DELTA);
+	}
+
+	@Test public void constantCallsAreFolded() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("sigmoid(0) + answer()");
+
+		assertEquals(1, e.getInstructionCount());
+		assertEquals(42.5, e.evaluate(), DELTA);
+	}
+
+	@Test public void repeatedCallsAreShared() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("sigmoid(x[0]) * sigmoid(x[0])");
+
+		calls = 0;
+		assertEquals(0.25, e.evaluate(0, 0), DELTA);
+		assertEquals(1, calls);
+	}
+
+	@Test public void callsBoundWhenCompiled() throws LexerException, ParserException {
+		CompiledExpression before = compiler.compile("answer() + x[0]");
+		functions.register("answer", 0, new VectorFunction() {
+			public double evaluate(double[] x) {
+				return 0;
+			}
+		});
+
+		assertEquals(42, before.evaluate(0, 0), DELTA);
+		assertEquals(0, compiler.compile("answer() + x[0]").evaluate(0, 0), DELTA);
+	}
+
+	@Test public void cacheKeepsRegistriesApart() throws LexerException, ParserException {
+		FunctionRegistry other = new FunctionRegistry();
+		other.register("sigmoid", new ScalarFunction() {
+			public double evaluate(double x) {
+				return x;
+			}
+		});
+
+		CompileCache cache = new CompileCache(16);
+		ExpressionCompiler second = new ExpressionCompiler();
+		compiler.setCache(cache);
+		second.setCache(cache);
+		second.setIndexedVariables(2);
+		second.setFunctions(other);
+
+		CompiledExpression a = compiler.compile("sigmoid(x[0])");
+		CompiledExpression b = second.compile("sigmoid(x[0])");
+
+		assertNotSame(a, b);
+		assertEquals(0.5, a.evaluate(0, 0), DELTA);
+		assertEquals(0, b.evaluate(0, 0), DELTA);
+	}
+
+	@Test public void everyBackend() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("clamp(x[0], 0, 1) * sigmoid(x[1]) + answer()");
+		VectorFunction f = BytecodeCompiler.toVectorFunction(e);
+		double[][] columns = new double[2][300];
+		double[] out = new double[300];
+		double[] parallel = new double[300];
+
+		for (int i = 0; i < out.length; i++) {
+			columns[0][i] = i / 100.0 - 1;
+			columns[1][i] = 3 - i / 50.0;
+		}
+
+		e.evaluateBatch(columns, out);
+		e.evaluateParallel(columns, parallel);
+
+		for (int i = 0; i < out.length; i++) {
+			double[] x = {columns[0][i], columns[1][i]};
+
+			assertEquals(e.evaluate(x), f.evaluate(x), DELTA);
+			assertEquals(e.evaluate(x), out[i], DELTA);
+			assertEquals(e.evaluate(x), parallel[i], DELTA);
+		}
+	}
+
+	@Test public void facade() throws LexerException, ParserException {
+		JParser parser = JParser.getInstance();
+		parser.setFunctions(functions);
+
+		try {
+			parser.setVariable(3);
+			parser.compileExpression("clamp(x, 0, 1) + sigmoid(0)");
+			assertEquals(1.5, parser.evaluate(), DELTA);
+		}
+		finally {
+			parser.setFunctions(null);
+		}
+	}
+
+	@Test (expected=LexerException.class)
+	public void unknownFunction() throws LexerException, ParserException {
+		new ExpressionCompiler().compile("sigmoid(0)");
+	}
+
+	@Test (expected=ParserException.class)
+	public void wrongArity() throws LexerException, ParserException {
+		compiler.compile("clamp(x[0], 1)");
+	}
+
+	@Test (expected=ParserException.class)
+	public void builtInWithManyArguments() throws LexerException, ParserException {
+		compiler.compile("sin(x[0], 1)");
+	}
+
+	@Test (expected=ParserException.class)
+	public void missingArgument() throws LexerException, ParserException {
+		compiler.compile("clamp(x[0], , 1)");
+	}
+
+	@Test (expected=ParserException.class)
+	public void commaOutsideCall() throws LexerException, ParserException {
+		compiler.compile("(1, 2)");
+	}
+
+	@Test (expected=IllegalArgumentException.class)
+	public void builtInNamesAreReserved() {
+		functions.register("sin", new ScalarFunction() {
+			public double evaluate(double x) {
+				return x;
+			}
+		});
+	}
+}
@@ -0,0 +1,97 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import parser.CompiledExpression;
+import parser.ExpressionCompiler;
+import parser.FunctionRegistry;
+import parser.IncrementalEvaluator;
+import parser.VectorFunction;
+import exceptions.LexerException;
+import exceptions.ParserException;
+
+public class IncrementalEvaluatorTests {
+	private static double DELTA = 1e-12;
+
+	ExpressionCompiler compiler;
+
+	@Before
+	public void setUp() throws Exception {
+		compiler = new ExpressionCompiler();
+		compiler.setIndexedVariables(4);
+	}
+
+	@Test public void updatesMatchEvaluation() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("sin(x[0]*x[1]) * sin(x[0]*x[1]) + x[2]/(1 + x[3]^2) - ln(2 + cos(x[1]))");
+		double[] x = {0.3, 1.2, -0.7, 2};
+		IncrementalEvaluator incremental = e.incremental(x);
+		Random random = new Random(7);
+
+		assertEquals(e.evaluate(x), incremental.getValue(), DELTA);
+
+		for (int step = 0; step < 200; step++) {
+			int i = random.nextInt(x.length);
+			x[i] = random.nextGaussian();
+
+			assertEquals(e.evaluate(x), incremental.update(i, x[i]), DELTA);
+			assertEquals(x[i], incremental.getVariable(i), 0);
+		}
+	}
+
+	@Test public void onlyDependentsAreRecomputed() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("sin(x[0]) + cos(x[1]) * tan(x[2]) + x[3]");
+		IncrementalEvaluator incremental = e.incremental(1, 2, 3, 4);
+
+		assertTrue(incremental.getDependentCount(0) < e.getInstructionCount());
+		assertEquals(2, incremental.getDependentCount(3));
+	}
+
+	@Test public void unusedVariable() throws LexerException, ParserException {
+		IncrementalEvaluator incremental = compiler.compile("x[0]*2").incremental(1, 2, 3, 4);
+
+		assertEquals(0, incremental.getDependentCount(2));
+		assertEquals(2, incremental.update(2, 10), DELTA);
+	}
+
+	@Test public void registeredFunctions() throws LexerException, ParserException {
+		FunctionRegistry functions = new FunctionRegistry();
+		functions.register("clamp", 3, new VectorFunction() {
+			public double evaluate(double[] x) {
+				return Math.max(x[1], Math.min(x[2], x[0]));
+			}
+		});
+		compiler.setFunctions(functions);
+
+		IncrementalEvaluator incremental = compiler.compile("clamp(x[0], x[1], x[2]) + x[3]").incremental(5, 0, 1, 1);
+		assertEquals(2, incremental.getValue(), DELTA);
+		assertEquals(1.5, incremental.update(0, 0.5), DELTA);
+		assertEquals(0.5, incremental.update(3, 0), DELTA);
+	}
+
+	@Test public void failedUpdateKeepsPreviousValue() throws LexerException, ParserException {
+		IncrementalEvaluator incremental = compiler.compile("x[0]/x[1] + x[2]").incremental(1, 2, 3, 4);
+
+		try {
+			incremental.update(1, 0);
+		}
+		catch (ParserException e) {
+			assertEquals(2, incremental.getVariable(1), 0);
+			assertEquals(3.5, incremental.getValue(), DELTA);
+			assertEquals(5, incremental.update(0, 4), DELTA);
+			return;
+		}
+
+		throw new AssertionError("Division by zero not detected.");
+	}
+
+	@Test (expected=ParserException.class)
+	public void missingVariable() throws LexerException, ParserException {
+		compiler.compile("x[0]+x[3]").incremental(1, 2);
+	}
+}
@@ -1,7 +1,13 @@
 package tests;
 
 import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+
 import lexer.Lexer;
+import lexer.Token;
+import parser.ShuntingYard;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -212,4 +218,140 @@ public class LexerTests {
 		l.parseToTokens("ln(sin(x)^2 + cos(x)^2) + 9");
 		assertEquals("ln LPAR sin LPAR VAR_0 RPAR POW 2 ADD cos LPAR VAR_0 RPAR POW 2 RPAR ADD 9", l.toString());
 	}
+	
+	@Test public void spacesAndCaseIgnored() throws ParserException, LexerException {
+		l.parseToTokens(" CO s( 1 2. 5 )\t+ P i");
+		assertEquals("cos LPAR 12.5 RPAR ADD " + Math.PI, l.toString());
+	}
+	
+	@Test public void integerOverflowIsDecimal() throws ParserException, LexerException {
+		l.parseToTokens("2147483647+2147483648");
+		assertEquals("2147483647 ADD 2.147483648E9", l.toString());
+	}
+	
+	@Test public void longNumbers() throws ParserException, LexerException {
+		l.parseToTokens("0.1+123456789012345678901234.5+0.00000000000000000000000123");
+		assertEquals("0.1 ADD 1.2345678901234569E23 ADD 1.23E-24", l.toString());
+	}
+	
+	@Test public void readsCharSequences() throws ParserException, LexerException {
+		l.parseToTokens(new StringBuilder("3*(2)"));
+		assertEquals("3 MUL LPAR 2 RPAR", l.toString());
+	}
+	
+	@Test (expected=LexerException.class)
+	public void numberEndingWithPoint() throws ParserException, LexerException {
+		l.parseToTokens("3.+1");
+	}
+	
+	@Test (expected=LexerException.class)
+	public void indexedFunctionName() throws ParserException, LexerException {
+		l.setAcceptVariables(true);
+		l.setMaxDimension(2);
+		l.parseToTokens("sin[0]");
+	}
+	
+	@Test public void streamsTokens() throws ParserException, LexerException {
+		Lexer lexer = new Lexer();
+		
+		lexer.start("-2 * pi");
+		assertEquals(Token.Type.NEG, lexer.next().getType());
+		assertEquals("2", lexer.next().toString());
+		assertEquals(Token.Type.MUL, lexer.next().getType());
+		assertEquals(Token.Type.NUM, lexer.next().getType());
+		assertNull(lexer.next());
+		assertNull(lexer.next());
+	}
+	
+	@Test public void readsFromReader() throws ParserException, LexerException, IOException {
+		StringBuilder expression = new StringBuilder();
+		
+		//long numbers and spaces cross the boundaries of the blocks read
+		for (int i = 0; i < 2000; i++)
+			expression.append(i % 7 == 0 ? "-  " : " + ").append("1234567890123456789012.").append(i).append(" * cos( ").append(i).append(")");
+		
+		Lexer lexer = new Lexer();
+		lexer.parseToTokens(expression);
+		String expected = lexer.toString();
+		
+		ShuntingYard shuntingYard = new ShuntingYard(lexer);
+		shuntingYard.convertFromInfixToPosfix(expression);
+		String rpn = shuntingYard.toString();
+		
+		StringBuilder read = new StringBuilder();
+		lexer.start(new StringReader(expression.toString()));
+		for (Token token = lexer.next(); token != null; token = lexer.next())
+			read.append(read.length() == 0 ? "" : " ").append(token);
+		
+		assertEquals(expected, read.toString());
+		
+		shuntingYard.convertFromInfixToPosfix(new StringReader(expression.toString()));
+		assertEquals(rpn, shuntingYard.toString());
+	}
+	
+	@Test public void longExpressionsTakeLinearTime() throws ParserException, LexerException {
+		ShuntingYard shuntingYard = new ShuntingYard(new Lexer());
+		
+		for (int count = 100000; count <= 400000; count *= 2) {
+			CountingSequence expression = new CountingSequence(terms(count));
+			
+			shuntingYard.convertFromInfixToPosfix(expression);
+			assertEquals(count * 6 + 1, shuntingYard.getExpression().size());
+			
+			//each character is read a bounded amount of times, however long the expression is
+			assertTrue(expression.reads + " reads of " + expression.length() + " characters",
+					expression.reads <= 4 * expression.length());
+		}
+	}
+	
+	@Test public void longExpressionsFromReader() throws ParserException, LexerException, IOException {
+		StringBuilder expression = terms(200000);
+		ShuntingYard shuntingYard = new ShuntingYard(new Lexer());
+		
+		shuntingYard.convertFromInfixToPosfix(expression);
+		String expected = shuntingYard.toString();
+		
+		shuntingYard.convertFromInfixToPosfix(new StringReader(expression.toString()));
+		assertEquals(200000 * 6 + 1, shuntingYard.getExpression().size());
+		assertEquals(expected, shuntingYard.toString());
+	}
+	
+	/* 0 + d*(1-2) + ..., whose RPN has 6 tokens per term */
+	private static StringBuilder terms(int count) {
+		StringBuilder expression = new StringBuilder("0");
+		
+		for (int i = 0; i < count; i++)
+			expression.append("+").append(i % 10).append("*(1-2)");
+		
+		return expression;
+	}
+	
+	/* Counts the characters read from an expression */
+	private static final class CountingSequence implements CharSequence {
+		final CharSequence sequence;
+		long reads;
+		
+		CountingSequence(CharSequence sequence) {
+			this.sequence = sequence;
+		}
+		
+		public int length() {
+			return sequence.length();
+		}
+		
+		public char charAt(int index) {
+			reads++;
+			return sequence.charAt(index);
+		}
+		
+		public CharSequence subSequence(int start, int end) {
+			reads += end - start;
+			return sequence.subSequence(start, end);
+		}
+		
+		public String toString() {
+			reads += sequence.length();
+			return sequence.toString();
+		}
+	}
 }
@@ -0,0 +1,176 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import parser.CompiledExpression;
+import parser.ExpressionCompiler;
+import parser.ExpressionStatistics;
+import parser.FunctionRegistry;
+import parser.Metrics;
+import parser.Metrics.Failure;
+import parser.Metrics.Stage;
+import parser.ScalarFunction;
+import exceptions.LexerException;
+import exceptions.ParserException;
+
+public class MetricsTests {
+	ExpressionCompiler compiler;
+
+	@Before
+	public void setUp() throws Exception {
+		compiler = new ExpressionCompiler();
+		compiler.setScalarVariable();
+		Metrics.reset();
+		Metrics.setEnabled(true);
+	}
+
+	@After
+	public void tearDown() {
+		Metrics.setEnabled(false);
+		Metrics.reset();
+	}
+
+	@Test public void stagesAreCounted() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("x^2 + sin(x)");
+
+		e.evaluate(1);
+		e.evaluate(2);
+		e.evaluateBatch(new double[300], new double[300]);
+
+		assertEquals(1, Metrics.getLatency(Stage.LEXING).getCount());
+		assertEquals(1, Metrics.getLatency(Stage.SHUNTING_YARD).getCount());
+		assertEquals(1, Metrics.getLatency(Stage.COMPILATION).getCount());
+		assertEquals(3, Metrics.getLatency(Stage.EVALUATION).getCount());
+		assertTrue(Metrics.getLatency(Stage.COMPILATION).getTotalNanos() > 0);
+		assertTrue(Metrics.getLatency(Stage.EVALUATION).getPercentileNanos(1) >= Metrics.getLatency(Stage.EVALUATION)
+				.getPercentileNanos(0.5));
+	}
+
+	@Test public void failedLexingIsCounted() throws LexerException, ParserException {
+		try {
+			compiler.compile("x^2 + 3 $ 1");
+		}
+		catch (LexerException e) {
+			//expected
+		}
+
+		assertEquals(1, Metrics.getLatency(Stage.LEXING).getCount());
+		assertEquals(1, Metrics.getLatency(Stage.SHUNTING_YARD).getCount());
+	}
+
+	@Test public void expressionStatistics() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("1/x");
+
+		e.evaluate(1);
+		e.evaluateBatch(new double[] {1, 2, 3}, new double[3]);
+		try {
+			e.evaluate(0);
+		}
+		catch (ParserException expected) { }
+
+		ExpressionStatistics statistics = Metrics.getExpressionStatistics().get("1/x");
+		assertEquals(3, statistics.getEvaluations());
+		assertEquals(5, statistics.getRows());
+		assertEquals(5 * e.getInstructionCount(), statistics.getOperations());
+		assertEquals(1, statistics.getFailures());
+	}
+
+	@Test public void failuresByCause() throws LexerException, ParserException {
+		String[] failing = {"1/x", "x^0-0^x*0^(x*0)", "ln(x)", "sec(x+pi/2)"};
+
+		for (String expression : failing)
+			try {
+				compiler.compile(expression).evaluate(0);
+			}
+			catch (ParserException expected) { }
+
+		try {
+			compiler.compile("(x+1");
+		}
+		catch (ParserException expected) { }
+
+		assertEquals(2, Metrics.getFailures(Failure.DIVISION_BY_ZERO));
+		assertEquals(1, Metrics.getFailures(Failure.ZERO_TO_THE_ZERO));
+		assertEquals(1, Metrics.getFailures(Failure.LOGARITHM_DOMAIN));
+		assertEquals(1, Metrics.getFailures(Failure.MALFORMED));
+	}
+
+	@Test public void flaggedRowsAreCounted() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("1/x + ln(x)");
+		byte[] flags = new byte[4];
+
+		e.evaluateBatch(new double[][] {{0, 1, -2, 0}}, new double[4], flags);
+
+		assertEquals(2, Metrics.getFailures(Failure.DIVISION_BY_ZERO));
+		assertEquals(3, Metrics.getFailures(Failure.LOGARITHM_DOMAIN));
+	}
+
+	@Test public void failuresDontDependOnMessages() throws LexerException, ParserException {
+		FunctionRegistry functions = new FunctionRegistry();
+		functions.register("fail", new ScalarFunction() {
+			public double evaluate(double x) throws ParserException {
+				throw new ParserException("Attempt to divide by zero.");
+			}
+		});
+		compiler.setFunctions(functions);
+
+		try {
+			compiler.compile("fail(x)").evaluate(1);
+		}
+		catch (ParserException expected) { }
+
+		assertEquals(0, Metrics.getFailures(Failure.DIVISION_BY_ZERO));
+		assertEquals(1, Metrics.getFailures(Failure.OTHER));
+	}
+
+	@Test public void missingVariablesWithFlagsAreCounted() throws LexerException, ParserException {
+		compiler.setIndexedVariables(2);
+		CompiledExpression e = compiler.compile("x[0] + x[1]");
+
+		try {
+			e.evaluateBatch(new double[][] {{1, 2}}, new double[2], new byte[2]);
+		}
+		catch (ParserException expected) { }
+
+		assertEquals(1, Metrics.getFailures(Failure.MALFORMED));
+		assertEquals(1, Metrics.getLatency(Stage.EVALUATION).getCount());
+	}
+
+	@Test public void fileEvaluationIsMeasured() throws LexerException, ParserException, IOException {
+		CompiledExpression e = compiler.compile("x^2 + 1");
+		Path input = Files.createTempFile("jparser", ".bin");
+		Path output = Files.createTempFile("jparser", ".bin");
+
+		try {
+			Files.write(input, new byte[8 * 1000]);
+			e.evaluateFile(input, output);
+		}
+		finally {
+			Files.delete(input);
+			Files.delete(output);
+		}
+
+		ExpressionStatistics statistics = Metrics.getExpressionStatistics().get("x^2 + 1");
+		assertEquals(1, Metrics.getLatency(Stage.EVALUATION).getCount());
+		assertEquals(1000, statistics.getRows());
+		assertEquals(1000 * e.getInstructionCount(), statistics.getOperations());
+	}
+
+	@Test public void disabledMeasuresNothing() throws LexerException, ParserException {
+		Metrics.setEnabled(false);
+		compiler.compile("x+1").evaluate(1);
+
+		assertEquals(0, Metrics.getLatency(Stage.COMPILATION).getCount());
+		assertEquals(0, Metrics.getLatency(Stage.EVALUATION).getCount());
+		assertTrue(Metrics.getExpressionStatistics().isEmpty());
+	}
+}
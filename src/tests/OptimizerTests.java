@@ -0,0 +1,291 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import parser.BytecodeCompiler;
+import parser.CompiledExpression;
+import parser.ExpressionCompiler;
+import parser.ScalarFunction;
+import parser.VectorFunction;
+import exceptions.LexerException;
+import exceptions.ParserException;
+
+public class OptimizerTests {
+	private static double DELTA = 1e-12;
+
+	ExpressionCompiler compiler;
+
+	@Before
+	public void setUp() throws Exception {
+		compiler = new ExpressionCompiler();
+		compiler.setScalarVariable();
+	}
+
+	@Test public void constantExpressionIsFolded() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("5+3*cos(ln(e) - 1)");
+
+		assertEquals(1, e.getInstructionCount());
+		assertEquals(8, e.evaluate(0), DELTA);
+	}
+
+	@Test public void constantSubtreeIsFolded() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("2*pi*x");
+
+		assertEquals(3, e.getInstructionCount());
+		assertEquals(4 * Math.PI, e.evaluate(2), DELTA);
+	}
+
+	@Test public void identities() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("+(--(x*1+0)/1)^1");
+
+		assertEquals(1, e.getInstructionCount());
+		assertEquals(-7.5, e.evaluate(-7.5), DELTA);
+	}
+
+	@Test public void redundantSigns() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("x+-sin(x) - -cos(x) + (-x)*(-x)");
+
+		assertEquals(11, e.getInstructionCount());
+		assertEquals(3 - Math.sin(3) + Math.cos(3) + 9, e.evaluate(3), DELTA);
+	}
+
+	@Test (expected=ParserException.class)
+	public void constantDivisionByZero() throws LexerException, ParserException {
+		compiler.compile("3/(2-2)");
+	}
+
+	@Test (expected=ParserException.class)
+	public void variableDivisionByZero() throws LexerException, ParserException {
+		compiler.compile("x/(2-2)");
+	}
+
+	@Test (expected=ParserException.class)
+	public void constantZeroPowerZero() throws LexerException, ParserException {
+		compiler.compile("x + 0^(1-1)");
+	}
+
+	@Test (expected=ParserException.class)
+	public void constantLnDomain() throws LexerException, ParserException {
+		compiler.compile("x * ln(sin(0))");
+	}
+
+	@Test public void epsilonIsUsedWhileFolding() throws LexerException, ParserException {
+		compiler.setEpsilon(1e-20);
+		assertEquals(1e15, compiler.compile("1/0.000000000000001").evaluate(0), 1);
+	}
+
+	@Test (expected=ParserException.class)
+	public void operandsWithoutOperator() throws LexerException, ParserException {
+		compiler.compile("(2)(3)");
+	}
+
+	@Test public void repeatedSubexpressionsAreShared() throws LexerException, ParserException {
+		compiler.setIndexedVariables(2);
+		CompiledExpression e = compiler.compile("sin(x[0]*x[1]) + sin(x[0]*x[1])*2 - sin(x[0]*x[1])^2");
+		double s = Math.sin(0.3 * 0.7);
+
+		assertEquals(4, e.getEliminatedNodes());
+		assertEquals(13, e.getInstructionCount());
+		assertEquals(s + s * 2 - s * s, e.evaluate(0.3, 0.7), DELTA);
+	}
+
+	@Test public void sharedSubexpressionsInEveryBackend() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("cos(x)*(1+cos(x)) / (2+cos(x)*(1+cos(x))) + ln(1+cos(x)^2)");
+		double[] x = new double[1000];
+		double[] out = new double[x.length];
+		ScalarFunction f = BytecodeCompiler.toScalarFunction(e);
+
+		for (int i = 0; i < x.length; i++)
+			x[i] = i / 100.0;
+
+		e.evaluateBatch(x, out);
+		for (int i = 0; i < x.length; i++) {
+			double c = Math.cos(x[i]);
+			double expected = c * (1 + c) / (2 + c * (1 + c)) + Math.log(1 + c * c);
+
+			assertEquals(expected, e.evaluate(x[i]), DELTA);
+			assertEquals(expected, out[i], DELTA);
+			assertEquals(expected, f.evaluate(x[i]), DELTA);
+		}
+	}
+
+	@Test public void integerPowersAreMultiplied() throws LexerException, ParserException {
+		assertEquals(5, compiler.compile("x^3").getInstructionCount());
+
+		CompiledExpression e = compiler.compile("x^2 + x^3 - (x+1)^5 + x^8");
+		for (double x = -3; x <= 3; x += 0.25) {
+			double expected = Math.pow(x, 2) + Math.pow(x, 3) - Math.pow(x + 1, 5) + Math.pow(x, 8);
+			assertEquals(expected, e.evaluate(x), Math.abs(expected) * 1e-15);
+		}
+	}
+
+	@Test public void squareRoot() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("x^0.5");
+
+		assertEquals(2, e.getInstructionCount());
+		assertEquals(Math.sqrt(7), e.evaluate(7), 0);
+		assertEquals(0.25, e.differentiate(4).getDerivative(), DELTA);
+	}
+
+	@Test public void exactDivisionByConstant() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("x/8 - x/0.25");
+
+		for (double x = -5; x <= 5; x += 0.37)
+			assertEquals(x / 8 - x / 0.25, e.evaluate(x), 0);
+	}
+
+	@Test public void relaxedDivisionByConstant() throws LexerException, ParserException {
+		compiler.setRelaxedArithmetic(true);
+		CompiledExpression e = compiler.compile("x/3");
+
+		assertEquals(3, e.getInstructionCount());
+		assertEquals(7 / 3.0, e.evaluate(7), DELTA);
+	}
+
+	@Test (expected=ParserException.class)
+	public void reducedPowerKeepsDomainCheck() throws LexerException, ParserException {
+		compiler.setEpsilon(1);
+		compiler.compile("x^0.5").evaluate(0);
+	}
+
+	@Test public void reducedOperationsInEveryBackend() throws LexerException, ParserException {
+		compiler.setIndexedVariables(2);
+		CompiledExpression e = compiler.compile("(x[0]+x[1])^4 * x[1]^0.5 - x[0]/16");
+		double[][] columns = new double[2][500];
+		double[] out = new double[500];
+		double[] gradient = new double[2];
+		VectorFunction f = BytecodeCompiler.toVectorFunction(e);
+
+		for (int i = 0; i < out.length; i++) {
+			columns[0][i] = i / 100.0 - 2;
+			columns[1][i] = i / 50.0;
+		}
+
+		e.evaluateBatch(columns, out);
+		for (int i = 0; i < out.length; i++) {
+			double a = columns[0][i];
+			double b = columns[1][i];
+			double expected = Math.pow(a + b, 4) * Math.sqrt(b) - a / 16;
+
+			assertEquals(expected, out[i], Math.abs(expected) * 1e-14);
+			assertEquals(expected, f.evaluate(new double[] {a, b}), Math.abs(expected) * 1e-14);
+		}
+
+		e.gradient(new double[] {1, 4}, gradient);
+		assertEquals(4 * 125 * 2 - 1 / 16.0, gradient[0], 1e-9);
+		assertEquals(4 * 125 * 2 + 625 / 4.0, gradient[1], 1e-9);
+	}
+
+	@Test public void polynomialsUseHornersForm() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("3*x^5 - 2*x^3 + x - 7");
+
+		//((3*x*x - 2)*x*x + 1)*x - 7: 8 operations, 4 constants and 5 variables
+		assertEquals(17, e.getInstructionCount());
+		for (double x = -3; x <= 3; x += 0.125) {
+			double[] c = {-7, 1, 0, -2, 0, 3};
+			double expected = 3 * Math.pow(x, 5) - 2 * Math.pow(x, 3) + x - 7;
+
+			assertEquals(expected, e.evaluate(x), bound(c, x));
+			assertEquals(15 * Math.pow(x, 4) - 6 * x * x + 1, e.differentiate(x).getDerivative(), bound(c, x) * 20);
+		}
+	}
+
+	@Test public void factoredPolynomialsAreNotExpanded() throws LexerException, ParserException {
+		assertEquals(compiler.compile("(x+1)^5").getInstructionCount(),
+				compiler.compile("(x+1)^5 + 0").getInstructionCount());
+	}
+
+	@Test public void highDegreePolynomialsUseEstrinsForm() throws LexerException, ParserException {
+		double[] c = {1, -1, 0.5, -1 / 6.0, 1 / 24.0, -1 / 120.0, 1 / 720.0, -1 / 5040.0, 1 / 40320.0, -1 / 362880.0};
+		StringBuilder source = new StringBuilder("1");
+
+		for (int i = 1; i < c.length; i++)
+			source.append(" + ").append(new BigDecimal(c[i]).toPlainString()).append("*x^").append(i);
+
+		CompiledExpression e = compiler.compile(source.toString());
+		VectorFunction f = BytecodeCompiler.toVectorFunction(e);
+
+		for (double x = -4; x <= 4; x += 0.1) {
+			double expected = 0;
+			for (int i = 0; i < c.length; i++)
+				expected += c[i] * Math.pow(x, i);
+
+			assertEquals(expected, e.evaluate(x), bound(c, x));
+			assertEquals(expected, f.evaluate(new double[] {x}), bound(c, x));
+			assertEquals(Math.exp(-x), e.evaluate(x), Math.abs(Math.pow(x, 10)) / 3628800 * Math.exp(4));
+		}
+	}
+
+	@Test public void rationalPolynomials() throws LexerException, ParserException {
+		CompiledExpression e = compiler.compile("(x^3 + 2*x^2 - 1) / (x^4 - 3*x^2 + 5)");
+		double[] column = new double[200];
+		double[] out = new double[200];
+
+		for (int i = 0; i < column.length; i++)
+			column[i] = i / 25.0 - 4;
+
+		e.evaluateBatch(column, out);
+		for (int i = 0; i < column.length; i++) {
+			double x = column[i];
+			double expected = (Math.pow(x, 3) + 2 * x * x - 1) / (Math.pow(x, 4) - 3 * x * x + 5);
+
+			assertEquals(expected, out[i], DELTA);
+		}
+	}
+
+	@Test public void polynomialsStayWithinTheirBound() throws LexerException, ParserException {
+		Random random = new Random(42);
+
+		for (int trial = 0; trial < 50; trial++) {
+			double[] c = new double[1 + random.nextInt(12)];
+			StringBuilder source = new StringBuilder("0");
+
+			for (int i = 0; i < c.length; i++) {
+				c[i] = random.nextGaussian() * 10;
+				if (i == 0)
+					source.append(" + ").append(new BigDecimal(c[i]).toPlainString());
+				else
+					source.append(" + ").append(new BigDecimal(c[i]).toPlainString()).append("*x^").append(i);
+			}
+
+			CompiledExpression e = compiler.compile(source.toString());
+			for (int point = 0; point < 20; point++) {
+				double x = random.nextGaussian() * 2;
+				double naive = 0;
+
+				for (int i = 0; i < c.length; i++)
+					naive += c[i] * Math.pow(x, i);
+
+				assertEquals(naive, e.evaluate(x), bound(c, x));
+			}
+		}
+	}
+
+	@Test public void cancellingLikeTermsAreKept() throws LexerException, ParserException {
+		//merged, both would lose the 1 to rounding, while as written it survives
+		assertEquals(0.0, compiler.compile("(x+10000000000000000)-10000000000000000").evaluate(1), 0);
+		assertEquals(1.0, compiler.compile("x*x+100000000000000000*x-100000000000000000*x+1").evaluate(1), 0);
+		assertEquals(1.0, compiler.compile("(x*x+100000000000000000*x)*2-200000000000000000*x+1").evaluate(1), 0);
+
+		//like terms which don't cancel are still merged
+		assertEquals(11.0, compiler.compile("3*x^2 + 2*x^2 + 1").evaluate(Math.sqrt(2)), 1e-14);
+	}
+
+	/* 2 * gamma(2n + 2) * (|c[0]| + |c[1]*x| + ... + |c[n]*x^n|), the bound documented by the compiler */
+	private static double bound(double[] c, double x) {
+		double u = Math.ulp(1.0) / 2;
+		double k = 2 * c.length;
+		double terms = 0;
+
+		for (int i = 0; i < c.length; i++)
+			terms += Math.abs(c[i] * Math.pow(x, i));
+
+		return 2 * k * u / (1 - k * u) * terms;
+	}
+}
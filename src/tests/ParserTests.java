@@ -139,6 +139,21 @@ public class ParserTests {
 		assertEquals(0, parser.evaluate(), DELTA);
 	}
 
+	@Test public void parenthesisedLeftOperand() throws LexerException, ParserException {
+		parser.compileExpression("(2+3)*2");
+		assertEquals(10, parser.evaluate(), DELTA);
+	}
+	
+	@Test public void parenthesisedOperandAfterOperator() throws LexerException, ParserException {
+		parser.compileExpression("1-(2)*3");
+		assertEquals(-5, parser.evaluate(), DELTA);
+	}
+	
+	@Test (expected=ParserException.class) 
+	public void unbalancedRightParenthesis() throws LexerException, ParserException {
+		parser.compileExpression("2)");
+	}
+	
 	@Test public void singleVariable() throws LexerException, ParserException {
 		parser.setVariable(2);
 		parser.compileExpression("x^2");
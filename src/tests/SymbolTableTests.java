@@ -0,0 +1,154 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import parser.CompileCache;
+import parser.CompiledExpression;
+import parser.CompiledSystem;
+import parser.ExpressionCompiler;
+import parser.ExpressionLibrary;
+import parser.FunctionRegistry;
+import parser.ScalarFunction;
+import parser.SymbolTable;
+import exceptions.LexerException;
+import exceptions.ParserException;
+
+public class SymbolTableTests {
+	private static double DELTA = 1e-12;
+
+	SymbolTable symbols;
+	ExpressionCompiler compiler;
+
+	@Before
+	public void setUp() throws Exception {
+		symbols = new SymbolTable("spot", "vol", "rate");
+		compiler = new ExpressionCompiler();
+		compiler.setSymbols(symbols);
+	}
+
+	@Test public void namesAreBoundToSlots() {
+		assertEquals(3, symbols.size());
+		assertEquals(1, symbols.getSlot("vol"));
+		assertEquals(2, symbols.getSlot("RATE"));
+		assertEquals(-1, symbols.getSlot("strike"));
+		assertEquals("spot", symbols.getName(0));
+		assertEquals(Arrays.asList("spot", "vol", "rate"), symbols.getNames());
+	}
+
+	@Test public void namedVariables() throws LexerException, ParserException {
+		CompiledExpression f = compiler.compile("spot * e^(-rate) + Vol^2");
+		double[] slots = new double[symbols.size()];
+
+		slots[symbols.getSlot("spot")] = 100;
+		slots[symbols.getSlot("vol")] = 0.2;
+		slots[symbols.getSlot("rate")] = 0.05;
+
+		assertEquals(100 * Math.exp(-0.05) + 0.04, f.evaluate(slots), DELTA);
+		assertEquals(3, f.getMaxDimension());
+		assertSame(symbols, f.getSymbols());
+
+		//rebinding a variable is an array write
+		slots[symbols.getSlot("rate")] = 0;
+		assertEquals(100 + 0.04, f.evaluate(slots), DELTA);
+	}
+
+	@Test public void namesArePrefixesOfOthers() throws LexerException, ParserException {
+		compiler.setSymbols(new SymbolTable("a", "ab", "abc"));
+
+		assertEquals(1 + 20 + 300, compiler.compile("a + 2*ab + 3*abc").evaluate(1, 10, 100), DELTA);
+	}
+
+	@Test public void systemsUseNamedVariables() throws LexerException, ParserException {
+		CompiledSystem f = compiler.compileSystem("spot*vol", "spot*vol + rate");
+		double[] out = new double[2];
+
+		f.evaluate(new double[] {2, 3, 4}, out);
+		assertEquals(6, out[0], DELTA);
+		assertEquals(10, out[1], DELTA);
+		assertSame(symbols, f.getSymbols());
+	}
+
+	@Test (expected=LexerException.class)
+	public void unknownName() throws LexerException, ParserException {
+		compiler.compile("spot * strike");
+	}
+
+	@Test (expected=LexerException.class)
+	public void xIsNotAllowed() throws LexerException, ParserException {
+		compiler.compile("spot * x");
+	}
+
+	@Test (expected=LexerException.class)
+	public void namesCantBeIndexed() throws LexerException, ParserException {
+		compiler.compile("spot[0]");
+	}
+
+	@Test (expected=LexerException.class)
+	public void variableAndFunctionWithTheSameName() throws LexerException, ParserException {
+		FunctionRegistry functions = new FunctionRegistry();
+		functions.register("vol", new ScalarFunction() {
+			public double evaluate(double x) {
+				return x;
+			}
+		});
+
+		compiler.setFunctions(functions);
+		compiler.compile("vol");
+	}
+
+	@Test public void otherConfigurationsForgetTheNames() throws LexerException, ParserException {
+		compiler.compile("spot");
+		compiler.setScalarVariable();
+
+		assertNull(compiler.getSymbols());
+		assertEquals(6, compiler.compile("2*x").evaluate(3), DELTA);
+	}
+
+	@Test (expected=IllegalArgumentException.class)
+	public void reservedName() {
+		new SymbolTable("spot", "x");
+	}
+
+	@Test (expected=IllegalArgumentException.class)
+	public void repeatedName() {
+		new SymbolTable("spot", "Spot");
+	}
+
+	@Test (expected=IllegalArgumentException.class)
+	public void invalidName() {
+		new SymbolTable("spot2");
+	}
+
+	@Test public void cacheKeyIncludesTheNames() throws LexerException, ParserException {
+		compiler.setCache(new CompileCache(4));
+		CompiledExpression first = compiler.compile("spot*vol");
+
+		assertSame(first, compiler.compile("spot*vol"));
+
+		compiler.setSymbols(new SymbolTable("vol", "spot", "rate"));
+		CompiledExpression swapped = compiler.compile("spot*vol");
+
+		assertNotSame(first, swapped);
+		assertEquals(0, swapped.evaluate(2, 0, 0), DELTA);
+	}
+
+	@Test public void librariesKeepTheNames() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		ExpressionLibrary.write(out, Arrays.asList(compiler.compile("spot - rate")));
+		CompiledExpression f = ExpressionLibrary.read(ByteBuffer.wrap(out.toByteArray()), null).get(0);
+
+		assertEquals(symbols, f.getSymbols());
+		assertEquals(7, f.evaluate(10, 0, 3), DELTA);
+	}
+}